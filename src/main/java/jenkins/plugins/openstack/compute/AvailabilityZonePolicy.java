@@ -0,0 +1,120 @@
+package jenkins.plugins.openstack.compute;
+
+import hudson.Util;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.model.compute.Server;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Order in which availability zones configured for a template are tried.
+ *
+ * When the boot fails as the zone is out of capacity, the next zone in the order is tried.
+ */
+@Restricted(NoExternalUse.class)
+public enum AvailabilityZonePolicy {
+
+    /**
+     * Use zones in the configured order, the next zone is used only when the previous ones are out of capacity.
+     */
+    FILL_FIRST("Fill first") {
+        @Override
+        /*package*/ @Nonnull List<String> order(@Nonnull JCloudsSlaveTemplate template, @Nonnull List<String> zones) {
+            return zones;
+        }
+    },
+
+    /**
+     * Start with a different zone for every server provisioned.
+     */
+    SPREAD("Spread evenly") {
+        @Override
+        /*package*/ @Nonnull List<String> order(@Nonnull JCloudsSlaveTemplate template, @Nonnull List<String> zones) {
+            List<String> ordered = new ArrayList<>(zones);
+            if (ordered.size() > 1) {
+                Collections.rotate(ordered, -(template.nextZoneRotation() % ordered.size()));
+            }
+            return ordered;
+        }
+    },
+
+    /**
+     * Start with the zone hosting the least servers of the template.
+     */
+    LEAST_LOADED("Least loaded") {
+        @Override
+        /*package*/ @Nonnull List<String> order(@Nonnull JCloudsSlaveTemplate template, @Nonnull List<String> zones) {
+            if (zones.size() < 2) return zones;
+
+            final Map<String, Integer> load = new HashMap<>();
+            try {
+                for (Server server : template.getRunningNodes()) {
+                    String az = server.getAvailabilityZone();
+                    if (az == null) continue;
+                    Integer current = load.get(az);
+                    load.put(az, current == null ? 1 : current + 1);
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Unable to determine availability zone load for " + template.name, ex);
+                return zones;
+            }
+
+            List<String> ordered = new ArrayList<>(zones);
+            // Stable sort so equally loaded zones are used in configured order
+            Collections.sort(ordered, new Comparator<String>() {
+                @Override public int compare(String o1, String o2) {
+                    return Integer.compare(count(load, o1), count(load, o2));
+                }
+            });
+            return ordered;
+        }
+
+        private int count(Map<String, Integer> load, String zone) {
+            Integer c = load.get(zone);
+            return c == null ? 0 : c;
+        }
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(AvailabilityZonePolicy.class.getName());
+
+    private final @Nonnull String displayName;
+
+    AvailabilityZonePolicy(@Nonnull String displayName) {
+        this.displayName = displayName;
+    }
+
+    public @Nonnull String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Order configured zones from the most preferred one.
+     */
+    /*package*/ abstract @Nonnull List<String> order(@Nonnull JCloudsSlaveTemplate template, @Nonnull List<String> zones);
+
+    /**
+     * Get policy by its name as stored in {@link SlaveOptions}.
+     *
+     * @return The policy, {@link #FILL_FIRST} when not specified or not recognized.
+     */
+    public static @Nonnull AvailabilityZonePolicy fromName(@CheckForNull String name) {
+        name = Util.fixEmptyAndTrim(name);
+        if (name == null) return FILL_FIRST;
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warning("Unknown availability zone policy '" + name + "', using " + FILL_FIRST);
+            return FILL_FIRST;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package jenkins.plugins.openstack.compute;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.slaveopts.BootSource;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.model.storage.block.Volume;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keep a pool of boot volumes cloned from the volume snapshot of the template ahead of time.
+ *
+ * Cloning the volume while the server boots can take the majority of the provisioning time. Pooled volumes are named
+ * <tt>jenkins-pool-$CLOUD-$TEMPLATE-$CREATED</tt> and spread across the availability zones of the template. Provisioning
+ * claims an available one by renaming it and boots from it directly, falling back to the snapshot when the pool is
+ * empty. Volumes cloned from a snapshot that is no longer the one the template resolves to are deleted and replaced.
+ * Volumes of templates that no longer have the pool enabled, or no longer exist, are deleted.
+ */
+@Extension @Restricted(NoExternalUse.class)
+public final class BootVolumePool extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(BootVolumePool.class.getName());
+
+    /*package*/ static final String PREFIX = "jenkins-pool-";
+
+    // Volumes available to be claimed per template prefix, as of the last maintenance
+    private static final ConcurrentMap<String, Pool> POOLS = new ConcurrentHashMap<>();
+
+    public BootVolumePool() {
+        super("OpenStack boot volume pool maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    public void execute(TaskListener listener) {
+        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            try {
+                maintain(cloud);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Unable to maintain boot volume pools of " + cloud.name, ex);
+            }
+        }
+    }
+
+    /*package*/ static void maintain(@Nonnull JCloudsCloud cloud) {
+        Openstack openstack = cloud.getOpenstack();
+        // Listing the volumes once for all templates of the cloud
+        String cloudPrefix = PREFIX + cloud.name + "-";
+        List<Volume> volumes = openstack.getVolumesByNamePrefix(cloudPrefix);
+        for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+            if (!template.isVolumePoolEnabled()) continue;
+
+            try {
+                maintain(cloud, template, volumes);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Unable to maintain boot volume pool of " + cloud.name + "/" + template.name, ex);
+            }
+        }
+
+        collectOrphans(openstack, cloudPrefix, volumes);
+    }
+
+    private static void maintain(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template, @Nonnull List<Volume> volumes) {
+        Openstack openstack = cloud.getOpenstack();
+        String snapshotId = getSnapshot(template).resolveId(openstack);
+        String prefix = prefix(cloud, template);
+        List<String> zones = getZones(template);
+
+        List<Volume> available = new ArrayList<>();
+        Map<String, Integer> fresh = new HashMap<>();
+        for (String zone : zones) {
+            fresh.put(zone, 0);
+        }
+        int total = 0;
+        for (Volume volume : filter(volumes, prefix)) {
+            Volume.Status status = volume.getStatus();
+            if (snapshotId.equals(volume.getSnapshotId()) && isUsable(status)) {
+                total++;
+                Integer inZone = fresh.get(volume.getZone());
+                if (inZone != null) {
+                    fresh.put(volume.getZone(), inZone + 1);
+                }
+                if (status == Volume.Status.AVAILABLE) {
+                    available.add(volume);
+                }
+            } else if (status != Volume.Status.DELETING) {
+                LOGGER.info("Deleting stale pooled volume " + volume.getName() + " cloned from " + volume.getSnapshotId());
+                destroy(openstack, volume);
+            }
+        }
+        getPool(prefix).refresh(available);
+
+        Integer size = template.getVolumePoolSize();
+        for (; size != null && total < size; total++) {
+            // Spread the volumes so there are some in every zone the server can be booted in
+            String zone = null;
+            for (String z : zones) {
+                if (zone == null || fresh.get(z) < fresh.get(zone)) {
+                    zone = z;
+                }
+            }
+
+            String name = prefix + System.currentTimeMillis();
+            String description = "Boot volume pool of " + cloud.name + "/" + template.name + ", from VolumeSnapshot " + snapshotId + ".";
+            try {
+                openstack.createVolumeFromSnapshot(snapshotId, name, description, zone);
+            } catch (Openstack.ActionFailed ex) {
+                LOGGER.log(Level.WARNING, "Unable to clone pooled volume " + name, ex);
+                break; // Retry next time
+            }
+            if (zone != null) {
+                fresh.put(zone, fresh.get(zone) + 1);
+            }
+        }
+    }
+
+    /**
+     * Delete pooled volumes of the cloud that no template with the pool enabled claims.
+     *
+     * Cloud name can be a prefix of other cloud name so the templates of all clouds are considered.
+     */
+    private static void collectOrphans(@Nonnull Openstack openstack, @Nonnull String cloudPrefix, @Nonnull List<Volume> volumes) {
+        List<String> prefixes = new ArrayList<>();
+        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+                if (template.isVolumePoolEnabled()) {
+                    prefixes.add(prefix(cloud, template));
+                }
+            }
+        }
+
+        outer: for (Volume volume : volumes) {
+            // Named jenkins-pool-$CLOUD-$TEMPLATE-$CREATED
+            if (!volume.getName().substring(cloudPrefix.length()).matches(".+-\\d+")) continue;
+
+            for (String prefix : prefixes) {
+                if (isPooled(volume, prefix)) continue outer;
+            }
+
+            Volume.Status status = volume.getStatus();
+            if (status == Volume.Status.AVAILABLE || status == Volume.Status.ERROR) {
+                LOGGER.info("Deleting pooled volume " + volume.getName() + " no template with volume pool uses");
+                destroy(openstack, volume);
+            }
+        }
+    }
+
+    private static void destroy(@Nonnull Openstack openstack, @Nonnull Volume volume) {
+        try {
+            openstack.destroyVolume(volume.getId());
+        } catch (Openstack.ActionFailed ex) {
+            LOGGER.log(Level.WARNING, "Unable to delete pooled volume " + volume.getName(), ex);
+        }
+    }
+
+    /**
+     * Take available volume out of the pool for the server to boot from.
+     *
+     * The volume is deleted with the server so it needs to be claimed for every boot attempt. Only the volumes available
+     * as of the last maintenance are considered.
+     *
+     * @param zone Availability zone the server is booted in, null if not specified.
+     * @return Id of the volume or null if there is none ready.
+     */
+    /*package*/ static @CheckForNull String claim(
+            @Nonnull Openstack openstack, @Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template,
+            @Nonnull String serverName, @CheckForNull String zone
+    ) {
+        String snapshotId = getSnapshot(template).resolveId(openstack);
+        Pool pool = getPool(prefix(cloud, template));
+        synchronized (pool) {
+            Iterator<Volume> it = pool.available.iterator();
+            while (it.hasNext()) {
+                Volume volume = it.next();
+                if (!snapshotId.equals(volume.getSnapshotId())) continue;
+                // Volume can not be attached across availability zones
+                if (zone != null && volume.getZone() != null && !zone.equals(volume.getZone())) continue;
+
+                it.remove();
+                try {
+                    // Renaming takes it out of the pool
+                    openstack.setVolumeNameAndDescription(volume.getId(), serverName + "[0]", "Claimed by " + serverName + ".");
+                    return volume.getId();
+                } catch (Openstack.ActionFailed ex) {
+                    LOGGER.log(Level.WARNING, "Unable to claim pooled volume " + volume.getName(), ex);
+                }
+            }
+        }
+        return null;
+    }
+
+    /*package*/ static @Nonnull String prefix(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template) {
+        return PREFIX + cloud.name + "-" + template.name + "-";
+    }
+
+    private static @Nonnull BootSource.VolumeSnapshot getSnapshot(@Nonnull JCloudsSlaveTemplate template) {
+        return (BootSource.VolumeSnapshot) template.getEffectiveSlaveOptions().getBootSource();
+    }
+
+    /**
+     * Availability zones of the template, single null element when not specified.
+     */
+    private static @Nonnull List<String> getZones(@Nonnull JCloudsSlaveTemplate template) {
+        List<String> zones = new ArrayList<>();
+        String azs = template.getEffectiveSlaveOptions().getAvailabilityZone();
+        if (azs != null) {
+            for (String az : azs.split(",")) {
+                az = az.trim();
+                if (!az.isEmpty()) {
+                    zones.add(az);
+                }
+            }
+        }
+        if (zones.isEmpty()) {
+            zones.add(null);
+        }
+        return zones;
+    }
+
+    private static @Nonnull Pool getPool(@Nonnull String prefix) {
+        Pool pool = POOLS.get(prefix);
+        if (pool == null) {
+            POOLS.putIfAbsent(prefix, new Pool());
+            pool = POOLS.get(prefix);
+        }
+        return pool;
+    }
+
+    private static @Nonnull List<Volume> filter(@Nonnull List<Volume> volumes, @Nonnull String prefix) {
+        List<Volume> ret = new ArrayList<>();
+        for (Volume volume : volumes) {
+            if (isPooled(volume, prefix)) {
+                ret.add(volume);
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isPooled(@Nonnull Volume volume, @Nonnull String prefix) {
+        // Prefix of other template can be prefix of this one
+        String name = volume.getName();
+        return name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+");
+    }
+
+    private static boolean isUsable(@CheckForNull Volume.Status status) {
+        return status == Volume.Status.AVAILABLE || status == Volume.Status.CREATING || status == Volume.Status.DOWNLOADING;
+    }
+
+    private static final class Pool {
+        // Guarded by this
+        private List<Volume> available = new ArrayList<>();
+
+        private synchronized void refresh(@Nonnull List<Volume> available) {
+            this.available = available;
+        }
+    }
+}
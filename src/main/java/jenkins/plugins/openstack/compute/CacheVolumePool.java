@@ -0,0 +1,251 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.api.Builders;
+import org.openstack4j.model.compute.BDMDestType;
+import org.openstack4j.model.compute.BDMSourceType;
+import org.openstack4j.model.compute.BlockDeviceMappingCreate;
+import org.openstack4j.model.storage.block.Volume;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Data volumes preserving build caches across agents of a template.
+ *
+ * Cache volumes are named <tt>jenkins-cache-$CLOUD-$TEMPLATE-$CREATED</tt>. Provisioning attaches a detached one or
+ * creates new one when all are in use, so the pool grows up to the number of concurrently running agents, but not over
+ * {@link #MAX_VOLUMES}. The volume is not deleted with the server so Nova detaches it on termination, returning it to the
+ * pool.
+ *
+ * Volume claimed for a server being booted is still reported available until Nova attaches it, so the claim is recorded
+ * in its description until the boot attempt times out. Detached volumes of templates that no longer have the cache
+ * enabled, or no longer exist, are deleted, and so are the ones over the limit.
+ */
+@Extension @Restricted(NoExternalUse.class)
+public final class CacheVolumePool extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(CacheVolumePool.class.getName());
+
+    /*package*/ static final String PREFIX = "jenkins-cache-";
+
+    /**
+     * Maximal number of cache volumes per template.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int MAX_VOLUMES = Integer.getInteger(CacheVolumePool.class.getName() + ".maxVolumes", 20);
+
+    private static final Pattern CLAIM = Pattern.compile(".* Claimed by \\S+ until (\\d+)\\.$");
+
+    // Serialize claims within the template so the volume is not claimed twice before its description is updated
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    public CacheVolumePool() {
+        super("OpenStack cache volume pool maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN * 10;
+    }
+
+    @Override
+    public void execute(TaskListener listener) {
+        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            try {
+                maintain(cloud);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Unable to maintain cache volumes of " + cloud.name, ex);
+            }
+        }
+    }
+
+    /*package*/ static void maintain(@Nonnull JCloudsCloud cloud) {
+        Openstack openstack = cloud.getOpenstack();
+        String cloudPrefix = PREFIX + cloud.name + "-";
+        List<String> prefixes = new ArrayList<>();
+        // Cloud name can be a prefix of other cloud name so the templates of all clouds are considered
+        for (JCloudsCloud c : JCloudsCloud.getClouds()) {
+            for (JCloudsSlaveTemplate template : c.getTemplates()) {
+                if (template.getCacheVolumeSize() != null) {
+                    prefixes.add(prefix(c, template));
+                }
+            }
+        }
+
+        outer: for (Volume volume : openstack.getVolumesByNamePrefix(cloudPrefix)) {
+            // Named jenkins-cache-$CLOUD-$TEMPLATE-$CREATED
+            if (!volume.getName().substring(cloudPrefix.length()).matches(".+-\\d+")) continue;
+
+            for (String prefix : prefixes) {
+                if (isCached(volume, prefix)) continue outer;
+            }
+
+            if (isDetached(volume)) {
+                LOGGER.info("Deleting cache volume " + volume.getName() + " no template with cache uses");
+                destroy(openstack, volume);
+            }
+        }
+
+        for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+            if (template.getCacheVolumeSize() == null) continue;
+
+            String prefix = prefix(cloud, template);
+            synchronized (getLock(prefix)) {
+                List<Volume> volumes = list(openstack, prefix);
+                // Delete the oldest detached ones first
+                for (int i = 0; i < volumes.size() && volumes.size() - i > MAX_VOLUMES; i++) {
+                    Volume volume = volumes.get(i);
+                    if (isDetached(volume)) {
+                        LOGGER.info("Deleting cache volume " + volume.getName() + " over the limit of " + MAX_VOLUMES);
+                        destroy(openstack, volume);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim detached cache volume or create a new one.
+     *
+     * The claim expires when the boot attempt times out. Volume of successful attempt is attached by then.
+     *
+     * @param zone Availability zone the server is booted in, null if not specified.
+     * @param excluded Volumes not to claim, such as those still detaching from the servers of failed attempts.
+     * @param timeout Remaining time of the boot attempt.
+     * @return Volume claimed or null when there are {@link #MAX_VOLUMES} in use already.
+     */
+    /*package*/ static @CheckForNull Volume claim(
+            @Nonnull Openstack openstack, @Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template,
+            @Nonnull String serverName, int size, @CheckForNull String zone, @Nonnull Collection<String> excluded, int timeout
+    ) throws Openstack.ActionFailed {
+        String prefix = prefix(cloud, template);
+        String description = "Build cache of " + cloud.name + "/" + template.name + ".";
+        String claimed = description + " Claimed by " + serverName + " until " + (System.currentTimeMillis() + timeout) + ".";
+        synchronized (getLock(prefix)) {
+            List<Volume> volumes = list(openstack, prefix);
+            for (Volume volume : volumes) {
+                if (!isDetached(volume)) continue;
+                // Volume can not be attached across availability zones
+                if (zone != null && volume.getZone() != null && !zone.equals(volume.getZone())) continue;
+                if (excluded.contains(volume.getId())) continue;
+
+                try {
+                    openstack.setVolumeNameAndDescription(volume.getId(), volume.getName(), claimed);
+                    return volume;
+                } catch (Openstack.ActionFailed ex) {
+                    LOGGER.log(Level.WARNING, "Unable to claim cache volume " + volume.getName(), ex);
+                }
+            }
+
+            if (volumes.size() >= MAX_VOLUMES) {
+                LOGGER.warning("All " + volumes.size() + " cache volumes of " + cloud.name + "/" + template.name + " are in use");
+                return null;
+            }
+
+            return openstack.createVolumeAndWaitAvailable(prefix + System.currentTimeMillis(), size, claimed, zone, timeout);
+        }
+    }
+
+    /**
+     * Attach the volume as a secondary disk that survives the server.
+     */
+    /*package*/ static @Nonnull BlockDeviceMappingCreate mapping(@Nonnull String volumeId) {
+        return Builders.blockDeviceMapping()
+                .sourceType(BDMSourceType.VOLUME)
+                .destinationType(BDMDestType.VOLUME)
+                .uuid(volumeId)
+                .deleteOnTermination(false)
+                .bootIndex(-1)
+                .build()
+        ;
+    }
+
+    /**
+     * Stable device path of the attached volume.
+     *
+     * Nova does not guarantee the device name so the path is derived from the volume serial virtio reports.
+     */
+    /*package*/ static @Nonnull String devicePath(@Nonnull String volumeId) {
+        return "/dev/disk/by-id/virtio-" + volumeId.substring(0, Math.min(20, volumeId.length()));
+    }
+
+    /*package*/ static @Nonnull String prefix(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template) {
+        return PREFIX + cloud.name + "-" + template.name + "-";
+    }
+
+    /**
+     * Cache volumes of the template, oldest first.
+     */
+    private static @Nonnull List<Volume> list(@Nonnull Openstack openstack, @Nonnull final String prefix) {
+        List<Volume> volumes = new ArrayList<>();
+        for (Volume volume : openstack.getVolumesByNamePrefix(prefix)) {
+            if (isCached(volume, prefix)) {
+                volumes.add(volume);
+            }
+        }
+        Collections.sort(volumes, new Comparator<Volume>() {
+            @Override public int compare(Volume o1, Volume o2) {
+                return Long.compare(created(o1, prefix), created(o2, prefix));
+            }
+        });
+        return volumes;
+    }
+
+    private static boolean isCached(@Nonnull Volume volume, @Nonnull String prefix) {
+        // Prefix of other template can be prefix of this one
+        String name = volume.getName();
+        return name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+");
+    }
+
+    private static long created(@Nonnull Volume volume, @Nonnull String prefix) {
+        return Long.parseLong(volume.getName().substring(prefix.length()));
+    }
+
+    /**
+     * Volume not attached to any server nor claimed to be.
+     */
+    private static boolean isDetached(@Nonnull Volume volume) {
+        if (volume.getStatus() != Volume.Status.AVAILABLE) return false;
+        if (volume.getAttachments() != null && !volume.getAttachments().isEmpty()) return false;
+
+        String description = volume.getDescription();
+        if (description == null) return true;
+
+        Matcher matcher = CLAIM.matcher(description);
+        return !matcher.matches() || Long.parseLong(matcher.group(1)) < System.currentTimeMillis();
+    }
+
+    private static void destroy(@Nonnull Openstack openstack, @Nonnull Volume volume) {
+        try {
+            openstack.destroyVolume(volume.getId());
+        } catch (Openstack.ActionFailed ex) {
+            LOGGER.log(Level.WARNING, "Unable to delete cache volume " + volume.getName(), ex);
+        }
+    }
+
+    private static @Nonnull Object getLock(@Nonnull String prefix) {
+        Object lock = LOCKS.get(prefix);
+        if (lock == null) {
+            LOCKS.putIfAbsent(prefix, new Object());
+            lock = LOCKS.get(prefix);
+        }
+        return lock;
+    }
+}
@@ -0,0 +1,239 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.Jenkins;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.model.image.Image;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically snapshot warmed up agents into golden images their templates boot from.
+ *
+ * Golden images are named <tt>jenkins-golden-$CLOUD-$TEMPLATE-$GENERATION</tt> where generation is the time of the
+ * snapshot. Templates boot from the newest active generation and fall back to their configured image when there is none.
+ * Only the newest {@link #KEEP} active generations are retained.
+ *
+ * Agents are snapshotted once connected for at least {@link #WARM_UP_TIME}. The agent is kept offline until the image is
+ * uploaded so builds do not modify the disk being snapshotted.
+ */
+@Extension @Restricted(NoExternalUse.class)
+public final class GoldenImageMaintenance extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(GoldenImageMaintenance.class.getName());
+
+    /*package*/ static final String PREFIX = "jenkins-golden-";
+
+    /**
+     * Number of active generations to retain.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int KEEP = Integer.getInteger(GoldenImageMaintenance.class.getName() + ".keep", 2);
+
+    /**
+     * For how long the agent needs to be connected before it is considered warmed up.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long WARM_UP_TIME = Long.getLong(GoldenImageMaintenance.class.getName() + ".warmUpTime", TimeUnit.MINUTES.toMillis(10));
+
+    /**
+     * For how long to wait for the snapshot to be uploaded before bringing the agent back online.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int SNAPSHOT_TIMEOUT = Integer.getInteger(GoldenImageMaintenance.class.getName() + ".snapshotTimeout", (int) TimeUnit.MINUTES.toMillis(30));
+
+    // Newest active golden image id per prefix, empty string when there is none. Refreshed on every maintenance.
+    private static final ConcurrentMap<String, String> NEWEST = new ConcurrentHashMap<>();
+
+    public GoldenImageMaintenance() {
+        super("OpenStack golden image maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN * 10;
+    }
+
+    @Override
+    public void execute(TaskListener listener) {
+        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+                if (!template.isGoldenImageEnabled()) continue;
+
+                try {
+                    maintain(cloud, template);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Unable to maintain golden images of " + cloud.name + "/" + template.name, ex);
+                }
+            }
+        }
+    }
+
+    /*package*/ static void maintain(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template) {
+        Openstack openstack = cloud.getOpenstack();
+        String prefix = prefix(cloud, template);
+        List<Image> images = list(openstack, prefix);
+        NEWEST.put(prefix, newestActive(images));
+
+        long latest = newestUsableGeneration(images, prefix);
+        Integer interval = template.getGoldenImageInterval();
+        if (interval != null && System.currentTimeMillis() - latest > TimeUnit.MINUTES.toMillis(interval)) {
+            snapshot(cloud, template, prefix);
+        }
+
+        collectGarbage(openstack, images);
+    }
+
+    /**
+     * Get id of the newest active golden image of the template.
+     *
+     * @return null if there is none.
+     */
+    /*package*/ static @CheckForNull String getNewest(@Nonnull Openstack openstack, @Nonnull String prefix) {
+        String id = NEWEST.get(prefix);
+        if (id == null) {
+            id = newestActive(list(openstack, prefix));
+            NEWEST.put(prefix, id);
+        }
+        return id.isEmpty() ? null : id;
+    }
+
+    /*package*/ static @Nonnull String prefix(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template) {
+        return PREFIX + cloud.name + "-" + template.name + "-";
+    }
+
+    /**
+     * Golden images ordered by generation, oldest first.
+     */
+    private static @Nonnull List<Image> list(@Nonnull Openstack openstack, @Nonnull final String prefix) {
+        List<Image> images = new ArrayList<>();
+        for (Image image : openstack.getImagesByNamePrefix(prefix)) {
+            // Prefix of other template can be prefix of this one
+            if (generation(image, prefix) >= 0) {
+                images.add(image);
+            }
+        }
+        Collections.sort(images, new Comparator<Image>() {
+            @Override public int compare(Image o1, Image o2) {
+                return Long.compare(generation(o1, prefix), generation(o2, prefix));
+            }
+        });
+        return images;
+    }
+
+    private static long generation(@Nonnull Image image, @Nonnull String prefix) {
+        try {
+            return Long.parseLong(image.getName().substring(prefix.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Generation of the newest image that is active or still being saved, 0 if there is none.
+     *
+     * Failed snapshots do not count so they do not postpone the next attempt.
+     */
+    private static long newestUsableGeneration(@Nonnull List<Image> images, @Nonnull String prefix) {
+        for (int i = images.size() - 1; i >= 0; i--) {
+            Image image = images.get(i);
+            Image.Status status = image.getStatus();
+            if (status == Image.Status.ACTIVE || status == Image.Status.SAVING || status == Image.Status.QUEUED) {
+                return generation(image, prefix);
+            }
+        }
+        return 0;
+    }
+
+    private static @Nonnull String newestActive(@Nonnull List<Image> images) {
+        for (int i = images.size() - 1; i >= 0; i--) {
+            Image image = images.get(i);
+            if (image.getStatus() == Image.Status.ACTIVE) return image.getId();
+        }
+        return "";
+    }
+
+    /**
+     * Delete everything older than the oldest retained active generation.
+     */
+    private static void collectGarbage(@Nonnull Openstack openstack, @Nonnull List<Image> images) {
+        int active = 0;
+        for (int i = images.size() - 1; i >= 0; i--) {
+            Image image = images.get(i);
+            if (active >= KEEP) {
+                LOGGER.info("Deleting outdated golden image " + image.getName());
+                try {
+                    openstack.destroyImage(image.getId());
+                } catch (Openstack.ActionFailed ex) {
+                    LOGGER.log(Level.WARNING, "Unable to delete outdated golden image " + image.getName(), ex);
+                }
+            } else if (image.getStatus() == Image.Status.ACTIVE) {
+                active++;
+            }
+        }
+    }
+
+    private static void snapshot(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template, @Nonnull String prefix) {
+        JCloudsComputer computer = findWarmComputer(cloud, template);
+        JCloudsSlave node = computer == null ? null : computer.getNode();
+        if (node == null) {
+            LOGGER.fine("No warmed up idle agent of " + cloud.name + "/" + template.name + " to snapshot");
+            return;
+        }
+
+        String imageName = prefix + System.currentTimeMillis();
+        LOGGER.info("Snapshotting " + computer.getName() + " into golden image " + imageName);
+        // Do not let builds modify the disk until the snapshot is uploaded
+        OfflineCause cause = OfflineCause.create(Messages._SnapshottingCause());
+        computer.setTemporarilyOffline(true, cause);
+        try {
+            Openstack openstack = cloud.getOpenstack();
+            String id = openstack.createSnapshot(node.getServerId(), imageName);
+            openstack.waitForImageActive(id, SNAPSHOT_TIMEOUT);
+            LOGGER.info("Golden image " + imageName + " is active");
+        } catch (Openstack.ActionFailed ex) {
+            LOGGER.log(Level.WARNING, "Unable to snapshot " + computer.getName(), ex);
+        } finally {
+            if (computer.getOfflineCause() == cause) {
+                computer.setTemporarilyOffline(false, null);
+            }
+        }
+    }
+
+    /**
+     * Find agent of the template connected long enough to be fully bootstrapped and not doing anything.
+     */
+    private static @CheckForNull JCloudsComputer findWarmComputer(@Nonnull JCloudsCloud cloud, @Nonnull JCloudsSlaveTemplate template) {
+        for (Computer c : Jenkins.getActiveInstance().getComputers()) {
+            if (!(c instanceof JCloudsComputer)) continue;
+
+            JCloudsComputer computer = (JCloudsComputer) c;
+            ProvisioningActivity.Id id = computer.getId();
+            if (!cloud.name.equals(id.getCloudName()) || !template.name.equals(id.getTemplateName())) continue;
+
+            if (!computer.isOnline() || !computer.isIdle() || computer.isPendingDelete() || computer.isRecycling()) continue;
+
+            if (System.currentTimeMillis() - computer.getConnectTime() >= WARM_UP_TIME) {
+                return computer;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package jenkins.plugins.openstack.compute;
+
+import hudson.Util;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.logging.Logger;
+
+/**
+ * What to do with the agent idle for longer than its retention time.
+ *
+ * Hibernated agents stay in Jenkins offline and they are resumed in favour of booting new servers when there is a demand
+ * for their labels. They are deleted after hibernated for longer than {@link SlaveOptions#getHibernationTime()}.
+ */
+@Restricted(NoExternalUse.class)
+public enum HibernationMode {
+
+    /**
+     * Delete the agent right away.
+     */
+    NONE("None - delete"),
+
+    /**
+     * Suspend the server keeping its memory state on the hypervisor. Resumed fast but still occupies the host.
+     */
+    SUSPEND("Suspend"),
+
+    /**
+     * Shelve the server releasing the hypervisor resources. Slower to resume than suspended server.
+     */
+    SHELVE("Shelve");
+
+    private static final Logger LOGGER = Logger.getLogger(HibernationMode.class.getName());
+
+    private final @Nonnull String displayName;
+
+    HibernationMode(@Nonnull String displayName) {
+        this.displayName = displayName;
+    }
+
+    public @Nonnull String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Get mode by its name as stored in {@link SlaveOptions}.
+     *
+     * @return The mode, {@link #NONE} when not specified or not recognized.
+     */
+    public static @Nonnull HibernationMode fromName(@CheckForNull String name) {
+        name = Util.fixEmptyAndTrim(name);
+        if (name == null) return NONE;
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warning("Unknown hibernation mode '" + name + "', using " + NONE);
+            return NONE;
+        }
+    }
+}
@@ -18,15 +18,18 @@ import hudson.tasks.BuildWrapperDescriptor;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import jenkins.plugins.openstack.compute.internal.DestroyMachine;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.internal.Quota;
 
 import org.jenkinsci.plugins.resourcedisposer.AsyncResourceDisposer;
 import org.kohsuke.accmod.Restricted;
@@ -55,12 +58,10 @@ public class JCloudsBuildWrapper extends BuildWrapper {
     // possible, as this method is very hard to test due to static usage, etc.
     @Override
     public Environment setUp(final AbstractBuild build, Launcher launcher, final BuildListener listener) {
-        // TODO check quota here to abort the task if we do not have enough resources
-
         final ServerScope.Build scope = new ServerScope.Build(build);
 
         // eagerly lookup node supplier so that errors occur before we attempt to provision things
-        Iterable<NodePlan> nodePlans = Iterables.transform(instancesToRun, new Function<InstancesToRun, NodePlan>() {
+        List<NodePlan> nodePlans = ImmutableList.copyOf(Iterables.transform(instancesToRun, new Function<InstancesToRun, NodePlan>() {
 
             @SuppressWarnings("unchecked")
             public NodePlan apply(InstancesToRun instance) {
@@ -70,7 +71,14 @@ public class JCloudsBuildWrapper extends BuildWrapper {
                 if (template == null) throw new IllegalArgumentException("No such template " + templateName);
                 return new NodePlan(cloud, template, instance.count, scope);
             }
-        });
+        }));
+
+        // Abort before any server is booted in case the tenant does not have resources for all of them
+        String quotaProblem = checkQuota(nodePlans);
+        if (quotaProblem != null) {
+            listener.fatalError(quotaProblem);
+            return null;
+        }
 
         ListeningExecutorService executor = MoreExecutors.listeningDecorator(Computer.threadPoolForRemoting);
         final ImmutableList.Builder<RunningNode> cloudTemplateNodeBuilder = ImmutableList.builder();
@@ -144,6 +152,31 @@ public class JCloudsBuildWrapper extends BuildWrapper {
         };
     }
 
+    /**
+     * @return Description of the problem or null if all the planned servers fit the quota.
+     */
+    private static @CheckForNull String checkQuota(@Nonnull List<NodePlan> nodePlans) {
+        Map<JCloudsCloud, Quota> remaining = new HashMap<>();
+        for (NodePlan plan : nodePlans) {
+            Openstack openstack = plan.cloud.getOpenstack();
+            Quota quota = remaining.get(plan.cloud);
+            if (quota == null) {
+                quota = openstack.getQuota();
+            }
+
+            for (int i = 0; i < plan.count; i++) {
+                Quota next = plan.template.allocate(quota, openstack);
+                if (next == null) return String.format(
+                        "Tenant quota of %s (%s) does not permit %d instance(s) of %s, aborting before any is provisioned",
+                        plan.getCloud(), quota, plan.count - i, plan.getTemplate()
+                );
+                quota = next;
+            }
+            remaining.put(plan.cloud, quota);
+        }
+        return null;
+    }
+
     private @Nonnull String getIpsString(final Iterable<RunningNode> runningNodes) {
         final List<String> ips = new ArrayList<>(instancesToRun.size());
         for (RunningNode node : runningNodes) {
@@ -2,20 +2,36 @@ package jenkins.plugins.openstack.compute;
 
 import java.io.ObjectStreamException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.Executor;
 import hudson.model.Result;
 import hudson.node_monitors.DiskSpaceMonitorDescriptor;
-import hudson.slaves.Cloud;
 import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.CauseOfInterruption;
 import jenkins.plugins.openstack.compute.internal.DestroyMachine;
+import jenkins.plugins.openstack.compute.internal.Openstack;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.resourcedisposer.AsyncResourceDisposer;
 import org.kohsuke.accmod.Restricted;
@@ -27,9 +43,12 @@ import hudson.model.Computer;
 import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
 import org.openstack4j.api.exceptions.ClientResponseException;
+import org.openstack4j.api.exceptions.ResponseException;
 import org.openstack4j.api.exceptions.StatusCode;
 import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.storage.block.Volume;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -37,18 +56,87 @@ import javax.annotation.Nonnull;
  *
  * Currently it ensures:
  *
- * - Node pending deletion get termionated with their servers
+ * - Node pending deletion get termionated with their servers, in case {@link TerminationQueue} have not done so
  * - Servers that are running longer than declared are terminated.
  * - Nodes with server missing are terminated.
+ * - Servers with node missing are reported.
+ * - Volumes and ports left behind by servers that no longer exist are deleted.
+ * - Slave options snapshots no node refers to are deleted.
+ *
+ * Clouds are cleaned up concurrently, each within its own time budget so a slow cloud does not delay the others.
+ *
+ * The work is checked every minute while every cloud is cleaned on its own adaptive schedule. The interval doubles up to
+ * the maximal period of the cloud while its inventory is stable and returns back to the minimal one when a pass finds
+ * something to clean up. Clouds with pending deletes, templates backing off after provisioning failures or running
+ * close to the instance cap are cleaned every minimal period. The bounds are configured per cloud, defaulting to
+ * {@link #MIN_PERIOD} and {@link #MAX_PERIOD}.
  */
 @Extension @Restricted(NoExternalUse.class)
 public final class JCloudsCleanupThread extends AsyncPeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(JCloudsCleanupThread.class.getName());
 
-    private transient @Nonnull ListMultimap<String, String> stillFips = ArrayListMultimap.create();
+    /**
+     * Number of clouds cleaned up concurrently. Read once on startup.
+     */
+    private static final int THREADS = Integer.getInteger(JCloudsCleanupThread.class.getName() + ".threads", 4);
+
+    /**
+     * For how long a cleanup of a single cloud can run before it is cancelled.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long CLOUD_TIMEOUT = Long.getLong(JCloudsCleanupThread.class.getName() + ".cloudTimeout", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * Shortest interval between cleanups of a cloud not configured otherwise.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long MIN_PERIOD = Long.getLong(JCloudsCleanupThread.class.getName() + ".minPeriod", MIN * 10);
+
+    /**
+     * Longest interval between cleanups of a cloud with stable inventory not configured otherwise.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long MAX_PERIOD = Long.getLong(JCloudsCleanupThread.class.getName() + ".maxPeriod", MIN * 30);
+
+    /**
+     * Percentage of the instance cap of running nodes considered cap pressure.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int CAP_PRESSURE = Integer.getInteger(JCloudsCleanupThread.class.getName() + ".capPressure", 90);
+
+    /**
+     * Maximal number of leaked volumes, and ports, deleted in a single cleanup of a cloud. The rest waits for the next one.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int LEAK_BATCH = Integer.getInteger(JCloudsCleanupThread.class.getName() + ".leakBatch", 20);
+
+    // Descriptions of volumes named after the server by VolumeSnapshot#afterProvisioning or BootVolumePool#claim
+    private static final Pattern VOLUME_DESCRIPTION = Pattern.compile("For (\\S+) \\(\\S+\\), from VolumeSnapshot .*|Claimed by (\\S+)\\.");
+
+    private static final ExecutorService EXECUTOR;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREADS, THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "OpenStack cloud cleanup")
+        );
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    // Last reconciliation per cloud name
+    private static final ConcurrentMap<String, Report> REPORTS = new ConcurrentHashMap<>();
+
+    // Last pass per cloud name
+    private static final ConcurrentMap<String, CloudCleanup> PASSES = new ConcurrentHashMap<>();
+
+    // Loaded on first cleanup
+    private transient volatile LeakDetector leaks;
+
+    // Cleanup schedule per cloud name
+    private transient @Nonnull ConcurrentMap<String, Schedule> schedules = new ConcurrentHashMap<>();
 
     private Object readResolve() throws ObjectStreamException {
-        stillFips = ArrayListMultimap.create();
+        schedules = new ConcurrentHashMap<>();
         return this;
     }
 
@@ -58,55 +146,375 @@ public final class JCloudsCleanupThread extends AsyncPeriodicWork {
 
     @Override
     public long getRecurrencePeriod() {
+        // Clouds are cleaned on their own schedule, the shortest configurable period is a minute
+        return MIN;
+    }
+
+    @Override
+    public long getInitialDelay() {
+        // Give the clouds a chance to connect agents first
         return MIN * 10;
     }
 
     @Override
     public void execute(TaskListener listener) {
+        cleanup(false);
+    }
+
+    /**
+     * Clean all clouds regardless of their schedule.
+     */
+    @Restricted(NoExternalUse.class)
+    public void cleanupAll() {
+        cleanup(true);
+    }
+
+    private void cleanup(boolean all) {
+        if (leaks == null) {
+            leaks = LeakDetector.load();
+        }
         @Nonnull List<JCloudsComputer> running = terminateNodesPendingDeletion();
+        SlaveOptionsSnapshots.collect();
 
-        @Nonnull HashMap<String, List<Server>> runningServers = destroyServersOutOfScope();
+        long cycleStart = System.currentTimeMillis();
+        ServerScope.ActivityIndex activities = null;
+        List<CloudCleanup> passes = new ArrayList<>();
+        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            Schedule schedule = getSchedule(cloud.name);
+            if (!all && !schedule.isDue(cycleStart, isUnderPressure(cloud, running), getMinPeriod(cloud))) continue;
+
+            CloudCleanup last = PASSES.get(cloud.name);
+            if (last != null && last.isInProgress()) {
+                // Do not pile up passes blocked by the same unresponsive cloud occupying all the threads
+                LOGGER.warning("Skipping cleanup of cloud " + cloud.name + " as the previous one is still running. " + last.report());
+                continue;
+            }
+
+            schedule.started(cycleStart);
+            if (activities == null) {
+                activities = ServerScope.ActivityIndex.build();
+            }
+            CloudCleanup pass = new CloudCleanup(cloud, running, activities);
+            pass.future = EXECUTOR.submit(pass);
+            PASSES.put(cloud.name, pass);
+            passes.add(pass);
+        }
 
-        terminatesNodesWithoutServers(running, runningServers);
+        for (CloudCleanup pass : passes) {
+            if (await(pass, cycleStart)) {
+                getSchedule(pass.cloud.name).completed(pass.changed, getMinPeriod(pass.cloud), getMaxPeriod(pass.cloud));
+            }
+        }
 
-        cleanOrphanedFips();
+        if (!passes.isEmpty()) {
+            leaks.save();
+        }
     }
 
-    private void cleanOrphanedFips() {
-        for (JCloudsCloud cloud : JCloudsCloud.getClouds()) {
-            List<String> cloudStillFips = getStillFipsForCloud(cloud);
-
-            List<String> leaked = new ArrayList<>(cloud.getOpenstack().getFreeFipIds());
-            List<String> freed = new ArrayList<>(leaked);
-            leaked.retainAll(cloudStillFips); // Free on 2 checks
-            freed.removeAll(leaked); // Just freed
-
-            synchronized (stillFips) {
-                cloudStillFips.clear();
-                cloudStillFips.addAll(freed);
-            }
-
-            for (String fip : leaked) {
-                try {
-                    cloud.getOpenstack().destroyFip(fip);
-                } catch (ClientResponseException ex) {
-                    // The tenant is probably reusing pre-allocated FIPs without permission to (de)allocate new.
-                    // https://github.com/jenkinsci/openstack-cloud-plugin/issues/66#issuecomment-207296059
-                    if (ex.getStatusCode() == StatusCode.FORBIDDEN) {
-                        continue;
-                    }
-                    LOGGER.log(Level.WARNING, "Unable to release leaked floating IP", ex);
-                } catch (Exception ex) {
-                    LOGGER.log(Level.WARNING, "Unable to release leaked floating IP", ex);
+    private @Nonnull Schedule getSchedule(@Nonnull String cloudName) {
+        Schedule schedule = schedules.get(cloudName);
+        if (schedule == null) {
+            Schedule created = new Schedule();
+            schedule = schedules.putIfAbsent(cloudName, created);
+            if (schedule == null) {
+                schedule = created;
+            }
+        }
+        return schedule;
+    }
+
+    private static long getMinPeriod(@Nonnull JCloudsCloud cloud) {
+        Integer minutes = cloud.getCleanupMinPeriod();
+        return minutes == null ? MIN_PERIOD : TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    private static long getMaxPeriod(@Nonnull JCloudsCloud cloud) {
+        Integer minutes = cloud.getCleanupMaxPeriod();
+        return Math.max(minutes == null ? MAX_PERIOD : TimeUnit.MINUTES.toMillis(minutes), getMinPeriod(cloud));
+    }
+
+    /**
+     * The cloud needs to be cleaned often as there is likely something to clean or capacity to reclaim.
+     */
+    private static boolean isUnderPressure(@Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsComputer> running) {
+        int nodes = 0;
+        for (JCloudsComputer computer : running) {
+            ProvisioningActivity.Id id = computer.getId();
+            if (id == null || !cloud.name.equals(id.getCloudName())) continue;
+
+            if (computer.isPendingDelete()) return true;
+            nodes++;
+        }
+
+        for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+            if (template.getProvisioningBackoff().isPenalized()) return true;
+        }
+
+        long cap = cloud.getEffectiveSlaveOptions().getInstanceCap();
+        return cap > 0 && nodes * 100L >= cap * CAP_PRESSURE;
+    }
+
+    /**
+     * Adaptive cleanup interval of a cloud.
+     */
+    private static final class Schedule {
+        // Zero until the first pass completes, the minimal period applies
+        private long interval = 0;
+        private long lastStarted = 0;
+
+        private synchronized boolean isDue(long now, boolean underPressure, long min) {
+            long period = underPressure ? min : Math.max(interval, min);
+            // Tolerate the work being triggered slightly sooner than in exact periods
+            return now - lastStarted >= period - MIN / 2;
+        }
+
+        private synchronized void started(long now) {
+            lastStarted = now;
+        }
+
+        /**
+         * @param changed Pass have found something to clean up.
+         */
+        private synchronized void completed(boolean changed, long min, long max) {
+            interval = changed ? min : Math.min(Math.max(interval, min) * 2, max);
+        }
+    }
+
+    /**
+     * Wait for the pass until its deadline and cancel it after that.
+     *
+     * The budget counts from when the pass started, or from the cycle start for a pass still waiting for a thread.
+     *
+     * @return true if the pass completed.
+     */
+    private static boolean await(@Nonnull CloudCleanup pass, long cycleStart) {
+        String cloudName = pass.cloud.name;
+        Future<?> future = pass.future;
+        while (true) {
+            long started = pass.started;
+            long remaining = (started == 0 ? cycleStart : started) + CLOUD_TIMEOUT - System.currentTimeMillis();
+            if (remaining <= 0) {
+                future.cancel(true);
+                LOGGER.warning("Cleanup of cloud " + cloudName + " did not complete in " + CLOUD_TIMEOUT + "ms. " + pass.report());
+                return false;
+            }
+
+            try {
+                future.get(remaining, TimeUnit.MILLISECONDS);
+                LOGGER.fine("Cleanup of cloud " + cloudName + " completed. " + pass.report());
+                return true;
+            } catch (TimeoutException ex) {
+                // Reevaluate the deadline as the pass might have started in the meantime
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "Cleanup of cloud " + cloudName + " failed. " + pass.report(), ex.getCause());
+                return false;
+            } catch (InterruptedException ex) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Cleanup of a single cloud sharing one inventory across all phases.
+     */
+    private final class CloudCleanup implements Runnable {
+        private final @Nonnull JCloudsCloud cloud;
+        private final @Nonnull List<JCloudsComputer> running;
+        private final @Nonnull ServerScope.ActivityIndex activities;
+
+        private volatile long started;
+        private volatile boolean finished;
+        private volatile Future<?> future;
+        // Inventory changed or something was cleaned up
+        private volatile boolean changed;
+        // Duration of completed phases in order
+        private final List<String> phases = Collections.synchronizedList(new ArrayList<String>());
+
+        private CloudCleanup(
+                @Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsComputer> running, @Nonnull ServerScope.ActivityIndex activities
+        ) {
+            this.cloud = cloud;
+            this.running = running;
+            this.activities = activities;
+        }
+
+        @Override
+        public void run() {
+            started = System.currentTimeMillis();
+            try {
+                runPhases();
+            } finally {
+                finished = true;
+            }
+        }
+
+        /**
+         * Cancelled pass is reported done by its future while the thread can still be blocked in a call that does not
+         * respond to interruption.
+         */
+        private boolean isInProgress() {
+            return !future.isDone() || (started != 0 && !finished);
+        }
+
+        private void runPhases() {
+            Openstack openstack = cloud.getOpenstack();
+
+            long phase = System.currentTimeMillis();
+            List<Server> servers = openstack.getRunningNodes();
+            List<String> freeFips = openstack.getFreeFipIds();
+            phase = phaseCompleted("inventory", phase);
+
+            List<Server> inScope = destroyServersOutOfScope(cloud, servers, activities);
+            phase = phaseCompleted("scope", phase);
+
+            Report report = reconcile(cloud, running, inScope);
+            Report previous = REPORTS.put(cloud.name, report);
+            phase = phaseCompleted("nodes", phase);
+
+            boolean releasedFips = cleanOrphanedFips(cloud, freeFips);
+            phase = phaseCompleted("fips", phase);
+
+            boolean leaked = cleanLeakedVolumesAndPorts(cloud, openstack, servers);
+            phaseCompleted("leaks", phase);
+
+            // Leak candidates are not considered as they are confirmed by time regardless of how often it runs
+            changed = inScope.size() != servers.size()
+                    || !report.getNodesWithoutServer().isEmpty()
+                    || !report.getServersWithoutNode().isEmpty()
+                    || releasedFips
+                    || leaked
+                    || previous == null || previous.getServers() != report.getServers()
+            ;
+        }
+
+        private long phaseCompleted(@Nonnull String name, long since) {
+            long now = System.currentTimeMillis();
+            phases.add(name + ": " + (now - since) + "ms");
+            return now;
+        }
+
+        private @Nonnull String report() {
+            synchronized (phases) {
+                return "Phases " + phases;
+            }
+        }
+    }
+
+    /**
+     * @return true if any leaked FIP was released.
+     */
+    private boolean cleanOrphanedFips(@Nonnull JCloudsCloud cloud, @Nonnull List<String> freeFips) {
+        boolean released = false;
+        for (String fip : leaks.confirm("fip", cloud.name, freeFips)) {
+            try {
+                cloud.getOpenstack().destroyFip(fip);
+                released = true;
+            } catch (ClientResponseException ex) {
+                // The tenant is probably reusing pre-allocated FIPs without permission to (de)allocate new.
+                // https://github.com/jenkinsci/openstack-cloud-plugin/issues/66#issuecomment-207296059
+                if (ex.getStatusCode() == StatusCode.FORBIDDEN) {
+                    continue;
                 }
+                LOGGER.log(Level.WARNING, "Unable to release leaked floating IP", ex);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Unable to release leaked floating IP", ex);
             }
         }
+        return released;
     }
 
-    private List<String> getStillFipsForCloud(JCloudsCloud cloud) {
-        synchronized (stillFips) {
-            return stillFips.get(cloud.name);
+    /**
+     * Delete volumes and ports servers left behind once confirmed leaked.
+     *
+     * @param runningNodes Servers of the cloud.
+     * @return true if there were leaked volumes or ports.
+     */
+    private boolean cleanLeakedVolumesAndPorts(
+            @Nonnull JCloudsCloud cloud, @Nonnull Openstack openstack, @Nonnull List<Server> runningNodes
+    ) {
+        List<String> runningIds = new ArrayList<>(runningNodes.size());
+        for (Server server : runningNodes) {
+            runningIds.add(server.getId());
         }
+        Set<String> knownServers = leaks.recordServers(cloud.name, runningIds);
+
+        List<Server> servers = openstack.getAllServers();
+        Set<String> serverNames = new HashSet<>(servers.size());
+        for (Server server : servers) {
+            serverNames.add(server.getName());
+        }
+
+        // Candidates are kept when the listing fails as confirming nothing would forget them
+        List<String> leakedVolumes = Collections.emptyList();
+        try {
+            List<String> volumes = new ArrayList<>();
+            for (Volume volume : openstack.getDetachedVolumes()) {
+                String owner = getVolumeOwner(volume);
+                if (owner != null && !serverNames.contains(owner) && isServerOfCloud(cloud, owner)) {
+                    volumes.add(volume.getId());
+                }
+            }
+            leakedVolumes = batch(leaks.confirm("volume", cloud.name, volumes));
+        } catch (ResponseException ex) {
+            LOGGER.log(Level.WARNING, "Unable to list volumes of cloud " + cloud.name, ex);
+        }
+        for (String volume : leakedVolumes) {
+            try {
+                LOGGER.info("Deleting leaked volume " + volume + " in cloud " + cloud.name);
+                openstack.destroyVolume(volume);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Unable to delete leaked volume " + volume, ex);
+            }
+        }
+
+        List<String> leakedPorts = Collections.emptyList();
+        try {
+            List<String> ports = openstack.getLeakedPortIds(servers, knownServers);
+            leakedPorts = batch(leaks.confirm("port", cloud.name, ports));
+        } catch (ResponseException ex) {
+            LOGGER.log(Level.WARNING, "Unable to list ports of cloud " + cloud.name, ex);
+        }
+        for (String port : leakedPorts) {
+            try {
+                LOGGER.info("Deleting leaked port " + port + " in cloud " + cloud.name);
+                openstack.destroyPort(port);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Unable to delete leaked port " + port, ex);
+            }
+        }
+
+        return !leakedVolumes.isEmpty() || !leakedPorts.isEmpty();
+    }
+
+    private static @Nonnull List<String> batch(@Nonnull List<String> leaked) {
+        return leaked.size() > LEAK_BATCH ? leaked.subList(0, LEAK_BATCH) : leaked;
+    }
+
+    /**
+     * Name of the server the volume was named after, or null for volumes not named by the plugin.
+     *
+     * Pooled volumes are never considered leaked, they are collected by their pools.
+     */
+    private static @CheckForNull String getVolumeOwner(@Nonnull Volume volume) {
+        String name = volume.getName();
+        String description = volume.getDescription();
+        if (name == null || description == null) return null;
+        if (name.startsWith(BootVolumePool.PREFIX) || name.startsWith(CacheVolumePool.PREFIX)) return null;
+
+        Matcher matcher = VOLUME_DESCRIPTION.matcher(description);
+        if (!matcher.matches()) return null;
+
+        String owner = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        return name.startsWith(owner + "[") ? owner : null;
+    }
+
+    private static boolean isServerOfCloud(@Nonnull JCloudsCloud cloud, @Nonnull String serverName) {
+        for (JCloudsSlaveTemplate template : cloud.getTemplates()) {
+            if (serverName.startsWith(template.name + "-")) return true;
+        }
+        return false;
     }
 
     private @Nonnull List<JCloudsComputer> terminateNodesPendingDeletion() {
@@ -152,44 +560,130 @@ public final class JCloudsCleanupThread extends AsyncPeriodicWork {
         }
     }
 
-    private @Nonnull HashMap<String, List<Server>> destroyServersOutOfScope() {
-        HashMap<String, List<Server>> runningServers = new HashMap<>();
-        for (Cloud cloud : Jenkins.getActiveInstance().clouds) {
-            if (cloud instanceof JCloudsCloud) {
-                JCloudsCloud jc = (JCloudsCloud) cloud;
-                runningServers.put(jc.name, new ArrayList<Server>());
-                List<Server> servers = jc.getOpenstack().getRunningNodes();
-                for (Server server : servers) {
-                    ServerScope scope = ServerScope.extract(server);
-                    if (scope.isOutOfScope(server)) {
-                        LOGGER.info("Server " + server.getName() + " run out of its scope " + scope + ". Terminating: " + server);
-                        AsyncResourceDisposer.get().dispose(new DestroyMachine(cloud.name, server.getId()));
-                    } else {
-                        runningServers.get(jc.name).add(server);
-                    }
-                }
+    /**
+     * @return Servers in scope.
+     */
+    private static @Nonnull List<Server> destroyServersOutOfScope(
+            @Nonnull JCloudsCloud cloud, @Nonnull List<Server> servers, @Nonnull ServerScope.ActivityIndex activities
+    ) {
+        List<Server> runningServers = new ArrayList<>(servers.size());
+        for (Server server : servers) {
+            ServerScope scope = ServerScope.extract(server);
+            if (scope.isOutOfScope(server, activities)) {
+                LOGGER.info("Server " + server.getName() + " run out of its scope " + scope + ". Terminating: " + server);
+                AsyncResourceDisposer.get().dispose(new DestroyMachine(cloud.name, server.getId()));
+            } else {
+                runningServers.add(server);
             }
         }
 
         return runningServers;
     }
 
-    private void terminatesNodesWithoutServers(
+    /**
+     * Pair nodes with servers by server id, falling back to name for nodes that do not know it.
+     *
+     * Nodes without server are terminated. Node scoped servers without node are only reported as they are likely
+     * being provisioned.
+     */
+    private @Nonnull Report reconcile(
+            @Nonnull JCloudsCloud cloud,
             @Nonnull List<JCloudsComputer> running,
-            @Nonnull HashMap<String, List<Server>> runningServers
+            @Nonnull List<Server> runningServers
     ) {
-        next_node: for (JCloudsComputer computer: running) {
+        Map<String, Server> byId = new HashMap<>(runningServers.size());
+        Map<String, Server> byName = new HashMap<>(runningServers.size());
+        for (Server server : runningServers) {
+            byId.put(server.getId(), server);
+            byName.put(server.getName(), server);
+        }
+
+        Set<String> paired = new HashSet<>(runningServers.size());
+        List<String> nodesWithoutServer = new ArrayList<>();
+        for (JCloudsComputer computer: running) {
             ProvisioningActivity.Id id = computer.getId();
-            if (id == null) continue;
+            if (id == null || !cloud.name.equals(id.getCloudName())) continue;
 
-            for (Server server : runningServers.get(id.getCloudName())) {
-                if (server.getName().equals(computer.getName())) continue next_node;
+            JCloudsSlave node = computer.getNode();
+            Server server = node == null ? null : byId.get(node.getServerId());
+            if (server == null) {
+                server = byName.get(computer.getName());
+            }
+            if (server != null) {
+                paired.add(server.getId());
+                continue;
             }
 
             String msg = "No OpenStack server running for computer " + computer.getName() + ". Terminating.";
             LOGGER.warning(msg);
+            nodesWithoutServer.add(computer.getName());
             deleteComputer(computer, new MessageInterruption(msg));
         }
+
+        List<String> serversWithoutNode = new ArrayList<>();
+        for (Server server : runningServers) {
+            if (!paired.contains(server.getId()) && ServerScope.extract(server) instanceof ServerScope.Node) {
+                serversWithoutNode.add(server.getName());
+            }
+        }
+
+        return new Report(runningServers.size(), nodesWithoutServer, serversWithoutNode);
+    }
+
+    /**
+     * Get the outcome of the last reconciliation of the cloud.
+     *
+     * @return null if not reconciled yet.
+     */
+    /*package*/ static @CheckForNull Report getReport(@Nonnull String cloudName) {
+        return REPORTS.get(cloudName);
+    }
+
+    /**
+     * Outcome of node/server reconciliation of a cloud.
+     */
+    @Restricted(NoExternalUse.class)
+    public static final class Report {
+        private final long timestamp = System.currentTimeMillis();
+        private final int servers;
+        private final @Nonnull List<String> nodesWithoutServer;
+        private final @Nonnull List<String> serversWithoutNode;
+
+        /*package*/ Report(int servers, @Nonnull List<String> nodesWithoutServer, @Nonnull List<String> serversWithoutNode) {
+            this.servers = servers;
+            this.nodesWithoutServer = Collections.unmodifiableList(nodesWithoutServer);
+            this.serversWithoutNode = Collections.unmodifiableList(serversWithoutNode);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Number of servers in scope.
+         */
+        public int getServers() {
+            return servers;
+        }
+
+        /**
+         * Names of nodes terminated as their server was gone.
+         */
+        public @Nonnull List<String> getNodesWithoutServer() {
+            return nodesWithoutServer;
+        }
+
+        /**
+         * Names of node scoped servers with no node to pair with.
+         */
+        public @Nonnull List<String> getServersWithoutNode() {
+            return serversWithoutNode;
+        }
+
+        @Override
+        public String toString() {
+            return "Servers: " + servers + ", nodes without server: " + nodesWithoutServer + ", servers without node: " + serversWithoutNode;
+        }
     }
 
     private static class MessageInterruption extends CauseOfInterruption {
@@ -12,8 +12,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,6 +33,7 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
@@ -50,6 +54,7 @@ import hudson.util.Secret;
 import hudson.util.StreamTaskListener;
 import jenkins.model.Jenkins;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.internal.Quota;
 import org.openstack4j.model.compute.Server;
 
 /**
@@ -61,6 +66,8 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
 
     private static final Logger LOGGER = Logger.getLogger(JCloudsCloud.class.getName());
 
+    private static final int MAX_INDEXED_LABELS = 1000;
+
     public final @Nonnull String endPointUrl;
     public final @Nonnull String identity;
     public final @Nonnull Secret credential;
@@ -72,6 +79,25 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
     // Make sure only diff of defaults is saved so when plugin defaults will change users are not stuck with outdated config
     private /*final*/ @Nonnull SlaveOptions slaveOptions;
 
+    // Computed once as the cloud is replaced on reconfiguration
+    private transient /*final*/ SlaveOptions effectiveSlaveOptions;
+
+    // Null means declaration order for configurations predating the option
+    private @CheckForNull TemplateSelectionPolicy templateSelection;
+
+    private transient AtomicInteger selectionRotation;
+
+    // Bounds of the adaptive cleanup interval in minutes, null for the global defaults
+    private @CheckForNull Integer cleanupMinPeriod;
+    private @CheckForNull Integer cleanupMaxPeriod;
+
+    // Template statistics for FASTEST_HEALTHY, reused for TemplateSelectionPolicy#STATS_CACHE_TIME
+    private transient volatile @CheckForNull Map<String, TemplateSelectionPolicy.Stats> templateStats;
+    private transient volatile long templateStatsCollected;
+
+    // Templates matching label. Cloud is replaced on reconfiguration so this never needs to be invalidated.
+    private transient ConcurrentMap<Label, List<JCloudsSlaveTemplate>> labelIndex;
+
     // Backward compatibility
     private transient @Deprecated Integer instanceCap;
     private transient @Deprecated Integer retentionTime;
@@ -108,8 +134,11 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
         this.zone = Util.fixEmptyAndTrim(zone);
 
         this.slaveOptions = slaveOptions.eraseDefaults(DescriptorImpl.DEFAULTS);
+        this.effectiveSlaveOptions = DescriptorImpl.DEFAULTS.override(this.slaveOptions);
 
         this.templates = Collections.unmodifiableList(Objects.firstNonNull(templates, Collections.<JCloudsSlaveTemplate> emptyList()));
+        this.selectionRotation = new AtomicInteger();
+        this.labelIndex = new ConcurrentHashMap<>();
         injectReferenceIntoTemplates();
     }
 
@@ -142,6 +171,9 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
             slaveOptions = slaveOptions.getBuilder().launcherFactory(lf).build();
         }
 
+        effectiveSlaveOptions = DescriptorImpl.DEFAULTS.override(slaveOptions);
+        selectionRotation = new AtomicInteger();
+        labelIndex = new ConcurrentHashMap<>();
         injectReferenceIntoTemplates();
 
         return this;
@@ -154,7 +186,7 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
     }
 
     public @Nonnull SlaveOptions getEffectiveSlaveOptions() {
-        return DescriptorImpl.DEFAULTS.override(slaveOptions);
+        return effectiveSlaveOptions;
     }
 
     public @Nonnull SlaveOptions getRawSlaveOptions() {
@@ -165,15 +197,77 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
         return templates;
     }
 
+    public @Nonnull TemplateSelectionPolicy getTemplateSelection() {
+        return templateSelection == null ? TemplateSelectionPolicy.DECLARATION_ORDER : templateSelection;
+    }
+
+    @DataBoundSetter
+    public void setTemplateSelection(@CheckForNull TemplateSelectionPolicy templateSelection) {
+        this.templateSelection = templateSelection;
+    }
+
+    /**
+     * Shortest interval in minutes between cleanups of this cloud.
+     *
+     * @see JCloudsCleanupThread
+     */
+    public @CheckForNull Integer getCleanupMinPeriod() {
+        return cleanupMinPeriod;
+    }
+
+    @DataBoundSetter
+    public void setCleanupMinPeriod(@CheckForNull Integer cleanupMinPeriod) {
+        this.cleanupMinPeriod = cleanupMinPeriod == null || cleanupMinPeriod <= 0 ? null : cleanupMinPeriod;
+    }
+
+    /**
+     * Longest interval in minutes between cleanups of this cloud.
+     *
+     * @see JCloudsCleanupThread
+     */
+    public @CheckForNull Integer getCleanupMaxPeriod() {
+        return cleanupMaxPeriod;
+    }
+
+    @DataBoundSetter
+    public void setCleanupMaxPeriod(@CheckForNull Integer cleanupMaxPeriod) {
+        this.cleanupMaxPeriod = cleanupMaxPeriod == null || cleanupMaxPeriod <= 0 ? null : cleanupMaxPeriod;
+    }
+
+    /*package*/ int nextSelectionRotation() {
+        return selectionRotation.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get recent provisioning statistics of templates of this cloud.
+     *
+     * The statistics are cached for a short time not to scan all cloud-stats activities on every provisioning attempt.
+     *
+     * @return Template name to its statistics.
+     */
+    /*package*/ @Nonnull Map<String, TemplateSelectionPolicy.Stats> getTemplateStats() {
+        long now = System.currentTimeMillis();
+        Map<String, TemplateSelectionPolicy.Stats> stats = templateStats;
+        if (stats != null && now - templateStatsCollected < TemplateSelectionPolicy.STATS_CACHE_TIME) return stats;
+
+        stats = TemplateSelectionPolicy.Stats.collect(name);
+        templateStatsCollected = now;
+        templateStats = stats;
+        return stats;
+    }
+
     /**
      * Get a queue of templates to be used to provision slaves of label.
      *
      * The queue contains the same template in as many instances as is the number of machines that can be safely
-     * provisioned without violating instanceCap constrain.
+     * provisioned without violating instanceCap constrain. Templates that are backing off after failed provisioning
+     * attempts are skipped so other templates matching the label can be used. Servers that would not fit the remaining
+     * tenant quota are not planned at all. The order of templates in the queue is given by {@link #getTemplateSelection()}.
      */
     private @CheckForNull Queue<JCloudsSlaveTemplate> getAvailableTemplateProvider(@CheckForNull Label label) {
         final String labelString = (label != null) ? label.toString() : "none";
-        final List<Server> runningNodes = getOpenstack().getRunningNodes();
+        final Openstack openstack = getOpenstack();
+        final List<Server> runningNodes = openstack.getRunningNodes();
         final int globalMax = getEffectiveSlaveOptions().getInstanceCap();
 
         final Queue<JCloudsSlaveTemplate> queue = new ConcurrentLinkedDeque<>();
@@ -186,33 +280,88 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
             return queue; // No need to proceed any further;
         }
 
+        final List<JCloudsSlaveTemplate> candidates = new ArrayList<>();
+        for (JCloudsSlaveTemplate t : getMatchingTemplates(label)) {
+            ProvisioningBackoff backoff = t.getProvisioningBackoff();
+            if (backoff.isPenalized()) {
+                LOGGER.log(Level.INFO,
+                        "Template {0} is backing off for {1} after {2} failed attempt(s), skipping it for label: {3}",
+                        new Object[] { t.name, backoff.getRemainingString(), backoff.getFailureCount(), labelString }
+                );
+                continue;
+            }
+
+            candidates.add(t);
+        }
+
+        final TemplateSelectionPolicy policy = getTemplateSelection();
         final Map<JCloudsSlaveTemplate, Integer> template2capacity = new LinkedHashMap<>();
-        for (JCloudsSlaveTemplate t : templates) {
-            if (t.canProvision(label)) {
-                final int templateMax = t.getEffectiveSlaveOptions().getInstanceCap();
-
-                int templateCapacity = templateMax;
-                for (Server server : runningNodes) {
-                    if (t.hasProvisioned(server)) {
-                        templateCapacity--;
-                    }
+        for (JCloudsSlaveTemplate t : policy.order(this, candidates)) {
+            final int templateMax = t.getEffectiveSlaveOptions().getInstanceCap();
+
+            int templateCapacity = templateMax;
+            for (Server server : runningNodes) {
+                if (t.hasProvisioned(server)) {
+                    templateCapacity--;
                 }
+            }
 
-                if (templateCapacity > 0) {
-                    template2capacity.put(t, templateCapacity);
-                } else {
-                    LOGGER.log(Level.INFO,
-                            "Template instance cap for {0} ({1}) reached while adding capacity for label: {2}",
-                            new Object[] { t.name, templateMax, labelString }
-                    );
+            if (templateCapacity > 0) {
+                template2capacity.put(t, templateCapacity);
+            } else {
+                LOGGER.log(Level.INFO,
+                        "Template instance cap for {0} ({1}) reached while adding capacity for label: {2}",
+                        new Object[] { t.name, templateMax, labelString }
+                );
+            }
+        }
+
+        // Do not plan servers that would be refused for exceeding tenant quota
+        Quota quota = openstack.getQuota();
+
+        if (policy.interleave()) {
+            // Take one from every template in turn until all are exhausted
+            boolean added = true;
+            while (added && globalCapacity > 0) {
+                added = false;
+                for (Map.Entry<JCloudsSlaveTemplate, Integer> e : template2capacity.entrySet()) {
+                    if (e.getValue() > 0 && globalCapacity > 0) {
+                        JCloudsSlaveTemplate t = e.getKey();
+                        Quota remaining = t.allocate(quota, openstack);
+                        if (remaining == null) {
+                            logQuotaReached(t, quota, labelString);
+                            e.setValue(0);
+                            continue;
+                        }
+                        quota = remaining;
+                        queue.add(t);
+                        e.setValue(e.getValue() - 1);
+                        globalCapacity--;
+                        added = true;
+                    }
                 }
             }
+            if (globalCapacity <= 0) {
+                LOGGER.log(Level.INFO,
+                        "Global instance cap ({0}) reached while adding capacity for label: {1}",
+                        new Object[] { globalMax, labelString}
+                );
+            }
+            return queue;
         }
 
         done: for (Map.Entry<JCloudsSlaveTemplate, Integer> e : template2capacity.entrySet()) {
+            JCloudsSlaveTemplate t = e.getKey();
             for (int i = e.getValue(); i > 0; i--) {
                 if (globalCapacity > 0) {
-                    queue.add(e.getKey());
+                    Quota remaining = t.allocate(quota, openstack);
+                    if (remaining == null) {
+                        // Other templates might still fit
+                        logQuotaReached(t, quota, labelString);
+                        break;
+                    }
+                    quota = remaining;
+                    queue.add(t);
                     globalCapacity--;
                 } else {
                     LOGGER.log(Level.INFO,
@@ -227,16 +376,37 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
         return queue;
     }
 
+    private static void logQuotaReached(@Nonnull JCloudsSlaveTemplate t, @Nonnull Quota quota, @Nonnull String labelString) {
+        LOGGER.log(Level.INFO,
+                "Tenant quota ({0}) does not permit another server of template {1} while adding capacity for label: {2}",
+                new Object[] { quota, t.name, labelString }
+        );
+    }
+
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
-        Queue<JCloudsSlaveTemplate> templateProvider = getAvailableTemplateProvider(label);
-
         List<PlannedNode> plannedNodeList = new ArrayList<>();
+
+        // Resuming hibernated agent is cheaper than booting new one
+        for (JCloudsComputer c : getHibernatedComputers(label)) {
+            if (excessWorkload <= 0) return plannedNodeList;
+
+            JCloudsSlave node = c.getNode();
+            if (node == null || !c.claimResume()) continue;
+
+            LOGGER.fine("Resuming hibernated slave " + c.getName() + " for " + label);
+            Future<Node> task = Computer.threadPoolForRemoting.submit(new ResumeCallable(c));
+            plannedNodeList.add(new PlannedNode(c.getName(), task, node.getNumExecutors()));
+
+            excessWorkload -= node.getNumExecutors();
+        }
+
+        Queue<JCloudsSlaveTemplate> templateProvider = getAvailableTemplateProvider(label);
         while (excessWorkload > 0 && !Jenkins.getActiveInstance().isQuietingDown() && !Jenkins.getActiveInstance().isTerminating()) {
 
             final JCloudsSlaveTemplate template = templateProvider.poll();
             if (template == null) {
-                LOGGER.info("Instance cap exceeded on all available templates");
+                LOGGER.info("Instance cap or tenant quota exceeded on all available templates");
                 break;
             }
 
@@ -274,6 +444,49 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
         }
     }
 
+    private static final class ResumeCallable implements Callable<Node> {
+        private final JCloudsComputer computer;
+
+        ResumeCallable(JCloudsComputer computer) {
+            this.computer = computer;
+        }
+
+        @Override
+        public Node call() throws Exception {
+            JCloudsSlave node = computer.getNode();
+            try {
+                computer.resume();
+            } catch (IOException|RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Unable to resume " + computer.getName() + ", scheduling for termination", ex);
+                computer.setPendingDelete(true);
+                throw ex;
+            }
+
+            LOGGER.fine(String.format("Slave %s resumed successfully", computer.getName()));
+            return node;
+        }
+    }
+
+    /**
+     * Get hibernated computers of this cloud capable of running the label.
+     */
+    private @Nonnull List<JCloudsComputer> getHibernatedComputers(@CheckForNull Label label) {
+        List<JCloudsComputer> hibernated = new ArrayList<>();
+        for (Computer computer : Jenkins.getActiveInstance().getComputers()) {
+            if (!(computer instanceof JCloudsComputer)) continue;
+
+            JCloudsComputer c = (JCloudsComputer) computer;
+            if (!name.equals(c.getId().getCloudName()) || !c.isHibernated()) continue;
+
+            JCloudsSlave node = c.getNode();
+            if (node == null) continue;
+            if (label == null ? node.getMode() != Node.Mode.NORMAL : !label.matches(node)) continue;
+
+            hibernated.add(c);
+        }
+        return hibernated;
+    }
+
     @Restricted(NoExternalUse.class)
     public /*for mocking*/ @CheckForNull String slaveIsWaitingFor(@Nonnull JCloudsSlave slave) throws ProvisioningFailedException {
         return slave.getSlaveOptions().getLauncherFactory().isWaitingFor(slave);
@@ -281,10 +494,32 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
 
     @Override
     public boolean canProvision(final Label label) {
-        for (JCloudsSlaveTemplate t : templates)
-            if (t.canProvision(label))
-                return true;
-        return false;
+        return !getMatchingTemplates(label).isEmpty();
+    }
+
+    /**
+     * Get templates that can provision given label, in declaration order.
+     */
+    /*package*/ @Nonnull List<JCloudsSlaveTemplate> getMatchingTemplates(@CheckForNull Label label) {
+        if (label == null) return templates;
+
+        List<JCloudsSlaveTemplate> matching = labelIndex.get(label);
+        if (matching == null) {
+            matching = new ArrayList<>();
+            for (JCloudsSlaveTemplate t : templates) {
+                if (t.canProvision(label)) {
+                    matching.add(t);
+                }
+            }
+            matching = Collections.unmodifiableList(matching);
+
+            // Do not grow indefinitely in case labels are generated dynamically
+            if (labelIndex.size() >= MAX_INDEXED_LABELS) {
+                labelIndex.clear();
+            }
+            labelIndex.put(label, matching);
+        }
+        return matching;
     }
 
     public @CheckForNull JCloudsSlaveTemplate getTemplate(String name) {
@@ -371,6 +606,14 @@ public class JCloudsCloud extends Cloud implements SlaveOptions.Holder {
         rsp.sendRedirect2(req.getContextPath() + "/computer/" + node.getNodeName());
     }
 
+    /**
+     * Get the outcome of the last node/server reconciliation.
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull JCloudsCleanupThread.Report getCleanupReport() {
+        return JCloudsCleanupThread.getReport(name);
+    }
+
     /**
      * Get connected OpenStack client wrapper.
      */
@@ -1,14 +1,21 @@
 package jenkins.plugins.openstack.compute;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Executor;
+import hudson.model.Queue;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.SlaveComputer;
 import hudson.slaves.OfflineCause.SimpleOfflineCause;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
@@ -30,7 +37,25 @@ import javax.servlet.http.HttpServletResponse;
 public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> implements TrackedItem {
 
     private static final Logger LOGGER = Logger.getLogger(JCloudsComputer.class.getName());
+
+    /**
+     * For how long the slave to recycle can stay busy before it is terminated instead.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long RECYCLE_TIMEOUT = Long.getLong(JCloudsComputer.class.getName() + ".recycleTimeout", TimeUnit.MINUTES.toMillis(10));
+
+    // Check the recycled slave shortly after its task completes to catch the executor being released
+    private static final long RECYCLE_CHECK_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final int RECYCLE_CHECK_ATTEMPTS = 20;
+
     private final ProvisioningActivity.Id provisioningId;
+    // Set while the hibernated server is being resumed so it is not picked twice
+    private final AtomicBoolean resuming = new AtomicBoolean(false);
+    // Set while single-use slave is waiting to be idle or being rebuilt for next build
+    private final AtomicBoolean recycling = new AtomicBoolean(false);
+    // Set while the server of recycled slave is being rebuilt
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private volatile long recycleRequested;
 
     public JCloudsComputer(JCloudsSlave slave) {
         super(slave);
@@ -49,6 +74,8 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> impleme
 
     /**
      * Flag the slave to be collected asynchronously.
+     *
+     * The slave is terminated as soon as it is idle.
      */
     public void setPendingDelete(boolean newVal) {
         boolean is = isPendingDelete();
@@ -56,6 +83,31 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> impleme
 
         LOGGER.info("Setting " + getName() + " pending delete status to " + newVal);
         setTemporarilyOffline(newVal, newVal ? PENDING_TERMINATION : null);
+        if (newVal) {
+            TerminationQueue.submit(this);
+        }
+    }
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        super.taskCompleted(executor, task, durationMS);
+        if (isPendingDelete()) {
+            TerminationQueue.submit(this);
+        }
+        if (isRecycling()) {
+            scheduleRecycleCheck(RECYCLE_CHECK_ATTEMPTS);
+        }
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        super.taskCompletedWithProblems(executor, task, durationMS, problems);
+        if (isPendingDelete()) {
+            TerminationQueue.submit(this);
+        }
+        if (isRecycling()) {
+            scheduleRecycleCheck(RECYCLE_CHECK_ATTEMPTS);
+        }
     }
 
     /**
@@ -66,6 +118,146 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> impleme
         return offlineCause instanceof PendingTermination;
     }
 
+    /**
+     * Is the server hibernated waiting to be resumed or deleted.
+     */
+    public boolean isHibernated() {
+        JCloudsSlave node = getNode();
+        return node != null && node.getHibernation() != null;
+    }
+
+    /*package*/ boolean isResuming() {
+        return resuming.get();
+    }
+
+    /**
+     * Disconnect the idle agent and hibernate its server.
+     *
+     * The slave is scheduled for termination in case hibernation fails.
+     */
+    /*package*/ void hibernate(@Nonnull HibernationMode mode) {
+        JCloudsSlave node = getNode();
+        if (node == null) return;
+
+        LOGGER.info("Hibernating " + getName() + " (" + mode.getDisplayName() + ")");
+        setTemporarilyOffline(true, HIBERNATED);
+        try {
+            VirtualChannel channel = node.getChannel();
+            if (channel != null) {
+                channel.close();
+            }
+            node.hibernate(mode);
+        } catch (IOException|RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Unable to hibernate " + getName() + ", scheduling for termination", ex);
+            setPendingDelete(true);
+        }
+    }
+
+    /**
+     * Claim the hibernated computer to be resumed by the caller.
+     *
+     * @return true if claimed, false when not hibernated or resumed by someone else.
+     */
+    /*package*/ boolean claimResume() {
+        if (isPendingDelete() || !isHibernated()) return false;
+        return resuming.compareAndSet(false, true);
+    }
+
+    /**
+     * Resume claimed computer and reconnect the agent.
+     */
+    /*package*/ void resume() throws IOException {
+        try {
+            JCloudsSlave node = getNode();
+            if (node == null) throw new IOException("Computer " + getName() + " is gone already");
+
+            LOGGER.info("Resuming hibernated " + getName());
+            node.resume();
+            setTemporarilyOffline(false, null);
+            connect(false);
+        } finally {
+            resuming.set(false);
+        }
+    }
+
+    /*package*/ boolean isRecycling() {
+        return recycling.get();
+    }
+
+    /**
+     * Rebuild the server of used single-use slave and reconnect it for the next build.
+     *
+     * Server is rebuilt asynchronously once the slave is idle. That is checked shortly after the task completes and by
+     * the retention strategy. The slave is scheduled for termination in case the rebuild fails or the slave does not
+     * get idle within {@link #RECYCLE_TIMEOUT}.
+     */
+    /*package*/ void recycle() {
+        if (isPendingDelete() || !recycling.compareAndSet(false, true)) return;
+
+        recycleRequested = System.currentTimeMillis();
+        setTemporarilyOffline(true, RECYCLING);
+        checkRecycle();
+    }
+
+    private void scheduleRecycleCheck(final int attempts) {
+        Timer.get().schedule(new Runnable() {
+            @Override public void run() {
+                checkRecycle();
+                if (isRecycling() && !rebuilding.get() && attempts > 1) {
+                    scheduleRecycleCheck(attempts - 1);
+                }
+            }
+        }, RECYCLE_CHECK_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the rebuild if the slave to recycle is idle, or give up once it is busy for too long.
+     */
+    /*package*/ void checkRecycle() {
+        if (!isRecycling() || rebuilding.get()) return;
+
+        if (!isIdle()) {
+            if (System.currentTimeMillis() - recycleRequested > RECYCLE_TIMEOUT) {
+                LOGGER.warning("Unable to recycle " + getName() + " as it is not idle, scheduling for termination");
+                setPendingDelete(true);
+                recycling.set(false);
+            }
+            return;
+        }
+
+        if (!rebuilding.compareAndSet(false, true)) return;
+
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override public void run() {
+                try {
+                    doRecycle();
+                } finally {
+                    rebuilding.set(false);
+                    recycling.set(false);
+                }
+            }
+        });
+    }
+
+    private void doRecycle() {
+        try {
+            JCloudsSlave node = getNode();
+            if (node == null) return;
+
+            LOGGER.info("Recycling " + getName());
+            VirtualChannel channel = node.getChannel();
+            if (channel != null) {
+                channel.close();
+            }
+            node.rebuild();
+            setTemporarilyOffline(false, null);
+            connect(false);
+        } catch (IOException|RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Unable to recycle " + getName() + ", scheduling for termination", ex);
+            setPendingDelete(true);
+        }
+    }
+
     // Hide /configure view inherited from Computer
     @Restricted(DoNotUse.class)
     public void doConfigure(StaplerResponse rsp) throws IOException {
@@ -116,6 +308,8 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> impleme
 
     // Singleton
     private static final PendingTermination PENDING_TERMINATION = new PendingTermination();
+    /*package*/ static final Hibernated HIBERNATED = new Hibernated();
+    private static final Recycling RECYCLING = new Recycling();
 
     private static final class PendingTermination extends SimpleOfflineCause {
 
@@ -123,4 +317,18 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> impleme
             super(Messages._DeletedCause());
         }
     }
+
+    private static final class Recycling extends SimpleOfflineCause {
+
+        private Recycling() {
+            super(Messages._RecyclingCause());
+        }
+    }
+
+    /*package*/ static final class Hibernated extends SimpleOfflineCause {
+
+        private Hibernated() {
+            super(Messages._HibernatedCause());
+        }
+    }
 }
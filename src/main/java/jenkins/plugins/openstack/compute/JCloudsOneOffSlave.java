@@ -14,14 +14,29 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public class JCloudsOneOffSlave extends BuildWrapper {
     private static final Logger LOGGER = Logger.getLogger(JCloudsOneOffSlave.class.getName());
 
+    /**
+     * Rebuild the server for the next build instead of deleting it.
+     */
+    private boolean recycle;
+
     @DataBoundConstructor
     public JCloudsOneOffSlave() {
     }
 
+    public boolean isRecycle() {
+        return recycle;
+    }
+
+    @DataBoundSetter
+    public void setRecycle(boolean recycle) {
+        this.recycle = recycle;
+    }
+
     //
     // convert Jenkins staticy stuff into pojos; performing as little critical stuff here as
     // possible, as this method is very hard to test due to static usage, etc.
@@ -36,7 +51,12 @@ public class JCloudsOneOffSlave extends BuildWrapper {
                 return new Environment() {
                     @Override
                     public boolean tearDown(AbstractBuild build, final BuildListener listener) throws IOException, InterruptedException {
-                        ((JCloudsComputer) c).setPendingDelete(true);
+                        JCloudsComputer computer = (JCloudsComputer) c;
+                        if (recycle) {
+                            computer.recycle();
+                        } else {
+                            computer.setPendingDelete(true);
+                        }
                         return true;
                     }
                 };
@@ -50,18 +50,35 @@ public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer>
 
     private void doCheck(JCloudsComputer c) {
         if (c.isPendingDelete()) return; // No need to do it again
+        if (c.isResuming()) return; // Being brought back from hibernation
+        if (c.isRecycling()) { // Being rebuilt for the next build
+            c.checkRecycle();
+            return;
+        }
+        if (c.isHibernated()) {
+            checkHibernated(c);
+            return;
+        }
         if (c.isConnecting()) return; // Do not discard slave while launching for the first time when "idle time" does not make much sense
         if (!c.isIdle() || c.getOfflineCause() instanceof OfflineCause.UserCause) return; // Occupied by user initiated activity
 
         final JCloudsSlave node = c.getNode();
         if (node == null) return; // Node is gone already
 
-        final int retentionTime = node.getSlaveOptions().getRetentionTime();
+        final SlaveOptions opts = node.getSlaveOptions();
+        final int retentionTime = opts.getRetentionTime();
         if (retentionTime < 0) return; // Keep forever
 
         final long idleSince = c.getIdleStartMilliseconds();
         final long idleMilliseconds = System.currentTimeMillis() - idleSince;
         if (idleMilliseconds > TimeUnit2.MINUTES.toMillis(retentionTime)) {
+            HibernationMode mode = HibernationMode.fromName(opts.getHibernationMode());
+            if (mode != HibernationMode.NONE) {
+                LOGGER.info("Hibernating " + c.getName() + " as it was idle since " + new Date(idleSince));
+                c.hibernate(mode);
+                return;
+            }
+
             LOGGER.info("Scheduling " + c .getName() + " for termination as it was idle since " + new Date(idleSince));
             try {
                 ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -75,10 +92,34 @@ public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer>
     }
 
     /**
-     * Try to connect to it ASAP.
+     * Delete the slave hibernated for too long.
+     */
+    private void checkHibernated(JCloudsComputer c) {
+        final JCloudsSlave node = c.getNode();
+        if (node == null) return; // Node is gone already
+
+        final SlaveOptions opts = node.getSlaveOptions();
+        final Integer hibernationTime = opts.getHibernationTime();
+        final int keep = hibernationTime == null ? opts.getRetentionTime() : hibernationTime;
+        if (keep < 0) return; // Keep forever
+
+        final long hibernatedSince = node.getHibernatedSince();
+        if (System.currentTimeMillis() - hibernatedSince > TimeUnit2.MINUTES.toMillis(keep)) {
+            LOGGER.info("Scheduling " + c.getName() + " for termination as it was hibernated since " + new Date(hibernatedSince));
+            c.setPendingDelete(true);
+        }
+    }
+
+    /**
+     * Try to connect to it ASAP, unless hibernated.
      */
     @Override
     public void start(JCloudsComputer c) {
+        if (c.isHibernated()) {
+            // Stay offline until resumed by the cloud
+            c.setTemporarilyOffline(true, JCloudsComputer.HIBERNATED);
+            return;
+        }
         c.connect(false);
     }
 
@@ -8,8 +8,10 @@ import hudson.model.TaskListener;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.AbstractCloudSlave;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
+import jenkins.model.Jenkins;
 import jenkins.plugins.openstack.compute.internal.DestroyMachine;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.slaveopts.BootSource;
 import jenkins.plugins.openstack.compute.slaveopts.LauncherFactory;
 import org.jenkinsci.plugins.cloudstats.CloudStatistics;
 import org.jenkinsci.plugins.cloudstats.PhaseExecutionAttachment;
@@ -26,6 +28,8 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -35,15 +39,39 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
     private static final long serialVersionUID = 1L;
     private static final Logger LOGGER = Logger.getLogger(JCloudsSlave.class.getName());
 
+    /**
+     * Refer to shared snapshot of options instead of persisting them inline.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static boolean SHARE_OPTIONS = Boolean.getBoolean(JCloudsSlave.class.getName() + ".shareOptions");
+
+    /**
+     * For how long server details resolved in bulk are used instead of asking OpenStack.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long PRE_RESOLVED_TTL = Long.getLong(JCloudsSlave.class.getName() + ".preResolvedTtl", TimeUnit.MINUTES.toMillis(5));
+
     private final @Nonnull String cloudName;
-    // Full/effective options
-    private /*final*/ @Nonnull SlaveOptions options;
+    // Full/effective options, null when persisted as snapshot reference
+    private /*final*/ @CheckForNull SlaveOptions options;
+    // Digest of options snapshot, null when persisted inline
+    private /*final*/ @CheckForNull String optionsDigest;
+    // Interned effective options
+    private transient /*final*/ SlaveOptions effectiveOptions;
     private final @Nonnull ProvisioningActivity.Id provisioningId;
 
     private /*final*/ @Nonnull String nodeId;
 
     private final long created = System.currentTimeMillis();
 
+    // Mode the server was hibernated with, null when not hibernated
+    private volatile @CheckForNull HibernationMode hibernation;
+    private volatile long hibernatedSince;
+
+    // Server details resolved in bulk, see StartupReconciliation
+    private transient volatile @CheckForNull Server preResolved;
+    private transient volatile long preResolvedAt;
+
     // Backward compatibility
     private transient @Deprecated int overrideRetentionTime;
     private transient @Deprecated String jvmOptions;
@@ -69,7 +97,15 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
         );
         this.cloudName = id.getCloudName(); // TODO deprecate field
         this.provisioningId = id;
-        this.options = slaveOptions;
+        this.effectiveOptions = slaveOptions.intern();
+        if (SHARE_OPTIONS) {
+            try {
+                this.optionsDigest = SlaveOptionsSnapshots.put(effectiveOptions);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to share options snapshot, persisting inline for " + getNodeName(), ex);
+            }
+        }
+        this.options = optionsDigest == null ? effectiveOptions : null;
         this.nodeId = metadata.getId();
         setLauncher(new JCloudsLauncher(getLauncherFactory().createLauncher(this)));
     }
@@ -80,6 +116,19 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
     @SuppressFBWarnings({"RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", "The fields are non-null after readResolve"})
     protected Object readResolve() {
         super.readResolve();
+        if (options == null && optionsDigest != null) {
+            SlaveOptions snapshot = SlaveOptionsSnapshots.get(optionsDigest);
+            if (snapshot != null) {
+                effectiveOptions = snapshot;
+                return finishResolve();
+            }
+
+            // Failing to load would drop the node and leak its server, use the options it would be provisioned with now
+            options = getCurrentTemplateOptions();
+            LOGGER.warning("Options snapshot " + optionsDigest + " of " + getNodeName() + " is missing, using current options " + options);
+            optionsDigest = null;
+        }
+
         if (options == null) {
             // Node options are not of override of anything so we need to ensure this fill all mandatory fields
             // We base the outdated config on current plugin defaults to increase the chance it will work.
@@ -102,7 +151,29 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
             credentialsId = null;
             slaveType = null;
         }
+        effectiveOptions = options.intern();
 
+        return finishResolve();
+    }
+
+    /**
+     * Effective options of the template the node was provisioned from, or the closest thing available.
+     */
+    private @Nonnull SlaveOptions getCurrentTemplateOptions() {
+        JCloudsCloud cloud;
+        try {
+            cloud = JCloudsCloud.getByName(cloudName);
+        } catch (IllegalArgumentException ex) {
+            return JCloudsCloud.DescriptorImpl.getDefaultOptions();
+        }
+
+        String templateName = provisioningId.getTemplateName();
+        JCloudsSlaveTemplate template = templateName == null ? null : cloud.getTemplate(templateName);
+        return template == null ? cloud.getEffectiveSlaveOptions() : template.getEffectiveSlaveOptions();
+    }
+
+    @SuppressWarnings("deprecation")
+    private Object finishResolve() {
         if (metadata != null && (nodeId == null || !nodeId.equals(metadata.getId()))) {
             nodeId = metadata.getId();
             metadata = null;
@@ -121,7 +192,7 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
      */
     public @CheckForNull String getPublicAddress() throws NoSuchElementException {
     	
-        return Openstack.getPublicAddress(getOpenstack(cloudName).getServerById(nodeId));
+        return Openstack.getPublicAddress(getServer());
     }
     /**
      * Get public IP address of the server.
@@ -129,22 +200,51 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
     @Restricted(NoExternalUse.class)
     public @CheckForNull String getPublicAddressIpv4() throws NoSuchElementException {
     	
-        return Openstack.getPublicAddressIpv4(getOpenstack(cloudName).getServerById(nodeId));
+        return Openstack.getPublicAddressIpv4(getServer());
+    }
+
+    /**
+     * Provide server details fetched in bulk so the addresses can be resolved without asking OpenStack.
+     */
+    /*package*/ void preResolve(@Nonnull Server server) {
+        preResolvedAt = System.currentTimeMillis();
+        preResolved = server;
+    }
+
+    private @Nonnull Server getServer() throws NoSuchElementException {
+        Server server = preResolved;
+        if (server == null) {
+            // Agents reconnecting on startup get their server from the inventory fetched in bulk
+            StartupReconciliation.await();
+            server = preResolved;
+        }
+        if (server != null) {
+            if (System.currentTimeMillis() - preResolvedAt < PRE_RESOLVED_TTL) return server;
+            preResolved = null;
+        }
+        return getOpenstack(cloudName).getServerById(nodeId);
     }
 
     /**
      * Get effective options used to configure this slave.
      */
     public @Nonnull SlaveOptions getSlaveOptions() {
-        options.getClass();
-        return options;
+        effectiveOptions.getClass();
+        return effectiveOptions;
     }
 
     public @Nonnull LauncherFactory getLauncherFactory() {
-        LauncherFactory lf = options.getLauncherFactory();
+        LauncherFactory lf = getSlaveOptions().getLauncherFactory();
         return lf == null ? LauncherFactory.JNLP.JNLP : lf;
     }
 
+    /**
+     * Digest of the options snapshot the node refers to, null when the options are persisted inline.
+     */
+    /*package*/ @CheckForNull String getOptionsDigest() {
+        return optionsDigest;
+    }
+
     // Exposed for testing
     /*package*/ @Nonnull String getServerId() {
         return nodeId;
@@ -165,6 +265,75 @@ public class JCloudsSlave extends AbstractCloudSlave implements TrackedItem {
         return created;
     }
 
+    /**
+     * Mode the server is hibernated with, null when it is not.
+     */
+    public @CheckForNull HibernationMode getHibernation() {
+        return hibernation;
+    }
+
+    public long getHibernatedSince() {
+        return hibernatedSince;
+    }
+
+    /**
+     * Suspend or shelve the server keeping the node around.
+     *
+     * The agent is expected to be disconnected already.
+     */
+    /*package*/ void hibernate(@Nonnull HibernationMode mode) throws IOException {
+        if (mode == HibernationMode.NONE) throw new IllegalArgumentException("No hibernation mode specified for " + getNodeName());
+
+        getOpenstack(cloudName).hibernateServer(nodeId, mode == HibernationMode.SHELVE);
+        hibernation = mode;
+        hibernatedSince = System.currentTimeMillis();
+        Jenkins.getActiveInstance().updateNode(this);
+    }
+
+    /**
+     * Rebuild the server from its image keeping its ports and floating IP.
+     *
+     * The newest golden image of the template is used when available, same as when provisioning.
+     * The agent is expected to be disconnected already and it is the caller's responsibility to reconnect it.
+     *
+     * @throws Openstack.ActionFailed When the server is not booted from image or the rebuild fails.
+     */
+    /*package*/ void rebuild() throws Openstack.ActionFailed {
+        SlaveOptions opts = getSlaveOptions();
+        JCloudsCloud cloud = JCloudsCloud.getByName(cloudName);
+        Openstack openstack = cloud.getOpenstack();
+
+        JCloudsSlaveTemplate template = cloud.getTemplate(provisioningId.getTemplateName());
+        String imageId = template != null && template.isGoldenImageEnabled()
+                ? GoldenImageMaintenance.getNewest(openstack, GoldenImageMaintenance.prefix(cloud, template))
+                : null
+        ;
+        if (imageId == null) {
+            BootSource bootSource = opts.getBootSource();
+            if (!(bootSource instanceof BootSource.Image)) {
+                throw new Openstack.ActionFailed("Unable to rebuild " + getNodeName() + " not booted from image: " + bootSource);
+            }
+            imageId = ((BootSource.Image) bootSource).resolveId(openstack);
+        }
+
+        openstack.rebuildAndWaitActive(nodeId, imageId, opts.getStartTimeout());
+    }
+
+    /**
+     * Bring the hibernated server back and wait until active.
+     *
+     * It is the caller's responsibility to reconnect the agent.
+     */
+    /*package*/ void resume() throws IOException {
+        HibernationMode mode = hibernation;
+        if (mode == null) return;
+
+        getOpenstack(cloudName).resumeAndWaitActive(nodeId, mode == HibernationMode.SHELVE, getSlaveOptions().getStartTimeout());
+        hibernation = null;
+        hibernatedSince = 0;
+        Jenkins.getActiveInstance().updateNode(this);
+    }
+
     @Extension
     public static final class JCloudsSlaveDescriptor extends SlaveDescriptor {
 
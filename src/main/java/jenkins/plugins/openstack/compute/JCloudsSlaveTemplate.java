@@ -3,16 +3,20 @@ package jenkins.plugins.openstack.compute;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
-import com.google.common.base.Charsets;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.remoting.Base64;
 import jenkins.plugins.openstack.compute.internal.DestroyMachine;
+import jenkins.plugins.openstack.compute.internal.Quota;
 import jenkins.plugins.openstack.compute.slaveopts.BootSource;
 import jenkins.plugins.openstack.compute.slaveopts.LauncherFactory;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
@@ -23,10 +27,13 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.openstack4j.api.Builders;
+import org.openstack4j.model.compute.Flavor;
 import org.openstack4j.model.compute.Server;
 import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.openstack4j.model.storage.block.Volume;
 
 import com.google.common.base.Strings;
 
@@ -58,14 +65,40 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     private static final Logger LOGGER = Logger.getLogger(JCloudsSlaveTemplate.class.getName());
     private static final char SEPARATOR_CHAR = ',';
 
+    // Crockford's base32, lowercase to produce valid hostnames
+    private static final char[] NAME_ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final AtomicInteger NAME_SEQUENCE = new AtomicInteger();
+    // Hostname can have 63 characters at most, '-' and 11 characters of suffix are appended
+    private static final int MAX_NAME_PREFIX = 63 - 12;
+
+    /**
+     * For how long to prefer fallback flavor after the preferred one ran out of capacity.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long FLAVOR_COOLDOWN = Long.getLong(JCloudsSlaveTemplate.class.getName() + ".flavorCooldown", TimeUnit.MINUTES.toMillis(15));
+
     public final String name;
     public final String labelString;
 
     // Difference compared to cloud
     private /*final*/ SlaveOptions slaveOptions;
 
+    // Minutes between golden image snapshots, null when golden images are not used
+    private @CheckForNull Integer goldenImageInterval;
+
+    // Number of pre-cloned boot volumes, null when not pooled
+    private @CheckForNull Integer volumePoolSize;
+
+    // Size of the build cache volume in GB, null when no cache volume is attached
+    private @CheckForNull Integer cacheVolumeSize;
+
     private transient Set<LabelAtom> labelSet;
     private /*final*/ transient JCloudsCloud cloud;
+    // Cached when owner is set, template is reattached to new cloud instance on every reconfiguration
+    private transient volatile SlaveOptions effectiveSlaveOptions;
+    private transient ProvisioningBackoff backoff;
+    private transient AtomicInteger zoneRotation;
+    private transient volatile FlavorPreference flavorPreference;
 
     // Backward compatibility
     private transient @Deprecated String imageId;
@@ -97,6 +130,8 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     private Object readResolve() {
         // Initializes data structure that we don't persist.
         labelSet = Label.parse(labelString);
+        backoff = new ProvisioningBackoff(name);
+        zoneRotation = new AtomicInteger();
 
         // Migrate from 1.X to 2.0
         int i;
@@ -158,16 +193,74 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         return this;
     }
 
+    /**
+     * Minutes between snapshots of warmed up agents into golden images.
+     *
+     * @see GoldenImageMaintenance
+     */
+    public @CheckForNull Integer getGoldenImageInterval() {
+        return goldenImageInterval;
+    }
+
+    @DataBoundSetter
+    public void setGoldenImageInterval(@CheckForNull Integer goldenImageInterval) {
+        this.goldenImageInterval = goldenImageInterval == null || goldenImageInterval <= 0 ? null : goldenImageInterval;
+    }
+
+    /**
+     * Golden images are used only in place of the configured image.
+     */
+    /*package*/ boolean isGoldenImageEnabled() {
+        return goldenImageInterval != null && getEffectiveSlaveOptions().getBootSource() instanceof BootSource.Image;
+    }
+
+    /**
+     * Number of boot volumes to clone ahead of time.
+     *
+     * @see BootVolumePool
+     */
+    public @CheckForNull Integer getVolumePoolSize() {
+        return volumePoolSize;
+    }
+
+    @DataBoundSetter
+    public void setVolumePoolSize(@CheckForNull Integer volumePoolSize) {
+        this.volumePoolSize = volumePoolSize == null || volumePoolSize <= 0 ? null : volumePoolSize;
+    }
+
+    /**
+     * Size of the build cache volume in GB.
+     *
+     * @see CacheVolumePool
+     */
+    public @CheckForNull Integer getCacheVolumeSize() {
+        return cacheVolumeSize;
+    }
+
+    @DataBoundSetter
+    public void setCacheVolumeSize(@CheckForNull Integer cacheVolumeSize) {
+        this.cacheVolumeSize = cacheVolumeSize == null || cacheVolumeSize <= 0 ? null : cacheVolumeSize;
+    }
+
+    /**
+     * Volumes can be pooled only when booting from volume snapshot.
+     */
+    /*package*/ boolean isVolumePoolEnabled() {
+        return volumePoolSize != null && getEffectiveSlaveOptions().getBootSource() instanceof BootSource.VolumeSnapshot;
+    }
+
     // Called when registered into cloud, this class is not supposed to be persisted before this is called
     @Restricted(NoExternalUse.class)
     /*package*/ void setOwner(JCloudsCloud cloud) {
         this.cloud = cloud;
+        // Make sure only diff of defaults is saved so when defaults will change users are not stuck with outdated config
         slaveOptions = slaveOptions.eraseDefaults(cloud.getEffectiveSlaveOptions());
+        effectiveSlaveOptions = cloud.getEffectiveSlaveOptions().override(slaveOptions);
     }
 
     public @Nonnull SlaveOptions getEffectiveSlaveOptions() {
-        // Make sure only diff of defaults is saved so when defaults will change users are not stuck with outdated config
-        return cloud.getEffectiveSlaveOptions().override(slaveOptions);
+        if (effectiveSlaveOptions == null) throw new IllegalStateException("Owner not set properly");
+        return effectiveSlaveOptions;
     }
 
     public @Nonnull SlaveOptions getRawSlaveOptions() {
@@ -183,6 +276,20 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         return label == null || label.matches(labelSet);
     }
 
+    /**
+     * Failure backoff state of this template.
+     *
+     * Penalized template is skipped by automatic provisioning, manual provisioning is still permitted.
+     */
+    @Restricted(NoExternalUse.class)
+    public @Nonnull ProvisioningBackoff getProvisioningBackoff() {
+        return backoff;
+    }
+
+    /*package*/ int nextZoneRotation() {
+        return zoneRotation.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
     /*package*/ boolean hasProvisioned(@Nonnull Server server) {
         return name.equals(server.getMetadata().get(OPENSTACK_TEMPLATE_NAME_KEY));
     }
@@ -200,7 +307,14 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     ) throws JCloudsCloud.ProvisioningFailedException, InterruptedException {
         SlaveOptions opts = getEffectiveSlaveOptions();
         int timeout = opts.getStartTimeout();
-        Server nodeMetadata = provision(cloud);
+        Server nodeMetadata;
+        try {
+            nodeMetadata = bootServer(cloud, null);
+        } catch (Openstack.ActionFailed ex) {
+            backoff.recordFailure(ex);
+            throw ex;
+        }
+        opts = scaleExecutors(cloud, opts, nodeMetadata);
 
         JCloudsSlave node = null;
         // Terminate node unless provisioned successfully
@@ -218,6 +332,7 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                 Thread.sleep(2000);
             }
 
+            backoff.recordSuccess();
             return node;
         } catch (Throwable ex) {
             JCloudsCloud.ProvisioningFailedException cause = ex instanceof JCloudsCloud.ProvisioningFailedException
@@ -225,6 +340,10 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                     : new JCloudsCloud.ProvisioningFailedException("Unable to provision node: " + ex.getMessage(), ex)
             ;
 
+            if (!(ex instanceof InterruptedException)) {
+                backoff.recordFailure(cause);
+            }
+
             if (node != null) {
                 // No need to call AbstractCloudSlave#terminate() as this was never added to Jenkins
                 node._terminate(TaskListener.NULL);
@@ -245,71 +364,33 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
 
     @Restricted(NoExternalUse.class)
     public @Nonnull Server provision(@Nonnull JCloudsCloud cloud, @CheckForNull ServerScope scope) throws Openstack.ActionFailed {
-        final String serverName = name + "-" + new Random().nextInt(10000);
-        final SlaveOptions opts = getEffectiveSlaveOptions();
-        final ServerCreateBuilder builder = Builders.server();
+        try {
+            Server server = bootServer(cloud, scope);
+            backoff.recordSuccess();
+            return server;
+        } catch (Openstack.ActionFailed ex) {
+            backoff.recordFailure(ex);
+            throw ex;
+        }
+    }
 
-        builder.addMetadataItem(OPENSTACK_TEMPLATE_NAME_KEY, name);
-        builder.addMetadataItem(OPENSTACK_CLOUD_NAME_KEY, cloud.name);
+    private @Nonnull Server bootServer(@Nonnull JCloudsCloud cloud, @CheckForNull ServerScope scope) throws Openstack.ActionFailed {
+        final Openstack openstack = cloud.getOpenstack();
+        final String serverName = generateServerName(name);
+        final SlaveOptions opts = getEffectiveSlaveOptions();
         if (scope == null) {
             scope = new ServerScope.Node(serverName);
         }
-        builder.addMetadataItem(ServerScope.METADATA_KEY, scope.getValue());
 
         LOGGER.info("Provisioning new openstack server " + serverName + " with options " + opts);
-        // Ensure predictable server name so we can inject it into user data
-        builder.name(serverName);
 
-        final Openstack openstack = cloud.getOpenstack();
         final BootSource bootSource = opts.getBootSource();
-        if (bootSource == null) {
-            LOGGER.warning("No " + BootSource.class.getSimpleName() + " set for " + getClass().getSimpleName() + " with name='" + name + "'.");
-        } else {
-            LOGGER.fine("Setting boot options to " + bootSource);
-            bootSource.setServerBootSource(builder, openstack);
-        }
-
-        String hwid = opts.getHardwareId();
-        if (!Strings.isNullOrEmpty(hwid)) {
-            LOGGER.fine("Setting hardware Id to " + hwid);
-            builder.flavor(hwid);
-        }
-
-        String nid = opts.getNetworkId();
-        if (!Strings.isNullOrEmpty(nid)) {
-            LOGGER.fine("Setting network to " + nid);
-            builder.networks(Collections.singletonList(nid));
-        }
-
-        if (!Strings.isNullOrEmpty(opts.getSecurityGroups())) {
-            LOGGER.fine("Setting security groups to " + opts.getSecurityGroups());
-            for (String sg: csvToArray(opts.getSecurityGroups())) {
-                builder.addSecurityGroup(sg);
-            }
-        }
-
-        String kpn = opts.getKeyPairName();
-        if (!Strings.isNullOrEmpty(kpn)) {
-            LOGGER.fine("Setting keyPairName to " + kpn);
-            builder.keypairName(kpn);
-        }
-
-        String az = opts.getAvailabilityZone();
-        if (!Strings.isNullOrEmpty(az)) {
-            LOGGER.fine("Setting availabilityZone to " + az);
-            builder.availabilityZone(az);
-        }
-
-        @CheckForNull String userDataText = getUserData();
-        if (userDataText != null) {
-            String rootUrl = Jenkins.getActiveInstance().getRootUrl();
-            UserDataVariableResolver resolver = new UserDataVariableResolver(rootUrl, serverName, labelString, opts);
-            String content = Util.replaceMacro(userDataText, resolver);
-            LOGGER.fine("Sending user-data:\n" + content);
-            builder.userData(Base64.encode(content.getBytes(Charsets.UTF_8)));
-        }
-
-        Server server = openstack.bootAndWaitActive(builder, opts.getStartTimeout());
+        final String goldenImage = isGoldenImageEnabled()
+                ? GoldenImageMaintenance.getNewest(openstack, GoldenImageMaintenance.prefix(cloud, this))
+                : null
+        ;
+        BootRequest request = new BootRequest(cloud, openstack, serverName, scope, opts, goldenImage);
+        Server server = bootWithFlavors(openstack, request, opts);
         LOGGER.info("Provisioned: " + server.toString());
 
         try {
@@ -334,6 +415,312 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         }
     }
 
+    /**
+     * Server name with time-ordered suffix.
+     *
+     * The suffix is encoded milliseconds followed by a sequence number making names generated by this JVM unique, so
+     * there is no need to verify the name is free. The prefix is truncated for the name to fit into hostname length limit.
+     */
+    /*package*/ static @Nonnull String generateServerName(@Nonnull String prefix) {
+        if (prefix.length() > MAX_NAME_PREFIX) {
+            prefix = prefix.substring(0, MAX_NAME_PREFIX);
+        }
+        StringBuilder sb = new StringBuilder(prefix.length() + 12).append(prefix).append('-');
+        appendBase32(sb, System.currentTimeMillis(), 9);
+        appendBase32(sb, NAME_SEQUENCE.getAndIncrement(), 2);
+        return sb.toString();
+    }
+
+    private static void appendBase32(@Nonnull StringBuilder sb, long value, int chars) {
+        for (int i = chars - 1; i >= 0; i--) {
+            sb.append(NAME_ALPHABET[(int) ((value >>> (5 * i)) & 31)]);
+        }
+    }
+
+    /**
+     * Server request built anew for every boot attempt.
+     *
+     * Pooled boot volume is claimed per attempt as it is bound to the availability zone and it is deleted together with
+     * the server of the failed attempt. Cache volume is claimed per attempt as well, as it is bound to the availability
+     * zone and the one of the failed attempt is still detaching from the deleted server for a while.
+     *
+     * All the attempts share a single deadline derived from the start timeout.
+     */
+    private final class BootRequest {
+        private final @Nonnull JCloudsCloud cloud;
+        private final @Nonnull Openstack openstack;
+        private final @Nonnull String serverName;
+        private final @Nonnull ServerScope scope;
+        private final @Nonnull SlaveOptions opts;
+        private final @CheckForNull String goldenImage;
+        private final long deadline;
+        // Cache volumes attached by previous attempts
+        private final @Nonnull Set<String> usedCacheVolumes = new HashSet<>();
+        private @CheckForNull Volume cacheVolume;
+
+        private BootRequest(
+                @Nonnull JCloudsCloud cloud, @Nonnull Openstack openstack, @Nonnull String serverName,
+                @Nonnull ServerScope scope, @Nonnull SlaveOptions opts, @CheckForNull String goldenImage
+        ) {
+            this.cloud = cloud;
+            this.openstack = openstack;
+            this.serverName = serverName;
+            this.scope = scope;
+            this.opts = opts;
+            this.goldenImage = goldenImage;
+            this.deadline = System.currentTimeMillis() + opts.getStartTimeout();
+        }
+
+        /**
+         * Time left for the remaining attempts.
+         *
+         * @throws Openstack.ActionFailed When the deadline has passed.
+         */
+        private int remainingTime() throws Openstack.ActionFailed {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) throw new Openstack.ActionFailed(
+                    "Failed to boot server " + serverName + " within timeout (" + opts.getStartTimeout() + " ms)"
+            );
+            return (int) remaining;
+        }
+
+        /**
+         * Boot the server in a single attempt.
+         *
+         * @param flavor Flavor to boot, null to leave unset.
+         * @param az Availability zone to boot in, null to leave unset.
+         */
+        private @Nonnull Server boot(@CheckForNull String flavor, @CheckForNull String az) throws Openstack.ActionFailed {
+            try {
+                // Do not claim any volumes once out of time
+                remainingTime();
+                ServerCreateBuilder builder = build(flavor, az);
+                return openstack.bootAndWaitActive(builder, remainingTime());
+            } finally {
+                if (cacheVolume != null) {
+                    usedCacheVolumes.add(cacheVolume.getId());
+                    cacheVolume = null;
+                }
+            }
+        }
+
+        private @Nonnull ServerCreateBuilder build(@CheckForNull String flavor, @CheckForNull String az) throws Openstack.ActionFailed {
+            final ServerCreateBuilder builder = Builders.server();
+
+            builder.addMetadataItem(OPENSTACK_TEMPLATE_NAME_KEY, name);
+            builder.addMetadataItem(OPENSTACK_CLOUD_NAME_KEY, cloud.name);
+            builder.addMetadataItem(ServerScope.METADATA_KEY, scope.getValue());
+
+            // Ensure predictable server name so we can inject it into user data
+            builder.name(serverName);
+
+            if (flavor != null) {
+                LOGGER.fine("Setting hardware Id to " + flavor);
+                builder.flavor(flavor);
+            }
+            if (az != null) {
+                LOGGER.fine("Setting availabilityZone to " + az);
+                builder.availabilityZone(az);
+            }
+
+            final BootSource bootSource = opts.getBootSource();
+            final String pooledVolume = goldenImage == null && isVolumePoolEnabled()
+                    ? BootVolumePool.claim(openstack, cloud, JCloudsSlaveTemplate.this, serverName, az)
+                    : null
+            ;
+            if (goldenImage != null) {
+                LOGGER.fine("Setting boot options to golden image " + goldenImage);
+                builder.image(goldenImage);
+            } else if (pooledVolume != null) {
+                LOGGER.fine("Setting boot options to pooled volume " + pooledVolume);
+                ((BootSource.VolumeSnapshot) bootSource).setServerBootVolume(builder, pooledVolume);
+            } else if (bootSource == null) {
+                LOGGER.warning("No " + BootSource.class.getSimpleName() + " set for " + JCloudsSlaveTemplate.class.getSimpleName() + " with name='" + name + "'.");
+            } else {
+                LOGGER.fine("Setting boot options to " + bootSource);
+                bootSource.setServerBootSource(builder, openstack);
+            }
+
+            String nid = opts.getNetworkId();
+            if (!Strings.isNullOrEmpty(nid)) {
+                LOGGER.fine("Setting network to " + nid);
+                builder.networks(Collections.singletonList(nid));
+            }
+
+            if (!Strings.isNullOrEmpty(opts.getSecurityGroups())) {
+                LOGGER.fine("Setting security groups to " + opts.getSecurityGroups());
+                for (String sg: csvToArray(opts.getSecurityGroups())) {
+                    builder.addSecurityGroup(sg);
+                }
+            }
+
+            String kpn = opts.getKeyPairName();
+            if (!Strings.isNullOrEmpty(kpn)) {
+                LOGGER.fine("Setting keyPairName to " + kpn);
+                builder.keypairName(kpn);
+            }
+
+            if (cacheVolumeSize != null) {
+                cacheVolume = CacheVolumePool.claim(
+                        openstack, cloud, JCloudsSlaveTemplate.this, serverName, cacheVolumeSize, az, usedCacheVolumes, remainingTime()
+                );
+                if (cacheVolume != null) {
+                    LOGGER.fine("Attaching cache volume " + cacheVolume.getName());
+                    builder.blockDevice(CacheVolumePool.mapping(cacheVolume.getId()));
+                }
+            }
+
+            String rootUrl = Jenkins.getActiveInstance().getRootUrl();
+            UserDataVariableResolver resolver = new UserDataVariableResolver(
+                    rootUrl, serverName, labelString, opts, cacheVolume == null ? null : cacheVolume.getId()
+            );
+            @CheckForNull byte[] userData = getUserDataConfigProvider().render(opts.getUserDataId(), resolver);
+            if (userData != null) {
+                builder.userData(Base64.encode(userData));
+            }
+
+            return builder;
+        }
+    }
+
+    /**
+     * Boot the server trying configured flavors until it succeeds.
+     *
+     * All the flavor and availability zone attempts are bounded by the start timeout as a whole.
+     *
+     * Flavor that succeeded after the preferred one ran out of capacity is used first for {@link #FLAVOR_COOLDOWN}.
+     */
+    private @Nonnull Server bootWithFlavors(
+            @Nonnull Openstack openstack, @Nonnull BootRequest request, @Nonnull SlaveOptions opts
+    ) throws Openstack.ActionFailed {
+        List<String> flavors = getFlavorCandidates(opts);
+        String hwid = opts.getHardwareId();
+        if (flavors.isEmpty()) {
+            return bootInAvailabilityZones(openstack, request, null, opts);
+        }
+
+        FlavorPreference preference = flavorPreference;
+        if (preference != null && preference.isValid() && flavors.remove(preference.flavor)) {
+            flavors.add(0, preference.flavor);
+        }
+
+        Openstack.CapacityExhausted lastFailure = null;
+        for (String flavor : flavors) {
+            try {
+                Server server = bootInAvailabilityZones(openstack, request, flavor, opts);
+                flavorPreference = flavor.equals(hwid)
+                        ? null
+                        : new FlavorPreference(flavor, System.currentTimeMillis() + FLAVOR_COOLDOWN)
+                ;
+                return server;
+            } catch (Openstack.CapacityExhausted ex) {
+                LOGGER.warning("Flavor " + flavor + " is out of capacity for " + name + ": " + ex.getMessage());
+                if (lastFailure != null) {
+                    ex.addSuppressed(lastFailure);
+                }
+                lastFailure = ex;
+            }
+        }
+
+        flavorPreference = null;
+        throw lastFailure;
+    }
+
+    /**
+     * Preferred flavor followed by the fallback ones.
+     */
+    private static @Nonnull List<String> getFlavorCandidates(@Nonnull SlaveOptions opts) {
+        List<String> flavors = new ArrayList<>();
+        String hwid = opts.getHardwareId();
+        if (!Strings.isNullOrEmpty(hwid)) {
+            flavors.add(hwid);
+        }
+        String fallback = opts.getFallbackHardwareIds();
+        if (!Strings.isNullOrEmpty(fallback)) {
+            for (String f : csvToArray(fallback)) {
+                f = f.trim();
+                if (!f.isEmpty() && !flavors.contains(f)) {
+                    flavors.add(f);
+                }
+            }
+        }
+        return flavors;
+    }
+
+    /**
+     * Derive number of executors from the flavor the server was booted from, if configured.
+     */
+    private @Nonnull SlaveOptions scaleExecutors(@Nonnull JCloudsCloud cloud, @Nonnull SlaveOptions opts, @Nonnull Server server) {
+        Integer perVcpu = opts.getExecutorsPerVcpu();
+        if (perVcpu == null || perVcpu <= 0) return opts;
+
+        String flavorId = server.getFlavorId();
+        if (flavorId == null) return opts;
+
+        try {
+            Flavor flavor = cloud.getOpenstack().getFlavor(flavorId);
+            if (flavor == null || flavor.getVcpus() <= 0) return opts;
+
+            return opts.getBuilder().numExecutors(flavor.getVcpus() * perVcpu).build();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Unable to determine vCPUs of flavor " + flavorId + ", using " + opts.getNumExecutors() + " executors", ex);
+            return opts;
+        }
+    }
+
+    private static final class FlavorPreference {
+        private final @Nonnull String flavor;
+        private final long until;
+
+        private FlavorPreference(@Nonnull String flavor, long until) {
+            this.flavor = flavor;
+            this.until = until;
+        }
+
+        private boolean isValid() {
+            return until > System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Boot the server trying configured availability zones until it succeeds.
+     *
+     * Only capacity problems are retried in the next zone, other failures are propagated right away.
+     */
+    private @Nonnull Server bootInAvailabilityZones(
+            @Nonnull Openstack openstack, @Nonnull BootRequest request, @CheckForNull String flavor, @Nonnull SlaveOptions opts
+    ) throws Openstack.ActionFailed {
+        String azs = opts.getAvailabilityZone();
+        if (Strings.isNullOrEmpty(azs)) {
+            return request.boot(flavor, null);
+        }
+
+        List<String> zones = new ArrayList<>();
+        for (String az : csvToArray(azs)) {
+            az = az.trim();
+            if (!az.isEmpty()) {
+                zones.add(az);
+            }
+        }
+        zones = AvailabilityZonePolicy.fromName(opts.getAvailabilityZonePolicy()).order(this, zones);
+
+        Openstack.CapacityExhausted lastFailure = null;
+        for (String az : zones) {
+            try {
+                return request.boot(flavor, az);
+            } catch (Openstack.CapacityExhausted ex) {
+                LOGGER.warning("Availability zone " + az + " is out of capacity for " + name + ": " + ex.getMessage());
+                if (lastFailure != null) {
+                    ex.addSuppressed(lastFailure);
+                }
+                lastFailure = ex;
+            }
+        }
+
+        if (lastFailure == null) throw new Openstack.ActionFailed("No availability zone configured in '" + azs + "'");
+        throw lastFailure;
+    }
+
     private static String[] csvToArray(final String csv) {
         try {
             final CSVReader reader = new CSVReader(new StringReader(csv), SEPARATOR_CHAR);
@@ -345,9 +732,7 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     }
 
     /*package for testing*/ @CheckForNull String getUserData() {
-        UserDataConfig.UserDataConfigProvider userDataConfigProvider = ConfigProvider.all().get(UserDataConfig.UserDataConfigProvider.class);
-        if (userDataConfigProvider == null) throw new AssertionError("Openstack Config File Provider is not registered");
-        Config userData = userDataConfigProvider.getConfigById(getEffectiveSlaveOptions().getUserDataId());
+        Config userData = getUserDataConfigProvider().getConfigById(getEffectiveSlaveOptions().getUserDataId());
 
         return (userData == null || userData.content.isEmpty())
                 ? null
@@ -355,6 +740,43 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         ;
     }
 
+    /*package*/ @CheckForNull UserDataVariableResolver.Template getUserDataTemplate() {
+        return getUserDataConfigProvider().getTemplate(getEffectiveSlaveOptions().getUserDataId());
+    }
+
+    private static @Nonnull UserDataConfig.UserDataConfigProvider getUserDataConfigProvider() {
+        UserDataConfig.UserDataConfigProvider userDataConfigProvider = ConfigProvider.all().get(UserDataConfig.UserDataConfigProvider.class);
+        if (userDataConfigProvider == null) throw new AssertionError("Openstack Config File Provider is not registered");
+        return userDataConfigProvider;
+    }
+
+    /**
+     * Account for one more server of this template in tenant quota.
+     *
+     * Any of the fallback flavors can be used to boot the server so the largest cores and RAM requirement is accounted for.
+     *
+     * @return Quota remaining after the server is created or null in case it does not fit.
+     */
+    /*package*/ @CheckForNull Quota allocate(@Nonnull Quota quota, @Nonnull Openstack openstack) {
+        if (quota.isUnlimited()) return quota;
+
+        SlaveOptions opts = getEffectiveSlaveOptions();
+        int cores = 0;
+        int ram = 0;
+        for (String hardwareId : getFlavorCandidates(opts)) {
+            try {
+                Flavor flavor = openstack.getFlavor(hardwareId);
+                if (flavor == null) continue;
+
+                cores = Math.max(cores, flavor.getVcpus());
+                ram = Math.max(ram, flavor.getRam());
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.FINE, "Unable to get flavor " + hardwareId + ", not considering it for quota", ex);
+            }
+        }
+        return quota.allocate(cores, ram, opts.getFloatingIpPool() != null);
+    }
+
     /*package for testing*/ List<? extends Server> getRunningNodes() {
         List<Server> tmplt = new ArrayList<>();
         for (Server server : cloud.getOpenstack().getRunningNodes()) {
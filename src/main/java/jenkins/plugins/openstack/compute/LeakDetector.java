@@ -0,0 +1,166 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Confirm resources are leaked by observing them as candidates for long enough.
+ *
+ * Resources can look leaked for a short while when they are being created or deleted, so a single observation is not
+ * enough to delete them. Candidates are tracked with the time they were first seen and persisted in
+ * <tt>$JENKINS_HOME/openstack-leak-candidates.xml</tt> so the detection does not start over after restart. Servers
+ * of the clouds are persisted as well so resources left behind by servers deleted before restart can be attributed.
+ */
+/*package*/ final class LeakDetector {
+    private static final Logger LOGGER = Logger.getLogger(LeakDetector.class.getName());
+
+    /**
+     * For how long the resource needs to be a candidate to be considered leaked.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long THRESHOLD = Long.getLong(LeakDetector.class.getName() + ".threshold", TimeUnit.MINUTES.toMillis(10));
+
+    /**
+     * For how long to remember a server after it was last seen.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long SERVER_RETENTION = Long.getLong(LeakDetector.class.getName() + ".serverRetention", TimeUnit.DAYS.toMillis(1));
+
+    // Candidate id to time first seen, per resource kind and cloud name
+    private final ConcurrentMap<String, ConcurrentMap<String, Long>> candidates = new ConcurrentHashMap<>();
+
+    // Server id to time last seen, per cloud name. Nova creates resources for servers without any metadata so they can
+    // only be attributed through the servers, even after they are gone.
+    private /*final*/ ConcurrentMap<String, ConcurrentMap<String, Long>> servers = new ConcurrentHashMap<>();
+
+    private transient volatile boolean dirty;
+
+    private Object readResolve() {
+        if (servers == null) {
+            servers = new ConcurrentHashMap<>();
+        }
+        return this;
+    }
+
+    /**
+     * Record candidates of the current cleanup.
+     *
+     * Candidates no longer present are forgotten.
+     *
+     * @param kind Kind of the resource.
+     * @return Candidates seen for longer than {@link #THRESHOLD}.
+     */
+    /*package*/ @Nonnull List<String> confirm(@Nonnull String kind, @Nonnull String cloudName, @Nonnull Collection<String> current) {
+        String key = kind + ":" + cloudName;
+        if (current.isEmpty()) {
+            if (candidates.remove(key) != null) {
+                dirty = true;
+            }
+            return Collections.emptyList();
+        }
+
+        ConcurrentMap<String, Long> seen = getOrCreate(candidates, key);
+        long now = System.currentTimeMillis();
+        if (seen.keySet().retainAll(new HashSet<>(current))) {
+            dirty = true;
+        }
+        List<String> leaked = new ArrayList<>();
+        for (String id : current) {
+            Long since = seen.putIfAbsent(id, now);
+            if (since == null) {
+                dirty = true;
+            } else if (now - since >= THRESHOLD) {
+                leaked.add(id);
+            }
+        }
+        return leaked;
+    }
+
+    /**
+     * Record servers of the cloud that currently exist.
+     *
+     * @return Servers of the cloud seen in the last {@link #SERVER_RETENTION}, including those that no longer exist.
+     */
+    /*package*/ @Nonnull Set<String> recordServers(@Nonnull String cloudName, @Nonnull Collection<String> current) {
+        ConcurrentMap<String, Long> seen = getOrCreate(servers, cloudName);
+        long now = System.currentTimeMillis();
+        for (String id : current) {
+            Long last = seen.get(id);
+            // Refresh with coarse granularity not to persist the same servers every cleanup
+            if (last == null || now - last >= SERVER_RETENTION / 24) {
+                seen.put(id, now);
+                dirty = true;
+            }
+        }
+        for (Iterator<Long> it = seen.values().iterator(); it.hasNext();) {
+            if (now - it.next() >= SERVER_RETENTION) {
+                it.remove();
+                dirty = true;
+            }
+        }
+        return new HashSet<>(seen.keySet());
+    }
+
+    private static @Nonnull ConcurrentMap<String, Long> getOrCreate(
+            @Nonnull ConcurrentMap<String, ConcurrentMap<String, Long>> map, @Nonnull String key
+    ) {
+        ConcurrentMap<String, Long> value = map.get(key);
+        if (value == null) {
+            ConcurrentMap<String, Long> created = new ConcurrentHashMap<>();
+            value = map.putIfAbsent(key, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        return value;
+    }
+
+    /*package*/ static @Nonnull LeakDetector load() {
+        XmlFile file = getFile();
+        if (file.exists()) {
+            try {
+                return (LeakDetector) file.read();
+            } catch (IOException | ClassCastException ex) {
+                LOGGER.log(Level.WARNING, "Unable to read leak candidates from " + file + ", starting over", ex);
+            }
+        }
+        return new LeakDetector();
+    }
+
+    /**
+     * Persist the candidates unless unchanged since last saved.
+     */
+    /*package*/ void save() {
+        if (!dirty) return;
+
+        dirty = false;
+        XmlFile file = getFile();
+        try {
+            file.write(this);
+        } catch (IOException ex) {
+            dirty = true;
+            LOGGER.log(Level.WARNING, "Unable to persist leak candidates to " + file, ex);
+        }
+    }
+
+    private static @Nonnull XmlFile getFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getActiveInstance().getRootDir(), "openstack-leak-candidates.xml"));
+    }
+}
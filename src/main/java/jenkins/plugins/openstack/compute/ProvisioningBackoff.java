@@ -0,0 +1,88 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Penalty box for template that keeps failing to provision.
+ *
+ * Every consecutive failure doubles the time the template is excluded from automatic provisioning, successful
+ * provisioning resets the state. The state is not persisted, template reconfiguration or restart starts from scratch.
+ */
+@Restricted(NoExternalUse.class)
+@ThreadSafe
+public final class ProvisioningBackoff {
+    private static final Logger LOGGER = Logger.getLogger(ProvisioningBackoff.class.getName());
+
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long BASE = Long.getLong(ProvisioningBackoff.class.getName() + ".base", TimeUnit.SECONDS.toMillis(30));
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long MAX = Long.getLong(ProvisioningBackoff.class.getName() + ".max", TimeUnit.MINUTES.toMillis(30));
+
+    private final @Nonnull String templateName;
+
+    private int failures = 0;
+    private long penalizedUntil = 0;
+    private @CheckForNull String lastError = null;
+
+    /*package*/ ProvisioningBackoff(@Nonnull String templateName) {
+        this.templateName = templateName;
+    }
+
+    /*package*/ synchronized void recordFailure(@Nonnull Throwable cause) {
+        failures++;
+        // Cap the shift not to overflow for templates failing for a very long time
+        long delay = Math.min(MAX, BASE << Math.min(failures - 1, 20));
+        penalizedUntil = System.currentTimeMillis() + delay;
+        lastError = cause.getMessage();
+        LOGGER.log(Level.WARNING, "Template {0} failed to provision {1} time(s) in a row, suspending automatic provisioning for {2} ms",
+                new Object[] { templateName, failures, delay }
+        );
+    }
+
+    /*package*/ synchronized void recordSuccess() {
+        if (failures != 0) {
+            LOGGER.log(Level.INFO, "Template {0} provisioned successfully after {1} failure(s)", new Object[] { templateName, failures });
+        }
+        failures = 0;
+        penalizedUntil = 0;
+        lastError = null;
+    }
+
+    /**
+     * Template should not be used for automatic provisioning at the moment.
+     */
+    public synchronized boolean isPenalized() {
+        return penalizedUntil > System.currentTimeMillis();
+    }
+
+    public synchronized int getFailureCount() {
+        return failures;
+    }
+
+    public synchronized long getRemainingMillis() {
+        return Math.max(0, penalizedUntil - System.currentTimeMillis());
+    }
+
+    public @Nonnull String getRemainingString() {
+        return Util.getTimeSpanString(getRemainingMillis());
+    }
+
+    public synchronized @CheckForNull String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProvisioningBackoff{template=" + templateName + ", failures=" + failures + ", penalizedUntil=" + penalizedUntil + "}";
+    }
+}
@@ -23,19 +23,27 @@
  */
 package jenkins.plugins.openstack.compute;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import hudson.model.Job;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
+import org.apache.commons.lang.time.FastDateFormat;
 import org.jenkinsci.plugins.cloudstats.CloudStatistics;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.openstack4j.model.compute.Server;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,6 +63,13 @@ public abstract class ServerScope {
      */
     public static final String METADATA_KEY = "jenkins-scope";
 
+    // Scopes are immutable so the servers sharing the same metadata value can share the instance
+    private static final Cache<String, ServerScope> PARSED = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build()
+    ;
+
     protected final @Nonnull String name;
     protected final @Nonnull String specifier;
 
@@ -91,11 +106,16 @@ public abstract class ServerScope {
         // Provisioned in a way that do not support scoping or before scoping was introduced
         if (scope == null) return Unlimited.getInstance();
 
+        ServerScope parsed = PARSED.getIfPresent(scope);
+        if (parsed != null) return parsed;
+
         try {
-            return parse(scope);
+            parsed = parse(scope);
         } catch (IllegalArgumentException ex) {
             throw new IllegalStateException("Unable to parse scope '" + scope + "' of " + server.getName());
         }
+        PARSED.put(scope, parsed);
+        return parsed;
     }
 
     @Override
@@ -143,6 +163,43 @@ public abstract class ServerScope {
      */
     abstract public boolean isOutOfScope(@Nonnull Server server);
 
+    /**
+     * Determine whether the server is out of scope or not, resolving provisioning activities from the index.
+     *
+     * Use when evaluating scopes of many servers at once.
+     */
+    public boolean isOutOfScope(@Nonnull Server server, @Nonnull ActivityIndex activities) {
+        return isOutOfScope(server);
+    }
+
+    /**
+     * Snapshot of provisioning activities indexed by name.
+     */
+    public static final class ActivityIndex {
+        private final @Nonnull Map<String, ProvisioningActivity> byName;
+
+        private ActivityIndex(@Nonnull Map<String, ProvisioningActivity> byName) {
+            this.byName = byName;
+        }
+
+        public static @Nonnull ActivityIndex build() {
+            Collection<ProvisioningActivity> activities = CloudStatistics.get().getActivities();
+            Map<String, ProvisioningActivity> byName = new HashMap<>(activities.size());
+            for (ProvisioningActivity pa : activities) {
+                String name = pa.getName();
+                // First one wins the same way as when iterating over the activities
+                if (name != null && !byName.containsKey(name)) {
+                    byName.put(name, pa);
+                }
+            }
+            return new ActivityIndex(byName);
+        }
+
+        public @CheckForNull ProvisioningActivity get(@Nonnull String name) {
+            return byName.get(name);
+        }
+    }
+
     /**
      * Server is scoped to Jenkins node of the name equal to the specifier.
      *
@@ -162,21 +219,27 @@ public abstract class ServerScope {
         public boolean isOutOfScope(@Nonnull Server server) {
             if (Jenkins.getActiveInstance().getNode(specifier) != null) return false;
 
+            return isOutOfScope(server, ActivityIndex.build());
+        }
+
+        @Override
+        public boolean isOutOfScope(@Nonnull Server server, @Nonnull ActivityIndex activities) {
+            if (Jenkins.getActiveInstance().getNode(specifier) != null) return false;
+
             // The node may be provisioned or deleted at the moment - do not interfere
-            for (ProvisioningActivity pa : CloudStatistics.get().getActivities()) {
-                if (specifier.equals(pa.getName())) {
-                    switch (pa.getCurrentPhase()) {
-                        case PROVISIONING:
-                            return false; // Node not yet created
-                        case LAUNCHING:
-                        case OPERATING:
-                            LOGGER.warning("Node does not exist for " + pa.getCurrentPhase() + " " + specifier);
-                            return false;
-                        case COMPLETED:
-                            return true;
-                    }
-                    assert false: "Unreachable";
+            ProvisioningActivity pa = activities.get(specifier);
+            if (pa != null) {
+                switch (pa.getCurrentPhase()) {
+                    case PROVISIONING:
+                        return false; // Node not yet created
+                    case LAUNCHING:
+                    case OPERATING:
+                        LOGGER.warning("Node does not exist for " + pa.getCurrentPhase() + " " + specifier);
+                        return false;
+                    case COMPLETED:
+                        return true;
                 }
+                assert false: "Unreachable";
             }
 
             Date created = server.getCreated();
@@ -197,8 +260,15 @@ public abstract class ServerScope {
         private final @Nonnull String project;
         private final int run;
 
+        // Resolved on first use. A build that is running can only get completed or deleted, both observed without lookup.
+        private volatile @Nonnull WeakReference<hudson.model.Run> resolved = new WeakReference<hudson.model.Run>(null);
+        // Resolved run observed completed. Completed builds do not come back, though the job can be recreated with a
+        // build of the same number.
+        private volatile @Nonnull WeakReference<hudson.model.Run> completed = new WeakReference<hudson.model.Run>(null);
+
         public Build(Run run) {
             this(run.getParent().getFullName() + ":" + run.getNumber());
+            resolved = new WeakReference<hudson.model.Run>(run);
         }
 
         public Build(String specifier) {
@@ -224,12 +294,25 @@ public abstract class ServerScope {
 
         @Override
         public boolean isOutOfScope(@Nonnull Server server) {
+            // Unlike the build, the job is not loaded lazily so it is cheap to verify the build still belongs to it
             Job job = Jenkins.getActiveInstance().getItemByFullName(project, Job.class);
             if (job == null) return true; // Presuming it was deleted/renamed, either way the build do not need the server anymore
-            hudson.model.Run run = job.getBuildByNumber(this.run);
-            if (run == null) return true; // Presuming it was deleted already
 
-            return !run.isLogUpdated(); // Even post-production completed
+            hudson.model.Run run = resolved.get();
+            if (run == null || run.getParent() != job) {
+                run = job.getBuildByNumber(this.run);
+                if (run == null) return true; // Presuming it was deleted already
+                // Do not keep the build in memory for the sake of the scope
+                resolved = new WeakReference<hudson.model.Run>(run);
+            } else if (completed.get() == run) {
+                return true;
+            }
+
+            if (run.isLogUpdated()) return false;
+
+            // Even post-production completed
+            completed = new WeakReference<hudson.model.Run>(run);
+            return true;
         }
 
         @Override
@@ -241,6 +324,9 @@ public abstract class ServerScope {
 
     public static final class Time extends ServerScope {
 
+        private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+        private static final FastDateFormat FORMAT = FastDateFormat.getInstance(PATTERN);
+
         // Track the time using master clock so we do not have to sync with openstack time difference
         private final long aliveUntil;
 
@@ -249,19 +335,18 @@ public abstract class ServerScope {
         }
 
         private Time(long millis) {
-            super("time", format().format(new Date(millis)));
+            super("time", FORMAT.format(millis));
             aliveUntil = millis;
         }
 
-        // The instance is not type safe so create a new one every time
-        private static SimpleDateFormat format() {
-            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        public Time(String specifier) {
+            this(parseTime(specifier));
         }
 
-        public Time(String specifier) {
-            super("time", specifier);
+        private static long parseTime(String specifier) {
             try {
-                aliveUntil = format().parse(specifier).getTime();
+                // The instance is not thread safe so create a new one every time. Parsed scopes are cached anyway.
+                return new SimpleDateFormat(PATTERN).parse(specifier).getTime();
             } catch (ParseException e) {
                 throw new IllegalArgumentException(e);
             }
@@ -272,11 +357,6 @@ public abstract class ServerScope {
             return System.currentTimeMillis() > aliveUntil;
         }
 
-        @Override
-        public String getValue() {
-            return name + ":" + format().format(new Date(aliveUntil));
-        }
-
         @Override
         protected boolean _equals(ServerScope o) {
             Time that = (Time) o;
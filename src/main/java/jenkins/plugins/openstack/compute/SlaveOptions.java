@@ -23,6 +23,8 @@
  */
 package jenkins.plugins.openstack.compute;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import hudson.Util;
 import hudson.model.Describable;
 import jenkins.model.Jenkins;
@@ -47,25 +49,30 @@ import java.io.Serializable;
  */
 public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
     private static final long serialVersionUID = -1L;
-    private static final SlaveOptions EMPTY = new SlaveOptions(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+    private static final SlaveOptions EMPTY = new SlaveOptions(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+    // Agents provisioned from the same template share equal options, keep only one copy on heap
+    private static final Interner<SlaveOptions> INTERNER = Interners.newWeakInterner();
 
     // Provisioning attributes
-    private /*final*/ @CheckForNull BootSource bootSource;
+    private final @CheckForNull BootSource bootSource;
     private final @CheckForNull String hardwareId;
+    private final @CheckForNull String fallbackHardwareIds;
     private final @CheckForNull String networkId;
     private final @CheckForNull String userDataId;
     private final Integer instanceCap;
     private final @CheckForNull String floatingIpPool;
     private final String securityGroups;
     private final @CheckForNull String availabilityZone;
+    private final @CheckForNull String availabilityZonePolicy;
     private final Integer startTimeout;
     private final @CheckForNull String keyPairName;
 
     // Slave launch attributes
     private final Integer numExecutors;
+    private final @CheckForNull Integer executorsPerVcpu;
     private final @CheckForNull String jvmOptions;
     private final String fsRoot;
-    private /*final*/ LauncherFactory launcherFactory;
+    private final LauncherFactory launcherFactory;
 
     // Moved into LauncherFactory. Converted to string for the ease of conversion. Note that due to inheritance implemented,
     // the migration needs to be implemented by the holder so this is package protected.
@@ -74,6 +81,8 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
 
     // Slave attributes
     private final Integer retentionTime;
+    private final @CheckForNull String hibernationMode;
+    private final @CheckForNull Integer hibernationTime;
 
     // Replaced by BootSource
     @Deprecated private transient @CheckForNull String imageId;
@@ -90,6 +99,13 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return hardwareId;
     }
 
+    /**
+     * Comma separated flavors to try when {@link #getHardwareId()} is out of capacity.
+     */
+    public @CheckForNull String getFallbackHardwareIds() {
+        return fallbackHardwareIds;
+    }
+
     public @CheckForNull String getNetworkId() {
         return networkId;
     }
@@ -114,6 +130,13 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return availabilityZone;
     }
 
+    /**
+     * Name of {@link AvailabilityZonePolicy} used to choose from the list of availability zones.
+     */
+    public @CheckForNull String getAvailabilityZonePolicy() {
+        return availabilityZonePolicy;
+    }
+
     public Integer getStartTimeout() {
         return startTimeout;
     }
@@ -126,6 +149,13 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return numExecutors;
     }
 
+    /**
+     * Number of executors per vCPU of the flavor used, overrides {@link #getNumExecutors()} when set.
+     */
+    public @CheckForNull Integer getExecutorsPerVcpu() {
+        return executorsPerVcpu;
+    }
+
     public @CheckForNull String getJvmOptions() {
         return jvmOptions;
     }
@@ -138,23 +168,42 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return retentionTime;
     }
 
+    /**
+     * Name of {@link HibernationMode} applied to agents idle for longer than {@link #getRetentionTime()}.
+     */
+    public @CheckForNull String getHibernationMode() {
+        return hibernationMode;
+    }
+
+    /**
+     * Minutes the agent is kept hibernated before it is deleted, {@link #getRetentionTime()} is used when not set.
+     */
+    public @CheckForNull Integer getHibernationTime() {
+        return hibernationTime;
+    }
+
     public SlaveOptions(Builder b) {
         this(
                 b.bootSource,
                 b.hardwareId,
+                b.fallbackHardwareIds,
                 b.networkId,
                 b.userDataId,
                 b.instanceCap,
                 b.floatingIpPool,
                 b.securityGroups,
                 b.availabilityZone,
+                b.availabilityZonePolicy,
                 b.startTimeout,
                 b.keyPairName,
                 b.numExecutors,
+                b.executorsPerVcpu,
                 b.jvmOptions,
                 b.fsRoot,
                 b.launcherFactory,
-                b.retentionTime
+                b.retentionTime,
+                b.hibernationMode,
+                b.hibernationTime
         );
     }
 
@@ -162,45 +211,71 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
     public SlaveOptions(
             BootSource bootSource,
             String hardwareId,
+            String fallbackHardwareIds,
             String networkId,
             String userDataId,
             Integer instanceCap,
             String floatingIpPool,
             String securityGroups,
             String availabilityZone,
+            String availabilityZonePolicy,
             Integer startTimeout,
             String keyPairName,
             Integer numExecutors,
+            Integer executorsPerVcpu,
             String jvmOptions,
             String fsRoot,
             LauncherFactory launcherFactory,
-            Integer retentionTime
+            Integer retentionTime,
+            String hibernationMode,
+            Integer hibernationTime
     ) {
         this.bootSource = bootSource;
         this.hardwareId = Util.fixEmpty(hardwareId);
+        this.fallbackHardwareIds = Util.fixEmpty(fallbackHardwareIds);
         this.networkId = Util.fixEmpty(networkId);
         this.userDataId = Util.fixEmpty(userDataId);
         this.instanceCap = instanceCap;
         this.floatingIpPool = Util.fixEmpty(floatingIpPool);
         this.securityGroups = Util.fixEmpty(securityGroups);
         this.availabilityZone = Util.fixEmpty(availabilityZone);
+        this.availabilityZonePolicy = Util.fixEmpty(availabilityZonePolicy);
         this.startTimeout = startTimeout;
         this.keyPairName = Util.fixEmpty(keyPairName);
         this.numExecutors = numExecutors;
+        this.executorsPerVcpu = executorsPerVcpu;
         this.jvmOptions = Util.fixEmpty(jvmOptions);
         this.fsRoot = Util.fixEmpty(fsRoot);
         this.launcherFactory = launcherFactory;
         this.retentionTime = retentionTime;
+        this.hibernationMode = Util.fixEmpty(hibernationMode);
+        this.hibernationTime = hibernationTime;
     }
 
     private Object readResolve() {
         if (bootSource == null && imageId != null) {
-            bootSource = new BootSource.Image(imageId);
+            // Fields are final so the instance can be shared, migrate into a copy
+            SlaveOptions migrated = getBuilder().bootSource(new BootSource.Image(imageId)).build();
+            migrated.slaveType = slaveType;
+            migrated.credentialsId = credentialsId;
+            return migrated;
         }
-        imageId = null;
         return this;
     }
 
+    /**
+     * Get canonical instance equal to this one.
+     *
+     * Interned instances are shared so they must not be modified. Instances still carrying data to be migrated by the
+     * holder are copied before interning, so the holder's migration can not touch the shared instance.
+     */
+    /*package*/ @Nonnull SlaveOptions intern() {
+        if (slaveType != null || credentialsId != null) {
+            return INTERNER.intern(getBuilder().build());
+        }
+        return INTERNER.intern(this);
+    }
+
     /**
      * Derive SlaveOptions taking this instance as baseline and overriding with argument.
      */
@@ -208,19 +283,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return new Builder()
                 .bootSource(_override(this.bootSource, o.bootSource))
                 .hardwareId(_override(this.hardwareId, o.hardwareId))
+                .fallbackHardwareIds(_override(this.fallbackHardwareIds, o.fallbackHardwareIds))
                 .networkId(_override(this.networkId, o.networkId))
                 .userDataId(_override(this.userDataId, o.userDataId))
                 .instanceCap(_override(this.instanceCap, o.instanceCap))
                 .floatingIpPool(_override(this.floatingIpPool, o.floatingIpPool))
                 .securityGroups(_override(this.securityGroups, o.securityGroups))
                 .availabilityZone(_override(this.availabilityZone, o.availabilityZone))
+                .availabilityZonePolicy(_override(this.availabilityZonePolicy, o.availabilityZonePolicy))
                 .startTimeout(_override(this.startTimeout, o.startTimeout))
                 .keyPairName(_override(this.keyPairName, o.keyPairName))
                 .numExecutors(_override(this.numExecutors, o.numExecutors))
+                .executorsPerVcpu(_override(this.executorsPerVcpu, o.executorsPerVcpu))
                 .jvmOptions(_override(this.jvmOptions, o.jvmOptions))
                 .fsRoot(_override(this.fsRoot, o.fsRoot))
                 .launcherFactory(_override(this.launcherFactory, o.launcherFactory))
                 .retentionTime(_override(this.retentionTime, o.retentionTime))
+                .hibernationMode(_override(this.hibernationMode, o.hibernationMode))
+                .hibernationTime(_override(this.hibernationTime, o.hibernationTime))
                 .build()
         ;
     }
@@ -236,19 +316,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return new Builder()
                 .bootSource(_erase(this.bootSource, defaults.bootSource))
                 .hardwareId(_erase(this.hardwareId, defaults.hardwareId))
+                .fallbackHardwareIds(_erase(this.fallbackHardwareIds, defaults.fallbackHardwareIds))
                 .networkId(_erase(this.networkId, defaults.networkId))
                 .userDataId(_erase(this.userDataId, defaults.userDataId))
                 .instanceCap(_erase(this.instanceCap, defaults.instanceCap))
                 .floatingIpPool(_erase(this.floatingIpPool, defaults.floatingIpPool))
                 .securityGroups(_erase(this.securityGroups, defaults.securityGroups))
                 .availabilityZone(_erase(this.availabilityZone, defaults.availabilityZone))
+                .availabilityZonePolicy(_erase(this.availabilityZonePolicy, defaults.availabilityZonePolicy))
                 .startTimeout(_erase(this.startTimeout, defaults.startTimeout))
                 .keyPairName(_erase(this.keyPairName, defaults.keyPairName))
                 .numExecutors(_erase(this.numExecutors, defaults.numExecutors))
+                .executorsPerVcpu(_erase(this.executorsPerVcpu, defaults.executorsPerVcpu))
                 .jvmOptions(_erase(this.jvmOptions, defaults.jvmOptions))
                 .fsRoot(_erase(this.fsRoot, defaults.fsRoot))
                 .launcherFactory(_erase(this.launcherFactory, defaults.launcherFactory))
                 .retentionTime(_erase(this.retentionTime, defaults.retentionTime))
+                .hibernationMode(_erase(this.hibernationMode, defaults.hibernationMode))
+                .hibernationTime(_erase(this.hibernationTime, defaults.hibernationTime))
                 .build()
         ;
     }
@@ -265,19 +350,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return new ToStringBuilder(this)
                 .append("bootSource", bootSource)
                 .append("hardwareId", hardwareId)
+                .append("fallbackHardwareIds", fallbackHardwareIds)
                 .append("networkId", networkId)
                 .append("userDataId", userDataId)
                 .append("instanceCap", instanceCap)
                 .append("floatingIpPool", floatingIpPool)
                 .append("securityGroups", securityGroups)
                 .append("availabilityZone", availabilityZone)
+                .append("availabilityZonePolicy", availabilityZonePolicy)
                 .append("startTimeout", startTimeout)
                 .append("keyPairName", keyPairName)
                 .append("numExecutors", numExecutors)
+                .append("executorsPerVcpu", executorsPerVcpu)
                 .append("jvmOptions", jvmOptions)
                 .append("fsRoot", fsRoot)
                 .append("launcherFactory", launcherFactory)
                 .append("retentionTime", retentionTime)
+                .append("hibernationMode", hibernationMode)
+                .append("hibernationTime", hibernationTime)
                 .toString()
         ;
     }
@@ -291,19 +381,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
 
         if (bootSource != null ? !bootSource.equals(that.bootSource) : that.bootSource != null) return false;
         if (hardwareId != null ? !hardwareId.equals(that.hardwareId) : that.hardwareId != null) return false;
+        if (fallbackHardwareIds != null ? !fallbackHardwareIds.equals(that.fallbackHardwareIds) : that.fallbackHardwareIds != null) return false;
         if (networkId != null ? !networkId.equals(that.networkId) : that.networkId != null) return false;
         if (userDataId != null ? !userDataId.equals(that.userDataId) : that.userDataId != null) return false;
         if (instanceCap != null ? !instanceCap.equals(that.instanceCap) : that.instanceCap != null) return false;
         if (floatingIpPool != null ? !floatingIpPool.equals(that.floatingIpPool) : that.floatingIpPool != null) return false;
         if (securityGroups != null ? !securityGroups.equals(that.securityGroups) : that.securityGroups != null) return false;
         if (availabilityZone != null ? !availabilityZone.equals(that.availabilityZone) : that.availabilityZone != null) return false;
+        if (availabilityZonePolicy != null ? !availabilityZonePolicy.equals(that.availabilityZonePolicy) : that.availabilityZonePolicy != null) return false;
         if (startTimeout != null ? !startTimeout.equals(that.startTimeout) : that.startTimeout != null) return false;
         if (keyPairName != null ? !keyPairName.equals(that.keyPairName) : that.keyPairName != null) return false;
         if (numExecutors != null ? !numExecutors.equals(that.numExecutors) : that.numExecutors != null) return false;
+        if (executorsPerVcpu != null ? !executorsPerVcpu.equals(that.executorsPerVcpu) : that.executorsPerVcpu != null) return false;
         if (jvmOptions != null ? !jvmOptions.equals(that.jvmOptions) : that.jvmOptions != null) return false;
         if (fsRoot != null ? !fsRoot.equals(that.fsRoot) : that.fsRoot != null) return false;
         if (launcherFactory != null ? !launcherFactory.equals(that.launcherFactory) : that.launcherFactory != null) return false;
-        return retentionTime != null ? retentionTime.equals(that.retentionTime) : that.retentionTime == null;
+        if (retentionTime != null ? !retentionTime.equals(that.retentionTime) : that.retentionTime != null) return false;
+        if (hibernationMode != null ? !hibernationMode.equals(that.hibernationMode) : that.hibernationMode != null) return false;
+        return hibernationTime != null ? hibernationTime.equals(that.hibernationTime) : that.hibernationTime == null;
 
     }
 
@@ -311,19 +406,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
     public int hashCode() {
         int result = bootSource != null ? bootSource.hashCode() : 0;
         result = 31 * result + (hardwareId != null ? hardwareId.hashCode() : 0);
+        result = 31 * result + (fallbackHardwareIds != null ? fallbackHardwareIds.hashCode() : 0);
         result = 31 * result + (networkId != null ? networkId.hashCode() : 0);
         result = 31 * result + (userDataId != null ? userDataId.hashCode() : 0);
         result = 31 * result + (instanceCap != null ? instanceCap.hashCode() : 0);
         result = 31 * result + (floatingIpPool != null ? floatingIpPool.hashCode() : 0);
         result = 31 * result + (securityGroups != null ? securityGroups.hashCode() : 0);
         result = 31 * result + (availabilityZone != null ? availabilityZone.hashCode() : 0);
+        result = 31 * result + (availabilityZonePolicy != null ? availabilityZonePolicy.hashCode() : 0);
         result = 31 * result + (startTimeout != null ? startTimeout.hashCode() : 0);
         result = 31 * result + (keyPairName != null ? keyPairName.hashCode() : 0);
         result = 31 * result + (numExecutors != null ? numExecutors.hashCode() : 0);
+        result = 31 * result + (executorsPerVcpu != null ? executorsPerVcpu.hashCode() : 0);
         result = 31 * result + (jvmOptions != null ? jvmOptions.hashCode() : 0);
         result = 31 * result + (fsRoot != null ? fsRoot.hashCode() : 0);
         result = 31 * result + (launcherFactory != null ? launcherFactory.hashCode() : 0);
         result = 31 * result + (retentionTime != null ? retentionTime.hashCode() : 0);
+        result = 31 * result + (hibernationMode != null ? hibernationMode.hashCode() : 0);
+        result = 31 * result + (hibernationTime != null ? hibernationTime.hashCode() : 0);
         return result;
     }
 
@@ -334,19 +434,24 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
         return new Builder()
                 .bootSource(bootSource)
                 .hardwareId(hardwareId)
+                .fallbackHardwareIds(fallbackHardwareIds)
                 .networkId(networkId)
                 .userDataId(userDataId)
                 .instanceCap(instanceCap)
                 .floatingIpPool(floatingIpPool)
                 .securityGroups(securityGroups)
                 .availabilityZone(availabilityZone)
+                .availabilityZonePolicy(availabilityZonePolicy)
                 .startTimeout(startTimeout)
                 .keyPairName(keyPairName)
                 .numExecutors(numExecutors)
+                .executorsPerVcpu(executorsPerVcpu)
                 .jvmOptions(jvmOptions)
                 .fsRoot(fsRoot)
                 .launcherFactory(launcherFactory)
                 .retentionTime(retentionTime)
+                .hibernationMode(hibernationMode)
+                .hibernationTime(hibernationTime)
         ;
     }
 
@@ -364,21 +469,26 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
     public static final class Builder {
         private @CheckForNull BootSource bootSource;
         private @CheckForNull String hardwareId;
+        private @CheckForNull String fallbackHardwareIds;
         private @CheckForNull String networkId;
         private @CheckForNull String userDataId;
         private @CheckForNull Integer instanceCap;
         private @CheckForNull String floatingIpPool;
         private @CheckForNull String securityGroups;
         private @CheckForNull String availabilityZone;
+        private @CheckForNull String availabilityZonePolicy;
         private @CheckForNull Integer startTimeout;
         private @CheckForNull String keyPairName;
 
         private @CheckForNull Integer numExecutors;
+        private @CheckForNull Integer executorsPerVcpu;
         private @CheckForNull String jvmOptions;
         private @CheckForNull String fsRoot;
 
         private @CheckForNull LauncherFactory launcherFactory;
         private @CheckForNull Integer retentionTime;
+        private @CheckForNull String hibernationMode;
+        private @CheckForNull Integer hibernationTime;
 
         public Builder() {}
 
@@ -396,6 +506,11 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
             return this;
         }
 
+        public @Nonnull Builder fallbackHardwareIds(String fallbackHardwareIds) {
+            this.fallbackHardwareIds = fallbackHardwareIds;
+            return this;
+        }
+
         public @Nonnull Builder networkId(String networkId) {
             this.networkId = networkId;
             return this;
@@ -426,6 +541,11 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
             return this;
         }
 
+        public @Nonnull Builder availabilityZonePolicy(String availabilityZonePolicy) {
+            this.availabilityZonePolicy = availabilityZonePolicy;
+            return this;
+        }
+
         public @Nonnull Builder startTimeout(Integer startTimeout) {
             this.startTimeout = startTimeout;
             return this;
@@ -441,6 +561,11 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
             return this;
         }
 
+        public @Nonnull Builder executorsPerVcpu(Integer executorsPerVcpu) {
+            this.executorsPerVcpu = executorsPerVcpu;
+            return this;
+        }
+
         public @Nonnull Builder jvmOptions(String jvmOptions) {
             this.jvmOptions = jvmOptions;
             return this;
@@ -460,6 +585,16 @@ public class SlaveOptions implements Describable<SlaveOptions>, Serializable {
             this.retentionTime = retentionTime;
             return this;
         }
+
+        public @Nonnull Builder hibernationMode(String hibernationMode) {
+            this.hibernationMode = hibernationMode;
+            return this;
+        }
+
+        public @Nonnull Builder hibernationTime(Integer hibernationTime) {
+            this.hibernationTime = hibernationTime;
+            return this;
+        }
     }
 
     /**
@@ -112,6 +112,19 @@ public final class SlaveOptionsDescriptor extends OsAuthDescriptor<SlaveOptions>
         return FormValidation.validatePositiveInteger(value);
     }
 
+    @Restricted(DoNotUse.class)
+    public FormValidation doCheckExecutorsPerVcpu(
+            @QueryParameter String value,
+            @RelativePath("../../slaveOptions") @QueryParameter("executorsPerVcpu") String def
+    ) {
+        if (Util.fixEmpty(value) == null) {
+            String d = getDefault(def, opts().getExecutorsPerVcpu());
+            if (d != null) return FormValidation.ok(def(d));
+            return OK;
+        }
+        return FormValidation.validatePositiveInteger(value);
+    }
+
     @Restricted(DoNotUse.class)
     public FormValidation doCheckRetentionTime(
             @QueryParameter String value,
@@ -130,6 +143,47 @@ public final class SlaveOptionsDescriptor extends OsAuthDescriptor<SlaveOptions>
         return FormValidation.validateNonNegativeInteger(value);
     }
 
+    @Restricted(DoNotUse.class)
+    public ListBoxModel doFillHibernationModeItems() {
+        ListBoxModel m = new ListBoxModel();
+        m.add("None specified", "");
+        for (HibernationMode mode : HibernationMode.values()) {
+            m.add(mode.getDisplayName(), mode.name());
+        }
+        return m;
+    }
+
+    @Restricted(DoNotUse.class)
+    public FormValidation doCheckHibernationMode(
+            @QueryParameter String value,
+            @RelativePath("../../slaveOptions") @QueryParameter("hibernationMode") String def
+    ) {
+        if (Util.fixEmpty(value) == null) {
+            String d = getDefault(def, opts().getHibernationMode());
+            if (d != null) return FormValidation.ok(def(HibernationMode.fromName(d).getDisplayName()));
+            return OK;
+        }
+        return OK;
+    }
+
+    @Restricted(DoNotUse.class)
+    public FormValidation doCheckHibernationTime(
+            @QueryParameter String value,
+            @RelativePath("../../slaveOptions") @QueryParameter("hibernationTime") String def
+    ) {
+        if (Util.fixEmpty(value) == null) {
+            String d = getDefault(def, opts().getHibernationTime());
+            if (d != null) return FormValidation.ok(def(d));
+            return FormValidation.ok("Same as retention time");
+        }
+        try {
+            if (Integer.parseInt(value) == -1)
+                return FormValidation.ok("Keep forever");
+        } catch (NumberFormatException e) {
+        }
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
     @Restricted(DoNotUse.class)
     @InjectOsAuth
     public ListBoxModel doFillFloatingIpPoolItems(
@@ -212,6 +266,19 @@ public final class SlaveOptionsDescriptor extends OsAuthDescriptor<SlaveOptions>
         return OK;
     }
 
+    @Restricted(DoNotUse.class)
+    public FormValidation doCheckFallbackHardwareIds(
+            @QueryParameter String value,
+            @RelativePath("../../slaveOptions") @QueryParameter("fallbackHardwareIds") String def
+    ) {
+        if (Util.fixEmpty(value) == null) {
+            String d = getDefault(def, opts().getFallbackHardwareIds());
+            if (d != null) return FormValidation.ok(def(d));
+            return OK;
+        }
+        return OK;
+    }
+
     @Restricted(DoNotUse.class)
     @InjectOsAuth
     public ListBoxModel doFillNetworkIdItems(
@@ -372,6 +439,29 @@ public final class SlaveOptionsDescriptor extends OsAuthDescriptor<SlaveOptions>
         return OK;
     }
 
+    @Restricted(DoNotUse.class)
+    public ListBoxModel doFillAvailabilityZonePolicyItems() {
+        ListBoxModel m = new ListBoxModel();
+        m.add("None specified", "");
+        for (AvailabilityZonePolicy policy : AvailabilityZonePolicy.values()) {
+            m.add(policy.getDisplayName(), policy.name());
+        }
+        return m;
+    }
+
+    @Restricted(DoNotUse.class)
+    public FormValidation doCheckAvailabilityZonePolicy(
+            @QueryParameter String value,
+            @RelativePath("../../slaveOptions") @QueryParameter("availabilityZonePolicy") String def
+    ) {
+        if (Util.fixEmpty(value) == null) {
+            String d = getDefault(def, opts().getAvailabilityZonePolicy());
+            if (d != null) return FormValidation.ok(def(AvailabilityZonePolicy.fromName(d).getDisplayName()));
+            return OK;
+        }
+        return OK;
+    }
+
     @Restricted(DoNotUse.class)
     @InjectOsAuth
     public ListBoxModel doFillKeyPairNameItems(
@@ -0,0 +1,122 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed store of effective {@link SlaveOptions} shared by agents.
+ *
+ * Agents provisioned from the same template tend to have identical options so instead of serializing them into every
+ * node configuration, they can refer to the snapshot by its digest. Snapshots are stored in
+ * <tt>$JENKINS_HOME/openstack-slave-options/</tt> and never change once written. Snapshots no node refers to are deleted
+ * by {@link #collect()}.
+ */
+/*package*/ final class SlaveOptionsSnapshots {
+    private static final Logger LOGGER = Logger.getLogger(SlaveOptionsSnapshots.class.getName());
+
+    /**
+     * For how long a snapshot is kept after it was last written, even if no node refers to it. Protects snapshots of
+     * nodes being provisioned that are not added to Jenkins yet.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long GRACE_PERIOD = Long.getLong(SlaveOptionsSnapshots.class.getName() + ".gracePeriod", TimeUnit.HOURS.toMillis(1));
+
+    // Digest to interned options. There is one entry per distinct option set, evicted when the snapshot is deleted.
+    private static final ConcurrentMap<String, SlaveOptions> CACHE = new ConcurrentHashMap<>();
+
+    private SlaveOptionsSnapshots() {}
+
+    /**
+     * Persist the snapshot unless already present.
+     *
+     * @return Digest to refer to the snapshot.
+     */
+    /*package*/ static @Nonnull String put(@Nonnull SlaveOptions options) throws IOException {
+        String digest = Util.getDigestOf(Jenkins.XSTREAM2.toXML(options));
+
+        XmlFile file = getFile(digest);
+        // Touch the existing snapshot so it is not collected before the node referring to it is added
+        if (!file.getFile().setLastModified(System.currentTimeMillis())) {
+            file.write(options);
+        }
+        CACHE.putIfAbsent(digest, options.intern());
+        return digest;
+    }
+
+    /**
+     * Get snapshot by its digest.
+     *
+     * @return null when the snapshot can not be read.
+     */
+    /*package*/ static @CheckForNull SlaveOptions get(@Nonnull String digest) {
+        SlaveOptions options = CACHE.get(digest);
+        if (options != null) return options;
+
+        XmlFile file = getFile(digest);
+        try {
+            options = ((SlaveOptions) file.read()).intern();
+        } catch (IOException | ClassCastException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to read slave options snapshot " + file, ex);
+            return null;
+        }
+        SlaveOptions existing = CACHE.putIfAbsent(digest, options);
+        return existing == null ? options : existing;
+    }
+
+    /**
+     * Delete snapshots no node refers to.
+     */
+    /*package*/ static void collect() {
+        File[] files = getDir().listFiles();
+        if (files == null) return;
+
+        Set<String> referenced = new HashSet<>();
+        for (Node node : Jenkins.getActiveInstance().getNodes()) {
+            if (node instanceof JCloudsSlave) {
+                String digest = ((JCloudsSlave) node).getOptionsDigest();
+                if (digest != null) {
+                    referenced.add(digest);
+                }
+            }
+        }
+
+        long threshold = System.currentTimeMillis() - GRACE_PERIOD;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".xml")) continue;
+
+            String digest = name.substring(0, name.length() - ".xml".length());
+            if (referenced.contains(digest) || file.lastModified() > threshold) continue;
+
+            CACHE.remove(digest);
+            if (file.delete()) {
+                LOGGER.fine("Deleted unreferenced slave options snapshot " + digest);
+            } else {
+                LOGGER.warning("Unable to delete unreferenced slave options snapshot " + file);
+            }
+        }
+    }
+
+    private static @Nonnull XmlFile getFile(@Nonnull String digest) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(getDir(), digest + ".xml"));
+    }
+
+    private static @Nonnull File getDir() {
+        return new File(Jenkins.getActiveInstance().getRootDir(), "openstack-slave-options");
+    }
+}
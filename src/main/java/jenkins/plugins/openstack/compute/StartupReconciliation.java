@@ -0,0 +1,182 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.model.compute.Server;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reconcile agents persisted before restart with servers that survived the downtime.
+ *
+ * Inventory of every cloud with agents is fetched once, all clouds in parallel. Agents with server gone are terminated
+ * right away instead of waiting for {@link JCloudsCleanupThread}, the rest have their server details pre-resolved so
+ * they can be reconnected without asking OpenStack one agent at a time.
+ *
+ * Computers are created, and their retention strategies start connecting them, as soon as the nodes are loaded. It runs
+ * in the background not to block the startup on unresponsive clouds, so the agents resolving their servers before it
+ * completes wait for it, up to {@link #TIMEOUT}, rather than asking OpenStack themselves.
+ */
+@Restricted(NoExternalUse.class)
+public final class StartupReconciliation {
+    private static final Logger LOGGER = Logger.getLogger(StartupReconciliation.class.getName());
+
+    /**
+     * For how long the reconciliation waits for the inventories. Agents of clouds not responding in time are left as they are.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long TIMEOUT = Long.getLong(StartupReconciliation.class.getName() + ".timeout", TimeUnit.MINUTES.toMillis(1));
+
+    // Guarded by the class, null until started
+    /*package*/ static Future<?> reconciliation;
+
+    private StartupReconciliation() {}
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void schedule() {
+        start();
+    }
+
+    /**
+     * Start the reconciliation unless started already, by the initializer or by the first agent to resolve its server.
+     */
+    /*package*/ static synchronized @Nonnull Future<?> start() {
+        if (reconciliation == null) {
+            reconciliation = Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override public void run() {
+                    try {
+                        reconcile();
+                    } catch (RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, "Unable to reconcile agents with servers", ex);
+                    }
+                }
+            });
+        }
+        return reconciliation;
+    }
+
+    /**
+     * Wait for the reconciliation to pre-resolve the server of the agent.
+     */
+    /*package*/ static void await() {
+        Future<?> future = start();
+        if (future.isDone()) return;
+
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            LOGGER.fine("Reconciliation not completed in " + TIMEOUT + "ms");
+        } catch (ExecutionException ex) {
+            // Logged by the reconciliation
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*package*/ static void reconcile() {
+        Map<String, List<JCloudsSlave>> nodesByCloud = new HashMap<>();
+        for (Node node : Jenkins.getActiveInstance().getNodes()) {
+            if (!(node instanceof JCloudsSlave)) continue;
+
+            JCloudsSlave slave = (JCloudsSlave) node;
+            String cloudName = slave.getId().getCloudName();
+            List<JCloudsSlave> nodes = nodesByCloud.get(cloudName);
+            if (nodes == null) {
+                nodes = new ArrayList<>();
+                nodesByCloud.put(cloudName, nodes);
+            }
+            nodes.add(slave);
+        }
+        if (nodesByCloud.isEmpty()) return;
+
+        Map<String, Future<List<Server>>> inventories = new HashMap<>();
+        for (final JCloudsCloud cloud : JCloudsCloud.getClouds()) {
+            if (!nodesByCloud.containsKey(cloud.name)) continue;
+
+            inventories.put(cloud.name, Computer.threadPoolForRemoting.submit(new Callable<List<Server>>() {
+                @Override public List<Server> call() {
+                    return cloud.getOpenstack().getRunningNodes();
+                }
+            }));
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (Map.Entry<String, Future<List<Server>>> inventory : inventories.entrySet()) {
+            String cloudName = inventory.getKey();
+            Future<List<Server>> future = inventory.getValue();
+            List<Server> servers;
+            try {
+                servers = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                LOGGER.warning("Inventory of cloud " + cloudName + " not fetched in " + TIMEOUT + "ms, skipping reconciliation of its agents");
+                continue;
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "Unable to fetch inventory of cloud " + cloudName + ", skipping reconciliation of its agents", ex.getCause());
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            reconcile(nodesByCloud.get(cloudName), servers);
+        }
+    }
+
+    private static void reconcile(@Nonnull List<JCloudsSlave> nodes, @Nonnull List<Server> servers) {
+        Map<String, Server> byId = new HashMap<>(servers.size());
+        Map<String, Server> byName = new HashMap<>(servers.size());
+        for (Server server : servers) {
+            byId.put(server.getId(), server);
+            byName.put(server.getName(), server);
+        }
+
+        for (JCloudsSlave node : nodes) {
+            Server server = byId.get(node.getServerId());
+            if (server == null) {
+                server = byName.get(node.getNodeName());
+            }
+
+            if (server == null) {
+                LOGGER.info("Server of " + node.getNodeName() + " is gone, terminating");
+                try {
+                    node.terminate();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Failed to terminate " + node.getNodeName(), ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+
+            node.preResolve(server);
+            Computer computer = node.toComputer();
+            if (computer instanceof JCloudsComputer) {
+                JCloudsComputer c = (JCloudsComputer) computer;
+                // Computers not created yet are connected by the retention strategy once they are
+                if (c.isOffline() && !c.isConnecting() && !c.isHibernated() && !c.isPendingDelete()) {
+                    c.connect(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.jenkinsci.plugins.cloudstats.CloudStatistics;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order in which templates matching the label are used to provision new capacity.
+ */
+@Restricted(NoExternalUse.class)
+public enum TemplateSelectionPolicy {
+
+    /**
+     * Use templates in the order they are declared, the first one is used until its instance cap is reached.
+     */
+    DECLARATION_ORDER("Declaration order") {
+        @Override
+        /*package*/ @Nonnull List<JCloudsSlaveTemplate> order(@Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsSlaveTemplate> candidates) {
+            return candidates;
+        }
+    },
+
+    /**
+     * Distribute capacity evenly among templates, starting with different template every time.
+     */
+    ROUND_ROBIN("Round-robin") {
+        @Override
+        /*package*/ @Nonnull List<JCloudsSlaveTemplate> order(@Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsSlaveTemplate> candidates) {
+            List<JCloudsSlaveTemplate> ordered = new ArrayList<>(candidates);
+            if (ordered.size() > 1) {
+                Collections.rotate(ordered, -(cloud.nextSelectionRotation() % ordered.size()));
+            }
+            return ordered;
+        }
+
+        @Override
+        /*package*/ boolean interleave() {
+            return true;
+        }
+    },
+
+    /**
+     * Prefer templates that come online fastest and fail least, based on recent provisioning activities.
+     *
+     * Templates without any recent history are ranked as an average template of the candidates, so they get assessed
+     * without taking precedence over templates known to perform well.
+     */
+    FASTEST_HEALTHY("Fastest healthy template first") {
+        @Override
+        /*package*/ @Nonnull List<JCloudsSlaveTemplate> order(@Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsSlaveTemplate> candidates) {
+            if (candidates.size() < 2) return candidates;
+
+            return rank(candidates, cloud.getTemplateStats());
+        }
+    };
+
+    /**
+     * Number of most recent finished activities per template to consider.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int WINDOW = Integer.getInteger(TemplateSelectionPolicy.class.getName() + ".window", 20);
+
+    /**
+     * For how long the collected statistics can be reused before scanning the activities again.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long STATS_CACHE_TIME = Long.getLong(TemplateSelectionPolicy.class.getName() + ".statsCacheTime", TimeUnit.SECONDS.toMillis(30));
+
+    private final @Nonnull String displayName;
+
+    TemplateSelectionPolicy(@Nonnull String displayName) {
+        this.displayName = displayName;
+    }
+
+    public @Nonnull String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Order candidate templates from the most preferred one.
+     */
+    /*package*/ abstract @Nonnull List<JCloudsSlaveTemplate> order(@Nonnull JCloudsCloud cloud, @Nonnull List<JCloudsSlaveTemplate> candidates);
+
+    /**
+     * Take one machine from every template in turn instead of exhausting the capacity of the preferred template first.
+     */
+    /*package*/ boolean interleave() {
+        return false;
+    }
+
+    /**
+     * Order candidates by their score, the lower the better.
+     *
+     * @param stats Template name to its statistics.
+     */
+    /*package*/ static @Nonnull List<JCloudsSlaveTemplate> rank(
+            @Nonnull List<JCloudsSlaveTemplate> candidates, @Nonnull Map<String, Stats> stats
+    ) {
+        // Neutral prior for templates without history: mean score of the candidates that succeeded recently
+        double sum = 0;
+        int scored = 0;
+        for (JCloudsSlaveTemplate t : candidates) {
+            Stats s = stats.get(t.name);
+            if (s != null && s.getSuccesses() > 0) {
+                sum += score(s);
+                scored++;
+            }
+        }
+        final double prior = scored == 0 ? 0 : sum / scored;
+
+        final Map<String, Double> scores = new HashMap<>();
+        for (JCloudsSlaveTemplate t : candidates) {
+            Stats s = stats.get(t.name);
+            scores.put(t.name, s == null || s.getSamples() == 0 ? prior : score(s));
+        }
+
+        List<JCloudsSlaveTemplate> ordered = new ArrayList<>(candidates);
+        // Stable sort so templates with the same score keep declaration order
+        Collections.sort(ordered, new Comparator<JCloudsSlaveTemplate>() {
+            @Override public int compare(JCloudsSlaveTemplate o1, JCloudsSlaveTemplate o2) {
+                return Double.compare(scores.get(o1.name), scores.get(o2.name));
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Score of a template with recent history, the lower the better.
+     */
+    /*package*/ static double score(@Nonnull Stats stats) {
+        if (stats.getSuccesses() == 0) return Double.MAX_VALUE;
+
+        return (stats.getMeanBootTime() + stats.getMeanLaunchTime()) / stats.getSuccessRate();
+    }
+
+    /**
+     * Rolling statistics of template provisioning gathered from cloud-stats.
+     */
+    /*package*/ static final class Stats {
+        private int samples;
+        private int successes;
+        private long bootTime;
+        private long launchTime;
+
+        /**
+         * Collect statistics for all templates of the cloud.
+         *
+         * @return Template name to its statistics.
+         */
+        /*package*/ static @Nonnull Map<String, Stats> collect(@Nonnull String cloudName) {
+            List<ProvisioningActivity> activities = new ArrayList<>();
+            for (ProvisioningActivity pa : CloudStatistics.get().getActivities()) {
+                if (cloudName.equals(pa.getId().getCloudName())) {
+                    activities.add(pa);
+                }
+            }
+
+            // Newest first so the window contains the most recent data
+            Collections.sort(activities, new Comparator<ProvisioningActivity>() {
+                @Override public int compare(ProvisioningActivity o1, ProvisioningActivity o2) {
+                    return Long.compare(o2.getStartedTimestamp(), o1.getStartedTimestamp());
+                }
+            });
+
+            Map<String, Stats> stats = new HashMap<>();
+            for (ProvisioningActivity pa : activities) {
+                String templateName = pa.getId().getTemplateName();
+                if (templateName == null) continue;
+
+                Stats s = stats.get(templateName);
+                if (s == null) {
+                    s = new Stats();
+                    stats.put(templateName, s);
+                }
+
+                if (s.samples < WINDOW) {
+                    s.add(pa);
+                }
+            }
+            return stats;
+        }
+
+        /*package*/ void add(@Nonnull ProvisioningActivity pa) {
+            ProvisioningActivity.PhaseExecution provisioning = pa.getPhaseExecution(ProvisioningActivity.Phase.PROVISIONING);
+            ProvisioningActivity.PhaseExecution launching = pa.getPhaseExecution(ProvisioningActivity.Phase.LAUNCHING);
+            ProvisioningActivity.PhaseExecution operating = pa.getPhaseExecution(ProvisioningActivity.Phase.OPERATING);
+            if (provisioning == null) return;
+
+            if (operating != null) {
+                samples++;
+                successes++;
+                long launched = launching == null ? operating.getStartedTimestamp() : launching.getStartedTimestamp();
+                bootTime += launched - provisioning.getStartedTimestamp();
+                launchTime += operating.getStartedTimestamp() - launched;
+            } else if (pa.getStatus() == ProvisioningActivity.Status.FAIL || pa.getCurrentPhase() == ProvisioningActivity.Phase.COMPLETED) {
+                // Never got online
+                samples++;
+            }
+            // Still in progress otherwise
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getSuccesses() {
+            return successes;
+        }
+
+        public double getSuccessRate() {
+            return samples == 0 ? 1 : ((double) successes) / samples;
+        }
+
+        public long getMeanBootTime() {
+            return successes == 0 ? 0 : bootTime / successes;
+        }
+
+        public long getMeanLaunchTime() {
+            return successes == 0 ? 0 : launchTime / successes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("samples=%d, successRate=%.2f, meanBootTime=%dms, meanLaunchTime=%dms",
+                    samples, getSuccessRate(), getMeanBootTime(), getMeanLaunchTime()
+            );
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package jenkins.plugins.openstack.compute;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Computer;
+import jenkins.util.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Terminate computers pending deletion as soon as they are idle.
+ *
+ * Computers are submitted when marked pending delete and when their task completes. Busy computers are rechecked for a
+ * short while to catch the executor being released after the completion is reported, longer running ones are
+ * resubmitted on next task completion. {@link JCloudsCleanupThread} still sweeps whatever is left behind.
+ */
+/*package*/ final class TerminationQueue {
+    private static final Logger LOGGER = Logger.getLogger(TerminationQueue.class.getName());
+
+    /**
+     * Delay before the computer is checked, giving a chance to revert the pending delete status.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long DELAY = Long.getLong(TerminationQueue.class.getName() + ".delay", TimeUnit.SECONDS.toMillis(1));
+
+    /**
+     * Number of checks of busy computer before waiting for the next task completion.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int ATTEMPTS = Integer.getInteger(TerminationQueue.class.getName() + ".attempts", 20);
+
+    // Names of computers with a check scheduled
+    private static final Set<String> SCHEDULED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private TerminationQueue() {}
+
+    /*package*/ static void submit(@Nonnull JCloudsComputer computer) {
+        if (SCHEDULED.add(computer.getName())) {
+            schedule(computer, ATTEMPTS);
+        }
+    }
+
+    private static void schedule(@Nonnull final JCloudsComputer computer, final int attempts) {
+        Timer.get().schedule(new Runnable() {
+            @Override public void run() {
+                check(computer, attempts);
+            }
+        }, DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private static void check(@Nonnull final JCloudsComputer computer, int attempts) {
+        if (!computer.isPendingDelete() || computer.getNode() == null) {
+            SCHEDULED.remove(computer.getName());
+            return;
+        }
+
+        if (!computer.isIdle()) {
+            if (attempts > 1) {
+                schedule(computer, attempts - 1);
+            } else {
+                SCHEDULED.remove(computer.getName());
+            }
+            return;
+        }
+
+        // Do not block the timer with the termination
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            @Override public void run() {
+                try {
+                    LOGGER.info("Terminating idle " + computer.getName() + " pending deletion");
+                    computer.deleteSlave();
+                } catch (Throwable ex) {
+                    LOGGER.log(Level.WARNING, "Failed to terminate " + computer.getName(), ex);
+                } finally {
+                    SCHEDULED.remove(computer.getName());
+                }
+            }
+        });
+    }
+}
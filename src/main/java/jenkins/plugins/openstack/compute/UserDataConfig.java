@@ -1,7 +1,10 @@
 package jenkins.plugins.openstack.compute;
 
+import com.google.common.base.Charsets;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.Util;
+import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
 import org.jenkinsci.lib.configprovider.AbstractConfigProviderImpl;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
@@ -10,29 +13,255 @@ import org.jenkinsci.lib.configprovider.model.ContentType;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 public class UserDataConfig extends Config {
+    private static final Logger LOGGER = Logger.getLogger(UserDataConfig.class.getName());
+
+    /**
+     * Maximal size of Base64 encoded user data accepted by Nova.
+     */
+    /*package*/ static final int MAX_ENCODED_SIZE = 65535;
+
+    // Cloud-init part types detected by the leading line, longer prefixes first
+    private static final String[][] PART_TYPES = {
+            { "#include-once", "text/x-include-once-url" },
+            { "#include", "text/x-include-url" },
+            { "#cloud-config-archive", "text/cloud-config-archive" },
+            { "#cloud-config", "text/cloud-config" },
+            { "#cloud-boothook", "text/cloud-boothook" },
+            { "#upstart-job", "text/upstart-job" },
+            { "#part-handler", "text/part-handler" },
+            { "#!", "text/x-shellscript" },
+    };
+
+    /**
+     * Comma separated ids of other user data configs to compose with this one.
+     */
+    private @CheckForNull String includes;
+
+    /**
+     * Gzip the user data before sending.
+     */
+    private boolean compress;
 
     @DataBoundConstructor
     public UserDataConfig(String id, String name, String comment, String content) {
         super(id, name, comment, content);
     }
 
+    public @CheckForNull String getIncludes() {
+        return includes;
+    }
+
+    @DataBoundSetter
+    public void setIncludes(@CheckForNull String includes) {
+        this.includes = Util.fixEmptyAndTrim(includes);
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    @DataBoundSetter
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
     @Override
     public ConfigProvider getDescriptor() {
         return Jenkins.getActiveInstance().getDescriptorByType(UserDataConfigProvider.class);
     }
 
+    /*package*/ static @Nonnull List<String> includedIds(@CheckForNull String includes) {
+        if (includes == null) return Collections.emptyList();
+
+        List<String> ids = new ArrayList<>();
+        for (String id : includes.split(",")) {
+            id = Util.fixEmptyAndTrim(id);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Produce the user data payload.
+     *
+     * @param content Rendered content of the config itself.
+     * @param includes Rendered content of included configs. When present, MIME multipart document is produced.
+     * @param compress Gzip the result.
+     */
+    /*package*/ static @Nonnull byte[] encode(@Nonnull String content, @Nonnull List<String> includes, boolean compress) {
+        String document = includes.isEmpty() ? content : multipart(content, includes);
+        byte[] bytes = document.getBytes(Charsets.UTF_8);
+        if (!compress) return bytes;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException ex) {
+            throw new AssertionError("In-memory stream failed", ex);
+        }
+        return out.toByteArray();
+    }
+
+    /*package*/ static int encodedSize(@Nonnull byte[] payload) {
+        return (payload.length + 2) / 3 * 4;
+    }
+
+    private static @Nonnull String multipart(@Nonnull String content, @Nonnull List<String> includes) {
+        List<String> parts = new ArrayList<>(includes.size() + 1);
+        if (!content.isEmpty()) {
+            parts.add(content);
+        }
+        parts.addAll(includes);
+
+        String boundary = "==JENKINS_OPENSTACK_BOUNDARY==";
+        while (containsAny(parts, boundary)) {
+            boundary = "==" + boundary;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Content-Type: multipart/mixed; boundary=\"").append(boundary).append("\"\n");
+        sb.append("MIME-Version: 1.0\n");
+        int i = 0;
+        for (String part : parts) {
+            sb.append("\n--").append(boundary).append('\n');
+            sb.append("Content-Type: ").append(partType(part)).append("; charset=\"utf-8\"\n");
+            sb.append("MIME-Version: 1.0\n");
+            sb.append("Content-Disposition: attachment; filename=\"part-").append(String.format("%03d", ++i)).append("\"\n\n");
+            sb.append(part);
+            if (!part.endsWith("\n")) {
+                sb.append('\n');
+            }
+        }
+        sb.append("--").append(boundary).append("--\n");
+        return sb.toString();
+    }
+
+    private static boolean containsAny(@Nonnull List<String> parts, @Nonnull String boundary) {
+        for (String part : parts) {
+            if (part.contains(boundary)) return true;
+        }
+        return false;
+    }
+
+    /*package*/ static @Nonnull String partType(@Nonnull String part) {
+        for (String[] type : PART_TYPES) {
+            if (part.startsWith(type[0])) return type[1];
+        }
+        return "text/plain";
+    }
+
     @Extension(ordinal = 70)
     public static class UserDataConfigProvider extends AbstractConfigProviderImpl {
 
+        /**
+         * Compiled user data per config id, evicted when the config is saved or removed.
+         *
+         * Keyed by id as new {@link Config} instance is created on every modification.
+         */
+        private transient /*almost final*/ Map<String, Compiled> compiled = new ConcurrentHashMap<>();
+
         public UserDataConfigProvider() {
             load();
         }
 
+        @Override
+        public void save(Config config) {
+            super.save(config);
+            invalidate(config.id);
+        }
+
+        @Override
+        public void remove(String configId) {
+            super.remove(configId);
+            invalidate(configId);
+        }
+
+        @Override
+        public synchronized void load() {
+            super.load();
+            if (compiled != null) { // Called from constructor
+                compiled.clear();
+            }
+        }
+
+        private void invalidate(@CheckForNull String id) {
+            if (id != null) {
+                compiled.remove(id);
+            }
+        }
+
+        private @CheckForNull Compiled getCompiled(@CheckForNull String id) {
+            if (id == null) return null;
+
+            Config config = getConfigById(id);
+            if (config == null) return null;
+
+            Compiled c = compiled.get(id);
+            // Compare config identity as well in case configs are replaced bypassing save
+            if (c == null || c.config != config) {
+                c = new Compiled(config);
+                compiled.put(id, c);
+            }
+            return c.isEmpty() ? null : c;
+        }
+
+        /**
+         * Get user data template ready to be rendered.
+         *
+         * @return null when there is no such config or it is empty.
+         */
+        /*package*/ @CheckForNull UserDataVariableResolver.Template getTemplate(@CheckForNull String id) {
+            Compiled c = getCompiled(id);
+            return c == null ? null : c.template;
+        }
+
+        /**
+         * Render user data payload to be sent to the server.
+         *
+         * @return null when there is no such config or it is empty.
+         */
+        /*package*/ @CheckForNull byte[] render(@CheckForNull String id, @Nonnull UserDataVariableResolver resolver) {
+            Compiled main = getCompiled(id);
+            if (main == null) return null;
+
+            String content = main.template.render(resolver);
+            List<String> includes = new ArrayList<>(main.includes.size());
+            for (String include : main.includes) {
+                // Nested includes are not followed not to deal with cycles
+                Compiled c = getCompiled(include);
+                if (c == null) {
+                    LOGGER.warning("User data " + id + " includes " + include + " that does not exist or is empty");
+                    continue;
+                }
+                includes.add(c.template.render(resolver));
+            }
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Sending user-data:\n" + content + (includes.isEmpty() ? "" : "\nIncluding:\n" + includes));
+            }
+            return encode(content, includes, main.compress);
+        }
+
         @Override
         public ContentType getContentType() {
             return ContentType.DefinedType.HTML;
@@ -72,5 +301,63 @@ public class UserDataConfig extends Config {
             }
             return usages;
         }
+
+        /**
+         * Verify the encoded user data fits Nova limit.
+         *
+         * The size is an estimate as the variables are substituted with sample values.
+         */
+        @Restricted(DoNotUse.class) // Jelly
+        public FormValidation doCheckContent(
+                @QueryParameter String value,
+                @QueryParameter("config.includes") String includes,
+                @QueryParameter("config.compress") boolean compress
+        ) {
+            Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER);
+
+            String rootUrl = Util.fixNull(Jenkins.getActiveInstance().getRootUrl());
+            UserDataVariableResolver resolver = new UserDataVariableResolver(rootUrl, "sample-server-name", "", SlaveOptions.empty());
+
+            List<String> rendered = new ArrayList<>();
+            for (String include : includedIds(includes)) {
+                Compiled c = getCompiled(include);
+                if (c == null) return FormValidation.error("No such user data: " + include);
+                rendered.add(c.template.render(resolver));
+            }
+
+            String content = UserDataVariableResolver.Template.compile(Util.fixNull(value)).render(resolver);
+            int size = encodedSize(encode(content, rendered, compress));
+            if (size > MAX_ENCODED_SIZE) {
+                return FormValidation.error(String.format(
+                        "Encoded user data is about %d bytes, exceeding the limit of %d bytes.%s",
+                        size, MAX_ENCODED_SIZE, compress ? "" : " Consider compressing it."
+                ));
+            }
+            return FormValidation.ok();
+        }
+
+        private static final class Compiled {
+            private final Config config;
+            private final UserDataVariableResolver.Template template;
+            private final List<String> includes;
+            private final boolean compress;
+
+            private Compiled(Config config) {
+                this.config = config;
+                this.template = UserDataVariableResolver.Template.compile(Util.fixNull(config.content));
+                if (config instanceof UserDataConfig) {
+                    UserDataConfig udc = (UserDataConfig) config;
+                    this.includes = includedIds(udc.getIncludes());
+                    this.compress = udc.isCompress();
+                } else {
+                    this.includes = Collections.emptyList();
+                    this.compress = false;
+                }
+            }
+
+            private boolean isEmpty() {
+                return Util.fixNull(config.content).isEmpty() && includes.isEmpty();
+            }
+        }
     }
 }
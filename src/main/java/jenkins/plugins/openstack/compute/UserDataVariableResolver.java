@@ -27,9 +27,16 @@ import hudson.Util;
 import hudson.util.VariableResolver;
 import jenkins.slaves.JnlpSlaveAgentProtocol;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Variable resolver that commits to resolve documented set of variables.
@@ -77,6 +84,11 @@ import java.util.Map;
                 return r.labelString;
             }
         });
+        stub("CACHE_VOLUME_DEVICE", "Device path of the build cache volume, empty when the template attaches none.", new ValueCalculator() {
+            @Override public @Nonnull String get(@Nonnull UserDataVariableResolver r) {
+                return r.cacheVolumeId == null ? "" : CacheVolumePool.devicePath(r.cacheVolumeId);
+            }
+        });
     }
     private static void stub(@Nonnull String name, @Nonnull String doc, @Nonnull ValueCalculator vc) {
         STUB.put(name, new Entry(name, doc, vc));
@@ -86,14 +98,23 @@ import java.util.Map;
     private final @Nonnull String serverName;
     private final @Nonnull String labelString;
     private final @Nonnull SlaveOptions opts;
+    private final @CheckForNull String cacheVolumeId;
 
     /*package*/ UserDataVariableResolver(
             @Nonnull String rootUrl, @Nonnull String serverName, @Nonnull String labelString, @Nonnull SlaveOptions opts
+    ) {
+        this(rootUrl, serverName, labelString, opts, null);
+    }
+
+    /*package*/ UserDataVariableResolver(
+            @Nonnull String rootUrl, @Nonnull String serverName, @Nonnull String labelString, @Nonnull SlaveOptions opts,
+            @CheckForNull String cacheVolumeId
     ) {
         this.rootUrl = rootUrl;
         this.serverName = serverName;
         this.labelString = labelString;
         this.opts = opts;
+        this.cacheVolumeId = cacheVolumeId;
     }
 
     @Override
@@ -126,4 +147,94 @@ import java.util.Map;
     private interface ValueCalculator {
         @Nonnull String get(@Nonnull UserDataVariableResolver r);
     }
+
+    /**
+     * User data text split to literal segments and variable slots ahead of time.
+     *
+     * Rendering produces the same result as {@link Util#replaceMacro(String, VariableResolver)} with this resolver but
+     * the text is scanned only once per config revision and not once per provisioned node.
+     */
+    @Immutable
+    /*package*/ static final class Template {
+        private static final Pattern VARIABLE;
+        static {
+            // Mimic the escaping of the core version we run on
+            boolean escapes = "$".equals(Util.replaceMacro("$$", new VariableResolver<String>() {
+                @Override public String resolve(String name) {
+                    return null;
+                }
+            }));
+            VARIABLE = Pattern.compile(escapes
+                    ? "\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\}|\\$)"
+                    : "\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\})"
+            );
+        }
+
+        /**
+         * Either {@link String} literals or {@link Entry} slots.
+         */
+        private final @Nonnull List<Object> segments;
+        private final int literalLength;
+
+        private Template(@Nonnull List<Object> segments, int literalLength) {
+            this.segments = segments;
+            this.literalLength = literalLength;
+        }
+
+        /*package*/ static @Nonnull Template compile(@Nonnull String text) {
+            List<Object> segments = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int literalLength = 0;
+            Matcher m = VARIABLE.matcher(text);
+            int idx = 0;
+            while (m.find()) {
+                String key = m.group(1);
+                if (key.equals("$")) {
+                    literal.append(text, idx, m.start()).append('$');
+                } else {
+                    if (key.charAt(0) == '{') key = key.substring(1, key.length() - 1);
+                    Entry entry = STUB.get(key);
+                    if (entry == null) { // Not a variable we can replace, pass through
+                        literal.append(text, idx, m.end());
+                    } else {
+                        literal.append(text, idx, m.start());
+                        if (literal.length() > 0) {
+                            segments.add(literal.toString());
+                            literalLength += literal.length();
+                            literal.setLength(0);
+                        }
+                        segments.add(entry);
+                    }
+                }
+                idx = m.end();
+            }
+            literal.append(text, idx, text.length());
+            if (literal.length() > 0) {
+                segments.add(literal.toString());
+                literalLength += literal.length();
+            }
+            return new Template(Collections.unmodifiableList(segments), literalLength);
+        }
+
+        /*package*/ @Nonnull String render(@Nonnull UserDataVariableResolver resolver) {
+            // Variables are mostly short, leave some room not to grow the buffer in common case
+            StringBuilder sb = new StringBuilder(literalLength + 64 * (segments.size() / 2 + 1));
+            for (Object segment : segments) {
+                if (segment instanceof Entry) {
+                    sb.append(((Entry) segment).vc.get(resolver));
+                } else {
+                    sb.append((String) segment);
+                }
+            }
+            return sb.toString();
+        }
+
+        /*package for testing*/ int getSlotCount() {
+            int count = 0;
+            for (Object segment : segments) {
+                if (segment instanceof Entry) count++;
+            }
+            return count;
+        }
+    }
 }
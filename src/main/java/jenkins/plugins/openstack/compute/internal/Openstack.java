@@ -30,11 +30,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -60,21 +65,28 @@ import hudson.util.FormValidation;
 import org.apache.commons.lang.ObjectUtils;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.api.Builders;
 import org.openstack4j.api.OSClient;
 import org.openstack4j.api.client.IOSClientBuilder;
 import org.openstack4j.api.compute.ComputeFloatingIPService;
 import org.openstack4j.api.compute.ServerService;
 import org.openstack4j.api.exceptions.ClientResponseException;
 import org.openstack4j.api.exceptions.ResponseException;
+import org.openstack4j.api.image.ImageService;
+import org.openstack4j.api.storage.BlockVolumeService;
+import org.openstack4j.core.transport.Config;
 import org.openstack4j.model.common.ActionResponse;
 import org.openstack4j.model.common.BasicResource;
 import org.openstack4j.model.common.Identifier;
+import org.openstack4j.model.compute.Action;
 import org.openstack4j.model.compute.Address;
 import org.openstack4j.model.compute.Fault;
 import org.openstack4j.model.compute.Flavor;
 import org.openstack4j.model.compute.FloatingIP;
 import org.openstack4j.model.compute.Keypair;
 import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.compute.ServerCreate;
+import org.openstack4j.model.compute.actions.RebuildOptions;
 import org.openstack4j.model.compute.builder.ServerCreateBuilder;
 import org.openstack4j.model.compute.ext.AvailabilityZone;
 import org.openstack4j.model.identity.v2.Access;
@@ -82,9 +94,11 @@ import org.openstack4j.model.identity.v3.Token;
 import org.openstack4j.model.image.Image;
 import org.openstack4j.model.network.NetFloatingIP;
 import org.openstack4j.model.network.Network;
+import org.openstack4j.model.network.Port;
 import org.openstack4j.model.storage.block.Volume;
 import org.openstack4j.model.storage.block.Volume.Status;
 import org.openstack4j.model.storage.block.VolumeSnapshot;
+import org.openstack4j.model.storage.block.builder.VolumeBuilder;
 import org.openstack4j.openstack.OSFactory;
 
 import hudson.util.Secret;
@@ -109,9 +123,40 @@ public class Openstack {
     private static final Logger LOGGER = Logger.getLogger(Openstack.class.getName());
     public static final String FINGERPRINT_KEY = "jenkins-instance";
 
+    /**
+     * For how long the tenant quota can be reused before asking OpenStack again.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static long QUOTA_CACHE_TIME = Long.getLong(Openstack.class.getName() + ".quotaCacheTime", TimeUnit.SECONDS.toMillis(60));
+
+    /**
+     * For how long to wait for the connection to OpenStack to be established.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int CONNECT_TIMEOUT = Integer.getInteger(Openstack.class.getName() + ".connectTimeout", (int) TimeUnit.SECONDS.toMillis(30));
+
+    /**
+     * For how long to wait for OpenStack to respond. Calls to unresponsive endpoint would block the caller indefinitely otherwise.
+     */
+    @SuppressFBWarnings({"MS_SHOULD_BE_FINAL", "Left modifiable from groovy"})
+    /*package*/ static int READ_TIMEOUT = Integer.getInteger(Openstack.class.getName() + ".readTimeout", (int) TimeUnit.MINUTES.toMillis(2));
+
+    // Servers booted or destroyed by this JVM recently. Resources created by Nova on their behalf are not identifiable otherwise.
+    private static final Cache<String, Boolean> MANAGED_SERVERS = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.DAYS)
+            .build()
+    ;
+
     // Store the OS session token so clients can be created from it per all threads using this.
     private final ClientProvider clientProvider;
 
+    private volatile @CheckForNull Quota quota;
+    private volatile long quotaFetched;
+
+    // Flavors can not be modified in Nova so it is safe to cache them indefinitely
+    private final ConcurrentMap<String, Flavor> flavors = new ConcurrentHashMap<>();
+
     private Openstack(@Nonnull String endPointUrl, @Nonnull String identity, @Nonnull Secret credential, @CheckForNull String region) {
         // TODO refactor to split tenant:username everywhere including UI
         String[] id = identity.split(":", 3);
@@ -132,15 +177,21 @@ public class Openstack {
                      .credentials(username, credential.getPlainText(), iDomain)
                      .scopeToProject(project, iDomain);
         }
+        Config config = clientConfig();
         OSClient<?> client = builder
+                .withConfig(config)
                 .authenticate()
                 .useRegion(region)
         ;
 
-        clientProvider = ClientProvider.get(client);
+        clientProvider = ClientProvider.get(client, config);
         debug("{0} client created for \"{1}\", \"{2}\", ..., \"{3}\".", Openstack.class.getSimpleName(), endPointUrl, identity, region);
     }
 
+    private static @Nonnull Config clientConfig() {
+        return Config.newConfig().withConnectionTimeout(CONNECT_TIMEOUT).withReadTimeout(READ_TIMEOUT);
+    }
+
     /*exposed for testing*/
     public Openstack(@Nonnull final OSClient<?> client) {
         this.clientProvider = new ClientProvider() {
@@ -195,6 +246,70 @@ public class Openstack {
         }
     };
 
+    /**
+     * Finds {@link Image}s with names starting with given prefix, in any state.
+     */
+    public @Nonnull List<Image> getImagesByNamePrefix(@Nonnull String prefix) {
+        List<Image> ret = new ArrayList<>();
+        for (Image image : clientProvider.get().images().listAll()) {
+            String name = image.getName();
+            if (name != null && name.startsWith(prefix)) {
+                ret.add(image);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Snapshot the server into new image.
+     *
+     * @return Id of the image. The image is not usable until uploaded, that is it becomes {@link Image.Status#ACTIVE}.
+     */
+    public @Nonnull String createSnapshot(@Nonnull String serverId, @Nonnull String imageName) throws ActionFailed {
+        debug("Snapshotting " + serverId + " into " + imageName);
+        try {
+            String id = clientProvider.get().compute().servers().createSnapshot(serverId, imageName);
+            if (id == null) throw new ActionFailed("Failed to snapshot server " + serverId + " into " + imageName);
+            return id;
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Wait for the image being uploaded to become {@link Image.Status#ACTIVE}.
+     *
+     * @throws ActionFailed In case the upload failed or did not complete in time.
+     */
+    public @Nonnull Image waitForImageActive(@Nonnull String id, @Nonnegative int timeout) throws ActionFailed {
+        debug("Waiting for image " + id + " to become active");
+        ImageService images = clientProvider.get().images();
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            Image image = images.get(id);
+            while (image != null && (image.getStatus() == Image.Status.QUEUED || image.getStatus() == Image.Status.SAVING)) {
+                if (System.currentTimeMillis() > deadline) break;
+                Thread.sleep(1000);
+                image = images.get(id);
+            }
+            if (image != null && image.getStatus() == Image.Status.ACTIVE) return image;
+
+            throw new ActionFailed("Image " + id + " did not become active in time (" + timeout + "ms): " + image);
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ActionFailed("Interrupted while waiting for image " + id, ex);
+        }
+    }
+
+    public void destroyImage(@Nonnull String id) throws ActionFailed {
+        debug("Deleting image " + id);
+        ActionResponse res = clientProvider.get().images().delete(id);
+        if (res.getCode() == 404) return; // Deleted
+        throwIfFailed(res);
+    }
+
     /**
      * Finds all {@link VolumeSnapshot}s that are {@link Status#AVAILABLE}.
      * 
@@ -234,6 +349,48 @@ public class Openstack {
         return flavors;
     }
 
+    /**
+     * @return The flavor or null if it does not exist.
+     */
+    public @CheckForNull Flavor getFlavor(@Nonnull String id) {
+        Flavor flavor = flavors.get(id);
+        if (flavor == null) {
+            flavor = clientProvider.get().compute().flavors().get(id);
+            if (flavor != null) {
+                flavors.put(id, flavor);
+            }
+        }
+        return flavor;
+    }
+
+    /**
+     * Get remaining tenant quota.
+     *
+     * The value is cached for a short time and refreshed sooner when the servers are created or deleted by the plugin.
+     *
+     * @return Last known quota when it can not be determined, or {@link Quota#UNLIMITED} if it was never known.
+     */
+    public @Nonnull Quota getQuota() {
+        long now = System.currentTimeMillis();
+        Quota q = quota;
+        if (q != null && now - quotaFetched < QUOTA_CACHE_TIME) return q;
+
+        try {
+            q = Quota.fromLimits(clientProvider.get().compute().quotaSets().limits().getAbsolute());
+        } catch (RuntimeException ex) {
+            // Do not retry on every call, the limits are likely not exposed to the user
+            if (q == null) {
+                LOGGER.log(Level.WARNING, "Unable to determine tenant quota, considering it unlimited", ex);
+                q = Quota.UNLIMITED;
+            } else {
+                LOGGER.log(Level.WARNING, "Unable to determine tenant quota, using last known " + q, ex);
+            }
+        }
+        quotaFetched = now;
+        quota = q;
+        return q;
+    }
+
     private Comparator<Flavor> FLAVOR_COMPARATOR = new Comparator<Flavor>() {
         @Override
         public int compare(Flavor o1, Flavor o2) {
@@ -291,6 +448,13 @@ public class Openstack {
         return running;
     }
 
+    /**
+     * All servers of the tenant, without details.
+     */
+    public @Nonnull List<Server> getAllServers() {
+        return new ArrayList<Server>(clientProvider.get().compute().servers().list(false));
+    }
+
     public List<String> getFreeFipIds() {
         ArrayList<String> free = new ArrayList<>();
         for (NetFloatingIP ip : clientProvider.get().networking().floatingip().list()) {
@@ -383,6 +547,167 @@ public class Openstack {
         throwIfFailed(res);
     }
 
+    /**
+     * Get names of the volumes.
+     *
+     * @return Volume names by id. Volumes not found or without a name are missing.
+     */
+    public @Nonnull Map<String, String> getVolumeNames(@Nonnull Collection<String> volumeIds) {
+        Map<String, String> ret = new HashMap<>();
+        BlockVolumeService volumes = clientProvider.get().blockStorage().volumes();
+        for (String id : volumeIds) {
+            Volume volume = volumes.get(id);
+            if (volume != null && Util.fixEmpty(volume.getName()) != null) {
+                ret.put(id, volume.getName());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get volumes with name starting with the prefix, regardless of their status.
+     */
+    public @Nonnull List<Volume> getVolumesByNamePrefix(@Nonnull String prefix) {
+        List<Volume> ret = new ArrayList<>();
+        for (Volume volume : clientProvider.get().blockStorage().volumes().list()) {
+            String name = volume.getName();
+            if (name != null && name.startsWith(prefix)) {
+                ret.add(volume);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Clone new volume from volume snapshot.
+     *
+     * @param zone Availability zone to create the volume in, null for the default one.
+     * @return Id of the volume. The volume is not usable until cloned, that is it becomes {@link Status#AVAILABLE}.
+     */
+    public @Nonnull String createVolumeFromSnapshot(
+            @Nonnull String snapshotId, @Nonnull String volumeName, @Nonnull String description, @CheckForNull String zone
+    ) throws ActionFailed {
+        debug("Cloning volume " + volumeName + " from snapshot " + snapshotId);
+        try {
+            VolumeSnapshot snapshot = clientProvider.get().blockStorage().snapshots().get(snapshotId);
+            if (snapshot == null) throw new ActionFailed("No such volume snapshot " + snapshotId);
+
+            VolumeBuilder builder = Builders.volume()
+                    .name(volumeName)
+                    .description(description)
+                    .snapshot(snapshotId)
+                    .size(snapshot.getSize())
+            ;
+            if (zone != null) {
+                builder.zone(zone);
+            }
+            Volume volume = clientProvider.get().blockStorage().volumes().create(builder.build());
+            if (volume == null) throw new ActionFailed("Failed to clone volume " + volumeName + " from snapshot " + snapshotId);
+            return volume.getId();
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Create new empty volume and wait until it can be attached.
+     *
+     * Volume that fails to become {@link Status#AVAILABLE} in time is deleted.
+     *
+     * @param zone Availability zone to create the volume in, null for the default one.
+     */
+    public @Nonnull Volume createVolumeAndWaitAvailable(
+            @Nonnull String volumeName, @Nonnegative int size, @Nonnull String description, @CheckForNull String zone,
+            @Nonnegative int timeout
+    ) throws ActionFailed {
+        debug("Creating volume " + volumeName + " of " + size + "GB");
+        BlockVolumeService volumes = clientProvider.get().blockStorage().volumes();
+        try {
+            VolumeBuilder builder = Builders.volume().name(volumeName).description(description).size(size);
+            if (zone != null) {
+                builder.zone(zone);
+            }
+            Volume created = volumes.create(builder.build());
+            if (created == null) throw new ActionFailed("Failed to create volume " + volumeName);
+
+            long deadline = System.currentTimeMillis() + timeout;
+            Volume volume = created;
+            while (volume != null && volume.getStatus() != Status.AVAILABLE) {
+                if (volume.getStatus() == Status.ERROR || System.currentTimeMillis() > deadline) break;
+                Thread.sleep(1000);
+                volume = volumes.get(created.getId());
+            }
+            if (volume != null && volume.getStatus() == Status.AVAILABLE) return volume;
+
+            ActionFailed err = new ActionFailed("Failed to create volume " + volumeName + " in time (" + timeout + "ms): " + volume);
+            try {
+                destroyVolume(created.getId());
+            } catch (Throwable ex) {
+                err.addSuppressed(ex);
+            }
+            throw err;
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ActionFailed("Interrupted while creating volume " + volumeName, ex);
+        }
+    }
+
+    /**
+     * Get volumes not attached to any server.
+     */
+    public @Nonnull List<Volume> getDetachedVolumes() {
+        List<Volume> ret = new ArrayList<>();
+        for (Volume volume : clientProvider.get().blockStorage().volumes().list()) {
+            if (volume.getStatus() == Status.AVAILABLE || volume.getStatus() == Status.ERROR) {
+                ret.add(volume);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get ports Nova created for known servers, or servers recently managed by this JVM, that no longer exist.
+     *
+     * @param servers All servers of the tenant.
+     * @param knownServers Ids of servers known to be managed by the plugin, including those already deleted.
+     */
+    public @Nonnull List<String> getLeakedPortIds(
+            @Nonnull Collection<? extends Server> servers, @Nonnull Collection<String> knownServers
+    ) {
+        Set<String> existing = new HashSet<>(servers.size());
+        for (Server server : servers) {
+            existing.add(server.getId());
+        }
+
+        List<String> ret = new ArrayList<>();
+        for (Port port : clientProvider.get().networking().port().list()) {
+            String owner = port.getDeviceOwner();
+            String serverId = port.getDeviceId();
+            if (owner == null || !owner.startsWith("compute:") || serverId == null || existing.contains(serverId)) continue;
+
+            if (knownServers.contains(serverId) || MANAGED_SERVERS.getIfPresent(serverId) != null) {
+                ret.add(port.getId());
+            }
+        }
+        return ret;
+    }
+
+    public void destroyPort(@Nonnull String id) throws ActionFailed {
+        debug("Deleting port " + id);
+        ActionResponse res = clientProvider.get().networking().port().delete(id);
+        if (res.getCode() == 404) return; // Deleted
+        throwIfFailed(res);
+    }
+
+    public void destroyVolume(@Nonnull String id) throws ActionFailed {
+        debug("Deleting volume " + id);
+        ActionResponse res = clientProvider.get().blockStorage().volumes().delete(id);
+        if (res.getCode() == 404) return; // Deleted
+        throwIfFailed(res);
+    }
+
     /**
      * Determine whether the server is considered occupied by openstack plugin.
      */
@@ -434,33 +759,12 @@ public class Openstack {
      * Provision machine and wait until ready.
      *
      * @throws ActionFailed Openstack failed to provision the slave or it was in erroneous state (server will be deleted in such case).
+     * @throws CapacityExhausted Openstack was not able to schedule the server due to the lack of capacity.
      */
     public @Nonnull Server bootAndWaitActive(@Nonnull ServerCreateBuilder request, @Nonnegative int timeout) throws ActionFailed {
         debug("Booting machine");
         try {
             Server server = _bootAndWaitActive(request, timeout);
-            if (server == null) {
-                // Server failed to become ACTIVE in time. Find in what state it is, then.
-                String name = request.build().getName();
-                List<? extends Server> servers = getServersByName(name);
-
-                String msg = "Failed to provision the " + name + " in time (" + timeout + "ms). Existing server(s): " + servers.toString();
-
-                ActionFailed err = new ActionFailed(msg);
-                try {
-                    // We do not have the id so can not be sure which one is ours
-                    int size = servers.size();
-                    if (size == 1) {
-                        // TODO async disposer
-                        destroyServer(servers.get(0));
-                    } else if (size > 1) {
-                        LOGGER.warning("Unable to destroy server " + name + " as there is " + size + " of them");
-                    }
-                } catch (Throwable ex) {
-                    err.addSuppressed(ex);
-                }
-                throw err;
-            }
             debug("Machine started: " + server.getName());
             throwIfFailed(server);
             return server;
@@ -469,10 +773,33 @@ public class Openstack {
         }
     }
 
+    /**
+     * Boot the server and wait for it to leave the BUILD state or timeout.
+     *
+     * @return The server in the last observed state. It is the caller's responsibility to verify it is ACTIVE.
+     */
     @Restricted(NoExternalUse.class) // Test hook
-    public Server _bootAndWaitActive(@Nonnull ServerCreateBuilder request, @Nonnegative int timeout) {
+    public @Nonnull Server _bootAndWaitActive(@Nonnull ServerCreateBuilder request, @Nonnegative int timeout) {
         request.addMetadataItem(FINGERPRINT_KEY, instanceFingerprint());
-        return clientProvider.get().compute().servers().bootAndWaitActive(request.build(), timeout);
+        ServerCreate create = request.build();
+        ServerService servers = clientProvider.get().compute().servers();
+
+        // Keep the id from the create response so the server can always be identified, even if the name is not unique
+        Server created = servers.boot(create);
+        MANAGED_SERVERS.put(created.getId(), true);
+        quotaFetched = 0; // Refresh, keeping the last known value
+        Server server = servers.waitForServerStatus(created.getId(), Server.Status.ACTIVE, timeout, TimeUnit.MILLISECONDS);
+        if (server != null) return server;
+
+        ActionFailed err = new ActionFailed(
+                "Failed to provision the " + create.getName() + " (" + created.getId() + ") in time (" + timeout + "ms), server not reported by Nova"
+        );
+        try {
+            destroyServer(created);
+        } catch (Throwable ex) {
+            err.addSuppressed(ex);
+        }
+        throw err;
     }
 
     /**
@@ -490,6 +817,7 @@ public class Openstack {
      */
     public void destroyServer(@Nonnull Server server) throws ActionFailed {
         String nodeId = server.getId();
+        MANAGED_SERVERS.put(nodeId, true);
 
         ComputeFloatingIPService fipsService = getComputeFloatingIPService();
         if (fipsService != null) {
@@ -515,6 +843,7 @@ public class Openstack {
         }
 
         ActionResponse res = servers.delete(nodeId);
+        quotaFetched = 0;
         if (res.getCode() == 404) {
             debug("Machine destroyed: " + nodeId);
             return; // Deleted
@@ -523,6 +852,62 @@ public class Openstack {
         throwIfFailed(res);
     }
 
+    /**
+     * Suspend or shelve the server so it can be resumed later.
+     *
+     * @param shelve Shelve the server releasing hypervisor resources, suspend it otherwise.
+     */
+    public void hibernateServer(@Nonnull String id, boolean shelve) throws ActionFailed {
+        debug((shelve ? "Shelving " : "Suspending ") + id);
+        ActionResponse res = clientProvider.get().compute().servers().action(id, shelve ? Action.SHELVE : Action.SUSPEND);
+        throwIfFailed(res);
+    }
+
+    /**
+     * Resume hibernated server and wait until it is active.
+     *
+     * Server that fails to resume is left for the caller to dispose.
+     *
+     * @param shelved The server was shelved rather than suspended.
+     */
+    public @Nonnull Server resumeAndWaitActive(@Nonnull String id, boolean shelved, @Nonnegative int timeout) throws ActionFailed {
+        debug((shelved ? "Unshelving " : "Resuming ") + id);
+        ServerService servers = clientProvider.get().compute().servers();
+        try {
+            throwIfFailed(servers.action(id, shelved ? Action.UNSHELVE : Action.RESUME));
+            quotaFetched = 0;
+            Server server = servers.waitForServerStatus(id, Server.Status.ACTIVE, timeout, TimeUnit.MILLISECONDS);
+            if (server == null || server.getStatus() != Server.Status.ACTIVE) {
+                throw new ActionFailed("Failed to resume server " + id + " in time (" + timeout + "ms): " + server);
+            }
+            return server;
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Rebuild the server from the image and wait until it is active again.
+     *
+     * The server keeps its id, name, ports and floating IP, only the disk is recreated.
+     * Server that fails to rebuild is left for the caller to dispose.
+     */
+    public @Nonnull Server rebuildAndWaitActive(@Nonnull String id, @Nonnull String imageId, @Nonnegative int timeout) throws ActionFailed {
+        debug("Rebuilding " + id + " from " + imageId);
+        ServerService servers = clientProvider.get().compute().servers();
+        try {
+            // Nova reports the server in REBUILD state once the request is accepted so it is safe to wait for ACTIVE right away
+            throwIfFailed(servers.rebuild(id, RebuildOptions.create().image(imageId)));
+            Server server = servers.waitForServerStatus(id, Server.Status.ACTIVE, timeout, TimeUnit.MILLISECONDS);
+            if (server == null || server.getStatus() != Server.Status.ACTIVE) {
+                throw new ActionFailed("Failed to rebuild server " + id + " in time (" + timeout + "ms): " + server);
+            }
+            return server;
+        } catch (ResponseException ex) {
+            throw new ActionFailed(ex.getMessage(), ex);
+        }
+    }
+
     /**
      * Assign floating ip address to the server.
      *
@@ -669,7 +1054,10 @@ public class Openstack {
         sb.append(" fault=").append(msg);
 
         // Destroy the server
-        ActionFailed ex = new ActionFailed(sb.toString());
+        ActionFailed ex = isCapacityFault(fault)
+                ? new CapacityExhausted(sb.toString())
+                : new ActionFailed(sb.toString())
+        ;
         try {
             // TODO async disposer
             destroyServer(server);
@@ -680,6 +1068,15 @@ public class Openstack {
         throw ex;
     }
 
+    /**
+     * Nova was not able to find a host to schedule the server on.
+     */
+    private static boolean isCapacityFault(@CheckForNull Fault fault) {
+        if (fault == null) return false;
+        String text = (fault.getMessage() + " " + fault.getDetails()).toLowerCase(Locale.ENGLISH);
+        return text.contains("no valid host") || text.contains("novalidhost");
+    }
+
     /**
      * Perform some tests before calling the connection successfully established.
      */
@@ -698,7 +1095,7 @@ public class Openstack {
         return null;
     }
 
-    public static final class ActionFailed extends RuntimeException {
+    public static class ActionFailed extends RuntimeException {
         private static final long serialVersionUID = -1657469882396520333L;
 
         public ActionFailed(String msg) {
@@ -710,6 +1107,17 @@ public class Openstack {
         }
     }
 
+    /**
+     * Server was not booted as there is no capacity for it, it might succeed with different placement or flavor.
+     */
+    public static final class CapacityExhausted extends ActionFailed {
+        private static final long serialVersionUID = 6398521420743513453L;
+
+        public CapacityExhausted(String msg) {
+            super(msg);
+        }
+    }
+
     private static void debug(@Nonnull String msg, @Nonnull String... args) {
         LOGGER.log(Level.FINE, msg, args);
     }
@@ -802,9 +1210,9 @@ public class Openstack {
          */
         public abstract @Nonnull OSClient<?> get();
 
-        private static ClientProvider get(OSClient<?> client) {
-            if (client instanceof OSClient.OSClientV2) return new SessionClientV2Provider((OSClient.OSClientV2) client);
-            if (client instanceof OSClient.OSClientV3) return new SessionClientV3Provider((OSClient.OSClientV3) client);
+        private static ClientProvider get(OSClient<?> client, Config config) {
+            if (client instanceof OSClient.OSClientV2) return new SessionClientV2Provider((OSClient.OSClientV2) client, config);
+            if (client instanceof OSClient.OSClientV3) return new SessionClientV3Provider((OSClient.OSClientV3) client, config);
 
             throw new AssertionError(
                     "Unsupported openstack4j client " + client.getClass().getName()
@@ -813,23 +1221,27 @@ public class Openstack {
 
         private static class SessionClientV2Provider extends ClientProvider {
             protected final Access storage;
-            private SessionClientV2Provider(OSClient.OSClientV2 toStore) {
+            private final Config config;
+            private SessionClientV2Provider(OSClient.OSClientV2 toStore, Config config) {
                 storage = toStore.getAccess();
+                this.config = config;
             }
 
             public @Nonnull OSClient<?> get() {
-                return OSFactory.clientFromAccess(storage);
+                return OSFactory.clientFromAccess(storage, config);
             }
         }
 
         private static class SessionClientV3Provider extends ClientProvider {
             private final Token storage;
-            private SessionClientV3Provider(OSClient.OSClientV3 toStore) {
+            private final Config config;
+            private SessionClientV3Provider(OSClient.OSClientV3 toStore, Config config) {
                 storage = toStore.getToken();
+                this.config = config;
             }
 
             public @Nonnull OSClient<?> get() {
-                return OSFactory.clientFromToken(storage);
+                return OSFactory.clientFromToken(storage, config);
             }
         }
     }
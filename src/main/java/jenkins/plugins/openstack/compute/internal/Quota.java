@@ -0,0 +1,118 @@
+package jenkins.plugins.openstack.compute.internal;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.openstack4j.model.compute.AbsoluteLimit;
+import org.openstack4j.model.compute.Flavor;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Remaining tenant quota.
+ *
+ * Limits not enforced by OpenStack are represented as {@link Integer#MAX_VALUE} and never decrease.
+ */
+@Restricted(NoExternalUse.class)
+@Immutable
+public final class Quota {
+    private static final int UNLIMITED_VALUE = Integer.MAX_VALUE;
+
+    /**
+     * Quota to use when the real one can not be determined.
+     */
+    public static final Quota UNLIMITED = new Quota(UNLIMITED_VALUE, UNLIMITED_VALUE, UNLIMITED_VALUE, UNLIMITED_VALUE);
+
+    private final int instances;
+    private final int cores;
+    private final int ram;
+    private final int floatingIps;
+
+    public Quota(int instances, int cores, int ram, int floatingIps) {
+        this.instances = instances;
+        this.cores = cores;
+        this.ram = ram;
+        this.floatingIps = floatingIps;
+    }
+
+    /*package*/ static @Nonnull Quota fromLimits(@Nonnull AbsoluteLimit limit) {
+        return new Quota(
+                remaining(limit.getMaxTotalInstances(), limit.getTotalInstancesUsed()),
+                remaining(limit.getMaxTotalCores(), limit.getTotalCoresUsed()),
+                remaining(limit.getMaxTotalRAMSize(), limit.getTotalRAMUsed()),
+                remaining(limit.getMaxTotalFloatingIps(), limit.getTotalFloatingIpsUsed())
+        );
+    }
+
+    private static int remaining(int max, int used) {
+        if (max < 0) return UNLIMITED_VALUE; // -1 stands for unlimited
+        return Math.max(0, max - used);
+    }
+
+    public boolean isUnlimited() {
+        return instances == UNLIMITED_VALUE && cores == UNLIMITED_VALUE && ram == UNLIMITED_VALUE && floatingIps == UNLIMITED_VALUE;
+    }
+
+    /**
+     * Account for one more server.
+     *
+     * @param flavor Flavor of the server, null if not known in which case only the instance count is considered.
+     * @param floatingIp The server is going to need floating IP.
+     * @return Quota remaining after the server is created or null in case it does not fit.
+     */
+    public @CheckForNull Quota allocate(@CheckForNull Flavor flavor, boolean floatingIp) {
+        return flavor == null
+                ? allocate(0, 0, floatingIp)
+                : allocate(flavor.getVcpus(), flavor.getRam(), floatingIp)
+        ;
+    }
+
+    /**
+     * Account for one more server.
+     *
+     * @param cores Cores the server is going to need.
+     * @param ram RAM in MB the server is going to need.
+     * @param floatingIp The server is going to need floating IP.
+     * @return Quota remaining after the server is created or null in case it does not fit.
+     */
+    public @CheckForNull Quota allocate(int cores, int ram, boolean floatingIp) {
+        if (instances < 1 || this.cores < cores || this.ram < ram || (floatingIp && floatingIps < 1)) return null;
+
+        return new Quota(
+                subtract(instances, 1),
+                subtract(this.cores, cores),
+                subtract(this.ram, ram),
+                floatingIp ? subtract(floatingIps, 1) : floatingIps
+        );
+    }
+
+    private static int subtract(int value, int amount) {
+        return value == UNLIMITED_VALUE ? value : value - amount;
+    }
+
+    public int getInstances() {
+        return instances;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getRam() {
+        return ram;
+    }
+
+    public int getFloatingIps() {
+        return floatingIps;
+    }
+
+    @Override
+    public String toString() {
+        return "Quota{instances=" + str(instances) + ", cores=" + str(cores) + ", ram=" + str(ram) + "MB, floatingIps=" + str(floatingIps) + "}";
+    }
+
+    private static String str(int value) {
+        return value == UNLIMITED_VALUE ? "unlimited" : String.valueOf(value);
+    }
+}
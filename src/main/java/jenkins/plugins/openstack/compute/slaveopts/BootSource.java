@@ -222,9 +222,16 @@ public abstract class BootSource extends AbstractDescribableImpl<BootSource> imp
         @Override
         public void setServerBootSource(@Nonnull ServerCreateBuilder builder, @Nonnull Openstack os)
                 throws JCloudsCloud.ProvisioningFailedException {
+            builder.image(resolveId(os));
+        }
+
+        /**
+         * Get id of the image to boot from.
+         */
+        @Restricted(NoExternalUse.class)
+        public @Nonnull String resolveId(@Nonnull Openstack os) {
             final List<String> matchingIds = getDescriptor().findMatchingIds(os, name);
-            final String id = selectIdFromListAndLogProblems(matchingIds, name, "Images");
-            builder.image(id);
+            return selectIdFromListAndLogProblems(matchingIds, name, "Images");
         }
 
         @Override
@@ -309,17 +316,40 @@ public abstract class BootSource extends AbstractDescribableImpl<BootSource> imp
 
         @Override
         public void setServerBootSource(@Nonnull ServerCreateBuilder builder, @Nonnull Openstack os) {
-            final List<String> matchingIds = getDescriptor().findMatchingIds(os, name);
-            final String id = selectIdFromListAndLogProblems(matchingIds, name, "VolumeSnapshots");
             final BlockDeviceMappingBuilder volumeBuilder = Builders.blockDeviceMapping()
                     .sourceType(BDMSourceType.SNAPSHOT)
                     .destinationType(BDMDestType.VOLUME)
-                    .uuid(id)
+                    .uuid(resolveId(os))
                     .deleteOnTermination(true)
                     .bootIndex(0);
             builder.blockDevice(volumeBuilder.build());
         }
 
+        /**
+         * Configure the server to boot from volume already cloned from this snapshot.
+         *
+         * @param volumeId Id of {@link org.openstack4j.model.storage.block.Volume.Status#AVAILABLE} volume.
+         */
+        @Restricted(NoExternalUse.class)
+        public void setServerBootVolume(@Nonnull ServerCreateBuilder builder, @Nonnull String volumeId) {
+            final BlockDeviceMappingBuilder volumeBuilder = Builders.blockDeviceMapping()
+                    .sourceType(BDMSourceType.VOLUME)
+                    .destinationType(BDMDestType.VOLUME)
+                    .uuid(volumeId)
+                    .deleteOnTermination(true)
+                    .bootIndex(0);
+            builder.blockDevice(volumeBuilder.build());
+        }
+
+        /**
+         * Get id of the volume snapshot to boot from.
+         */
+        @Restricted(NoExternalUse.class)
+        public @Nonnull String resolveId(@Nonnull Openstack os) {
+            final List<String> matchingIds = getDescriptor().findMatchingIds(os, name);
+            return selectIdFromListAndLogProblems(matchingIds, name, "VolumeSnapshots");
+        }
+
         @Override
         public void afterProvisioning(@Nonnull Server server, @Nonnull Openstack openstack) {
             /*
@@ -333,7 +363,12 @@ public abstract class BootSource extends AbstractDescribableImpl<BootSource> imp
             int i = 0;
             final String newVolumeDescription = "For " + instanceName + " (" + instanceId + "), from VolumeSnapshot "
                     + name + ".";
+            final Map<String, String> names = openstack.getVolumeNames(volumeIds);
             for (final String volumeId : volumeIds) {
+                // Leave volumes attached by other means, such as build caches, alone
+                final String volumeName = names.get(volumeId);
+                if (volumeName != null && !volumeName.startsWith(instanceName + '[')) continue;
+
                 final String newVolumeName = instanceName + '[' + (i++) + ']';
                 openstack.setVolumeNameAndDescription(volumeId, newVolumeName, newVolumeDescription);
             }
@@ -61,6 +61,7 @@ import jenkins.plugins.openstack.compute.JCloudsCloud;
 import jenkins.plugins.openstack.compute.JCloudsSlave;
 import jenkins.plugins.openstack.compute.JCloudsSlaveTemplate;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.internal.Quota;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -93,8 +94,8 @@ public final class PluginTestRule extends JenkinsRule {
             dummyUserData("dummyUserDataId");
         }
         return new SlaveOptions(
-                new BootSource.VolumeSnapshot("id"), "hw", "nw", "dummyUserDataId", 1, "pool", "sg", "az", 1, null, 10,
-                "jvmo", "fsRoot", LauncherFactory.JNLP.JNLP, 1
+                new BootSource.VolumeSnapshot("id"), "hw", null, "nw", "dummyUserDataId", 1, "pool", "sg", "az", null, 1, null, 10,
+                null, "jvmo", "fsRoot", LauncherFactory.JNLP.JNLP, 1, null, null
         );
     }
 
@@ -195,7 +196,7 @@ public final class PluginTestRule extends JenkinsRule {
      * Force idle slave cleanup now.
      */
     public void triggerOpenstackSlaveCleanup() {
-        jenkins.getExtensionList(AsyncPeriodicWork.class).get(JCloudsCleanupThread.class).execute(TaskListener.NULL);
+        jenkins.getExtensionList(AsyncPeriodicWork.class).get(JCloudsCleanupThread.class).cleanupAll();
         AsyncResourceDisposer disposer = AsyncResourceDisposer.get();
         while (disposer.isActivated()) {
             try {
@@ -221,6 +222,12 @@ public final class PluginTestRule extends JenkinsRule {
         return cloud;
     }
 
+    public JCloudsCloud dummyCloud(String name, JCloudsSlaveTemplate... templates) {
+        JCloudsCloud cloud = new MockJCloudsCloud(name, MockJCloudsCloud.DEFAULTS, templates);
+        jenkins.clouds.add(cloud);
+        return cloud;
+    }
+
     public JCloudsCloud dummyCloud(SlaveOptions opts, JCloudsSlaveTemplate... templates) {
         JCloudsCloud cloud = new MockJCloudsCloud(opts, templates);
         jenkins.clouds.add(cloud);
@@ -333,7 +340,9 @@ public final class PluginTestRule extends JenkinsRule {
     }
 
     public Openstack fakeOpenstackFactory() {
-        return fakeOpenstackFactory(mock(Openstack.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS).serializable()));
+        Openstack os = mock(Openstack.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS).serializable());
+        when(os.getQuota()).thenReturn(Quota.UNLIMITED);
+        return fakeOpenstackFactory(os);
     }
 
     @SuppressWarnings("deprecation")
@@ -482,7 +491,12 @@ public final class PluginTestRule extends JenkinsRule {
         }
 
         public MockJCloudsCloud(SlaveOptions opts, JCloudsSlaveTemplate... templates) {
-            super("openstack", "identity", "credential", "endPointUrl", "zone", opts, Arrays.asList(templates));
+            this("openstack", opts, templates);
+        }
+
+        public MockJCloudsCloud(String name, SlaveOptions opts, JCloudsSlaveTemplate... templates) {
+            super(name, "identity", "credential", "endPointUrl", "zone", opts, Arrays.asList(templates));
+            when(os.getQuota()).thenReturn(Quota.UNLIMITED);
         }
 
         @Override
@@ -0,0 +1,162 @@
+package jenkins.plugins.openstack.compute;
+
+import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.slaveopts.BootSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.openstack4j.model.compute.BDMSourceType;
+import org.openstack4j.model.compute.BlockDeviceMappingCreate;
+import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.openstack4j.model.storage.block.Volume;
+import org.openstack4j.openstack.compute.domain.NovaBlockDeviceMappingCreate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BootVolumePoolTest {
+
+    @Rule
+    public PluginTestRule j = new PluginTestRule();
+
+    @Test
+    public void fillPoolAndRotateStaleVolumes() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(pooledTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        template.setVolumePoolSize(3);
+        Openstack os = cloud.getOpenstack();
+        String prefix = BootVolumePool.prefix(cloud, template);
+        when(os.getVolumeSnapshotIdsFor("vs")).thenReturn(Collections.singletonList("vs-new"));
+        when(os.getVolumesByNamePrefix(BootVolumePool.PREFIX + "openstack-")).thenReturn(Arrays.asList(
+                volume(prefix + "1", "stale", "vs-old", Volume.Status.AVAILABLE),
+                volume(prefix + "2", "broken", "vs-new", Volume.Status.ERROR),
+                volume(prefix + "3", "ready", "vs-new", Volume.Status.AVAILABLE),
+                volume(prefix + "4", "cloning", "vs-new", Volume.Status.CREATING),
+                volume(prefix + "other", "other", "vs-old", Volume.Status.AVAILABLE)
+        ));
+
+        BootVolumePool.maintain(cloud);
+        verify(os).destroyVolume("stale");
+        verify(os).destroyVolume("broken");
+        verify(os, never()).destroyVolume("ready");
+        verify(os, never()).destroyVolume("cloning");
+        verify(os, never()).destroyVolume("other");
+        verify(os, times(1)).createVolumeFromSnapshot(eq("vs-new"), startsWith(prefix), anyString(), eq("az"));
+    }
+
+    @Test
+    public void spreadPoolAcrossAvailabilityZones() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(
+                j.defaultSlaveOptions().getBuilder().bootSource(new BootSource.VolumeSnapshot("vs")).availabilityZone("az1,az2").build(),
+                "label"
+        );
+        template.setVolumePoolSize(4);
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        String prefix = BootVolumePool.prefix(cloud, template);
+        when(os.getVolumeSnapshotIdsFor("vs")).thenReturn(Collections.singletonList("vs-id"));
+        Volume pooled = volume(prefix + "1", "pooled", "vs-id", Volume.Status.AVAILABLE);
+        when(pooled.getZone()).thenReturn("az1");
+        when(os.getVolumesByNamePrefix(BootVolumePool.PREFIX + "openstack-")).thenReturn(Collections.singletonList(pooled));
+
+        BootVolumePool.maintain(cloud);
+        verify(os, times(1)).createVolumeFromSnapshot(eq("vs-id"), startsWith(prefix), anyString(), eq("az1"));
+        verify(os, times(2)).createVolumeFromSnapshot(eq("vs-id"), startsWith(prefix), anyString(), eq("az2"));
+    }
+
+    @Test
+    public void deleteVolumesOfTemplatesWithoutPool() throws Exception {
+        JCloudsSlaveTemplate disabled = j.dummySlaveTemplate(
+                j.defaultSlaveOptions().getBuilder().bootSource(new BootSource.VolumeSnapshot("vs")).build(), "label"
+        );
+        JCloudsCloud cloud = j.dummyCloud(disabled);
+        JCloudsCloud other = j.dummyCloud("openstack-other", pooledTemplate());
+        Openstack os = cloud.getOpenstack();
+        String prefix = BootVolumePool.prefix(cloud, disabled);
+        String otherPrefix = BootVolumePool.prefix(other, other.getTemplates().get(0));
+        when(os.getVolumesByNamePrefix(BootVolumePool.PREFIX + "openstack-")).thenReturn(Arrays.asList(
+                volume(prefix + "1", "disabled", "vs-id", Volume.Status.AVAILABLE),
+                volume(BootVolumePool.PREFIX + "openstack-renamed-2", "renamed", "vs-id", Volume.Status.AVAILABLE),
+                volume(BootVolumePool.PREFIX + "openstack-creating-3", "creating", "vs-id", Volume.Status.CREATING),
+                volume(otherPrefix + "4", "other-cloud", "vs-id", Volume.Status.AVAILABLE)
+        ));
+
+        BootVolumePool.maintain(cloud);
+        verify(os).destroyVolume("disabled");
+        verify(os).destroyVolume("renamed");
+        verify(os, never()).destroyVolume("creating");
+        verify(os, never()).destroyVolume("other-cloud");
+        verify(os, never()).createVolumeFromSnapshot(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void bootFromPooledVolume() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(pooledTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = BootVolumePool.prefix(cloud, template);
+        when(os.getVolumeSnapshotIdsFor("vs")).thenReturn(Collections.singletonList("vs-new"));
+        when(os.getVolumesByNamePrefix(BootVolumePool.PREFIX + "openstack-")).thenReturn(Arrays.asList(
+                volume(prefix + "1", "stale", "vs-old", Volume.Status.AVAILABLE),
+                volume(prefix + "2", "cloning", "vs-new", Volume.Status.CREATING),
+                volume(prefix + "3", "ready", "vs-new", Volume.Status.AVAILABLE)
+        ));
+        BootVolumePool.maintain(cloud);
+
+        j.provision(cloud, "label");
+        verify(os).setVolumeNameAndDescription(eq("ready"), anyString(), anyString());
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        NovaBlockDeviceMappingCreate device = getBootDevice(captor.getValue());
+        assertEquals(BDMSourceType.VOLUME, device.source_type);
+        assertEquals("ready", device.uuid);
+
+        // Fall back to snapshot when the pool is drained
+        j.provision(cloud, "label");
+        verify(os, times(2)).bootAndWaitActive(captor.capture(), anyInt());
+        device = getBootDevice(captor.getValue());
+        assertEquals(BDMSourceType.SNAPSHOT, device.source_type);
+        assertEquals("vs-new", device.uuid);
+    }
+
+    private JCloudsSlaveTemplate pooledTemplate() {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(
+                j.defaultSlaveOptions().getBuilder().bootSource(new BootSource.VolumeSnapshot("vs")).build(), "label"
+        );
+        template.setVolumePoolSize(2);
+        return template;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NovaBlockDeviceMappingCreate getBootDevice(ServerCreateBuilder builder) {
+        List<BlockDeviceMappingCreate> mapping = (List<BlockDeviceMappingCreate>) Whitebox.getInternalState(
+                builder.build(),
+                "blockDeviceMapping"
+        );
+        assertEquals(1, mapping.size());
+        return (NovaBlockDeviceMappingCreate) mapping.get(0);
+    }
+
+    private static Volume volume(String name, String id, String snapshotId, Volume.Status status) {
+        Volume volume = mock(Volume.class);
+        when(volume.getName()).thenReturn(name);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getSnapshotId()).thenReturn(snapshotId);
+        when(volume.getStatus()).thenReturn(status);
+        return volume;
+    }
+}
@@ -0,0 +1,258 @@
+package jenkins.plugins.openstack.compute;
+
+import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.slaveopts.BootSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openstack4j.model.compute.BDMSourceType;
+import org.openstack4j.model.compute.BlockDeviceMappingCreate;
+import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.openstack4j.model.storage.block.Volume;
+import org.openstack4j.model.storage.block.VolumeAttachment;
+import org.openstack4j.openstack.compute.domain.NovaBlockDeviceMappingCreate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheVolumePoolTest {
+
+    @Rule
+    public PluginTestRule j = new PluginTestRule();
+
+    @Test
+    public void attachDetachedCacheVolume() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(cachedTemplate(j.defaultSlaveOptions())));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                volume(prefix + "1", "attached", Volume.Status.IN_USE),
+                volume(prefix + "other", "other", Volume.Status.AVAILABLE),
+                volume(prefix + "2", "detached", Volume.Status.AVAILABLE)
+        ));
+
+        j.provision(cloud, "label");
+        verify(os, never()).createVolumeAndWaitAvailable(anyString(), anyInt(), anyString(), anyString(), anyInt());
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        NovaBlockDeviceMappingCreate device = getDevice(captor.getValue());
+        assertEquals(BDMSourceType.VOLUME, device.source_type);
+        assertEquals("detached", device.uuid);
+        assertFalse("Returned to the pool on termination", device.delete_on_termination);
+        verify(os).setVolumeNameAndDescription(eq("detached"), eq(prefix + "2"), contains("Claimed by"));
+    }
+
+    @Test
+    public void doNotClaimVolumeClaimedOrAttached() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(cachedTemplate(j.defaultSlaveOptions())));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        long future = System.currentTimeMillis() + 60000;
+        // State survives restart as it is read from the volumes
+        Volume claimed = volume(prefix + "1", "claimed", Volume.Status.AVAILABLE);
+        when(claimed.getDescription()).thenReturn("Build cache of x/y. Claimed by other until " + future + ".");
+        Volume attached = volume(prefix + "2", "attached", Volume.Status.AVAILABLE);
+        doReturn(Collections.singletonList(mock(VolumeAttachment.class))).when(attached).getAttachments();
+        Volume expired = volume(prefix + "3", "expired", Volume.Status.AVAILABLE);
+        when(expired.getDescription()).thenReturn("Build cache of x/y. Claimed by other until 42.");
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(claimed, attached, expired));
+
+        j.provision(cloud, "label");
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        assertEquals("expired", getDevice(captor.getValue()).uuid);
+    }
+
+    @Test
+    public void bootWithoutCacheVolumeWhenAllAreInUse() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(cachedTemplate(j.defaultSlaveOptions())));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                volume(prefix + "1", "attached-1", Volume.Status.IN_USE),
+                volume(prefix + "2", "attached-2", Volume.Status.IN_USE)
+        ));
+
+        int max = CacheVolumePool.MAX_VOLUMES;
+        CacheVolumePool.MAX_VOLUMES = 2;
+        try {
+            j.provision(cloud, "label");
+        } finally {
+            CacheVolumePool.MAX_VOLUMES = max;
+        }
+        verify(os, never()).createVolumeAndWaitAvailable(anyString(), anyInt(), anyString(), anyString(), anyInt());
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        List<?> mapping = (List<?>) Whitebox.getInternalState(captor.getValue().build(), "blockDeviceMapping");
+        assertTrue(mapping == null || mapping.isEmpty());
+    }
+
+    @Test
+    public void deleteVolumesOfTemplatesWithoutCacheAndOverLimit() throws Exception {
+        JCloudsSlaveTemplate cached = cachedTemplate(j.defaultSlaveOptions());
+        JCloudsCloud cloud = j.dummyCloud(cached);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, cached);
+        Volume inUse = volume(CacheVolumePool.PREFIX + "openstack-gone-2", "gone-in-use", Volume.Status.IN_USE);
+        when(os.getVolumesByNamePrefix(CacheVolumePool.PREFIX + "openstack-")).thenReturn(Arrays.asList(
+                volume(CacheVolumePool.PREFIX + "openstack-gone-1", "gone", Volume.Status.AVAILABLE),
+                inUse,
+                volume(prefix + "1", "cached", Volume.Status.AVAILABLE)
+        ));
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                volume(prefix + "3", "newest", Volume.Status.AVAILABLE),
+                volume(prefix + "1", "oldest", Volume.Status.AVAILABLE),
+                volume(prefix + "2", "older", Volume.Status.IN_USE)
+        ));
+
+        int max = CacheVolumePool.MAX_VOLUMES;
+        CacheVolumePool.MAX_VOLUMES = 1;
+        try {
+            CacheVolumePool.maintain(cloud);
+        } finally {
+            CacheVolumePool.MAX_VOLUMES = max;
+        }
+        verify(os).destroyVolume("gone");
+        verify(os, never()).destroyVolume("gone-in-use");
+        verify(os, never()).destroyVolume("cached");
+        verify(os).destroyVolume("oldest");
+        verify(os, never()).destroyVolume("older");
+        verify(os, never()).destroyVolume("newest");
+    }
+
+    @Test
+    public void createCacheVolumeWhenAllInUse() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(cachedTemplate(j.defaultSlaveOptions())));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                volume(prefix + "1", "attached", Volume.Status.IN_USE)
+        ));
+        Volume created = volume(prefix + "2", "created-volume-id-that-is-long", Volume.Status.AVAILABLE);
+        when(os.createVolumeAndWaitAvailable(startsWith(prefix), eq(42), anyString(), anyString(), anyInt())).thenReturn(created);
+
+        j.provision(cloud, "label");
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        assertEquals("created-volume-id-that-is-long", getDevice(captor.getValue()).uuid);
+        assertEquals("/dev/disk/by-id/virtio-created-volume-id-th", CacheVolumePool.devicePath(created.getId()));
+    }
+
+    @Test
+    public void claimCacheVolumeForEveryAvailabilityZoneAttempt() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder()
+                .availabilityZone("az1, az2").availabilityZonePolicy("FILL_FIRST")
+                .build()
+        ;
+        JCloudsSlaveTemplate template = cachedTemplate(opts);
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        // Nova reports the volume of deleted server available before it is detached
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                volume(prefix + "1", "cache-1", Volume.Status.AVAILABLE),
+                volume(prefix + "2", "cache-2", Volume.Status.AVAILABLE)
+        ));
+
+        final Server server = j.mockServer().name("provisioned").get();
+        final List<String> devices = new ArrayList<>();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                ServerCreateBuilder builder = (ServerCreateBuilder) invocation.getArguments()[0];
+                String az = (String) Whitebox.getInternalState(builder.build(), "availabilityZone");
+                devices.add(az + ":" + getDevice(builder).uuid);
+                if ("az1".equals(az)) throw new Openstack.CapacityExhausted("No valid host was found");
+                return server;
+            }
+        }).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doReturn(server).when(os).updateInfo(server);
+
+        assertEquals(server, template.provision(cloud));
+        assertEquals(Arrays.asList("az1:cache-1", "az2:cache-2"), devices);
+
+        // Volume of other zone can not be attached, new one is created in the zone of the attempt
+        Volume az1 = volume(prefix + "1", "cache-az1", Volume.Status.AVAILABLE);
+        when(az1.getZone()).thenReturn("az1");
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Collections.singletonList(az1));
+        Volume created = volume(prefix + "3", "cache-created", Volume.Status.AVAILABLE);
+        when(os.createVolumeAndWaitAvailable(startsWith(prefix), eq(42), anyString(), eq("az2"), anyInt())).thenReturn(created);
+        devices.clear();
+
+        assertEquals(server, template.provision(cloud));
+        assertEquals(Arrays.asList("az1:cache-az1", "az2:cache-created"), devices);
+    }
+
+    @Test
+    public void keepCacheVolumeNameWhenBootingFromVolumeSnapshot() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().bootSource(new BootSource.VolumeSnapshot("vs")).build();
+        JCloudsSlaveTemplate template = cachedTemplate(opts);
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        when(os.getVolumeSnapshotIdsFor("vs")).thenReturn(Collections.singletonList("vs-id"));
+        String prefix = CacheVolumePool.prefix(cloud, template);
+        when(os.getVolumesByNamePrefix(prefix)).thenReturn(Collections.singletonList(
+                volume(prefix + "1", "cache", Volume.Status.AVAILABLE)
+        ));
+
+        Server server = j.mockServer().name("provisioned").get();
+        when(server.getOsExtendedVolumesAttached()).thenReturn(Arrays.asList("boot", "cache"));
+        when(os.getVolumeNames(Arrays.asList("boot", "cache"))).thenReturn(Collections.singletonMap("cache", prefix + "1"));
+        doReturn(server).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doReturn(server).when(os).updateInfo(server);
+
+        template.provision(cloud);
+        verify(os).setVolumeNameAndDescription(eq("boot"), eq("provisioned[0]"), anyString());
+        verify(os, never()).setVolumeNameAndDescription(eq("cache"), anyString(), anyString());
+    }
+
+    private JCloudsSlaveTemplate cachedTemplate(SlaveOptions opts) {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        template.setCacheVolumeSize(42);
+        return template;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NovaBlockDeviceMappingCreate getDevice(ServerCreateBuilder builder) {
+        List<BlockDeviceMappingCreate> mapping = (List<BlockDeviceMappingCreate>) Whitebox.getInternalState(
+                builder.build(),
+                "blockDeviceMapping"
+        );
+        assertEquals(1, mapping.size());
+        return (NovaBlockDeviceMappingCreate) mapping.get(0);
+    }
+
+    private static Volume volume(String name, String id, Volume.Status status) {
+        Volume volume = mock(Volume.class);
+        when(volume.getName()).thenReturn(name);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getStatus()).thenReturn(status);
+        return volume;
+    }
+}
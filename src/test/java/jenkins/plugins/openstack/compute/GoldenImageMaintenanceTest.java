@@ -0,0 +1,177 @@
+package jenkins.plugins.openstack.compute;
+
+import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.openstack4j.model.image.Image;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GoldenImageMaintenanceTest {
+
+    @Rule
+    public PluginTestRule j = new PluginTestRule();
+
+    private long warmUpTime;
+
+    @Before
+    public void warmUpImmediately() {
+        warmUpTime = GoldenImageMaintenance.WARM_UP_TIME;
+        GoldenImageMaintenance.WARM_UP_TIME = 0;
+    }
+
+    @After
+    public void resetWarmUp() {
+        GoldenImageMaintenance.WARM_UP_TIME = warmUpTime;
+    }
+
+    @Test
+    public void snapshotIdleAgent() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(goldenTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = GoldenImageMaintenance.prefix(cloud, template);
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Collections.<Image>emptyList());
+        when(os.createSnapshot(anyString(), anyString())).thenReturn("golden-id");
+
+        JCloudsSlave slave = j.provision(cloud, "label");
+        final JCloudsComputer computer = (JCloudsComputer) slave.toComputer();
+        computer.waitUntilOnline();
+
+        // Agent stays offline until the image is uploaded
+        when(os.waitForImageActive(eq("golden-id"), anyInt())).thenAnswer(new Answer<Image>() {
+            @Override public Image answer(InvocationOnMock invocation) throws Throwable {
+                assertTrue(computer.isTemporarilyOffline());
+                return image("golden", "golden-id", Image.Status.ACTIVE);
+            }
+        });
+
+        GoldenImageMaintenance.maintain(cloud, template);
+        verify(os).createSnapshot(eq(slave.getServerId()), startsWith(prefix));
+        verify(os).waitForImageActive(eq("golden-id"), anyInt());
+        assertFalse(computer.isTemporarilyOffline());
+
+        // Not repeated until the interval elapses
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Collections.singletonList(
+                image(prefix + System.currentTimeMillis(), "golden-id", Image.Status.SAVING)
+        ));
+        GoldenImageMaintenance.maintain(cloud, template);
+        verify(os, times(1)).createSnapshot(anyString(), anyString());
+    }
+
+    @Test
+    public void doNotSnapshotAgentThatIsNotWarmedUp() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(goldenTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = GoldenImageMaintenance.prefix(cloud, template);
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Collections.<Image>emptyList());
+
+        JCloudsSlave slave = j.provision(cloud, "label");
+        ((JCloudsComputer) slave.toComputer()).waitUntilOnline();
+
+        GoldenImageMaintenance.WARM_UP_TIME = TimeUnit.HOURS.toMillis(1);
+        GoldenImageMaintenance.maintain(cloud, template);
+        verify(os, never()).createSnapshot(anyString(), anyString());
+    }
+
+    @Test
+    public void bootNewestGoldenImageAndDeleteOutdated() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(goldenTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = GoldenImageMaintenance.prefix(cloud, template);
+        long now = System.currentTimeMillis();
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                image(prefix + (now - 3000), "id1", Image.Status.ACTIVE),
+                image(prefix + (now - 1000), "id3", Image.Status.ACTIVE),
+                image(prefix + (now - 2000), "id2", Image.Status.ACTIVE),
+                image(prefix + now, "id4", Image.Status.SAVING),
+                image(prefix + "other", "other", Image.Status.ACTIVE)
+        ));
+
+        GoldenImageMaintenance.maintain(cloud, template);
+        verify(os).destroyImage("id1");
+        verify(os, never()).destroyImage("id2");
+        verify(os, never()).destroyImage("id3");
+        verify(os, never()).destroyImage("id4");
+        verify(os, never()).destroyImage("other");
+        verify(os, never()).createSnapshot(anyString(), anyString());
+
+        j.provision(cloud, "label");
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+        assertEquals("id3", captor.getValue().build().getImageRef());
+    }
+
+    @Test
+    public void retryFailedSnapshot() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(goldenTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = GoldenImageMaintenance.prefix(cloud, template);
+        long now = System.currentTimeMillis();
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Arrays.asList(
+                image(prefix + (now - TimeUnit.HOURS.toMillis(2)), "outdated", Image.Status.ACTIVE),
+                image(prefix + now, "failed", Image.Status.KILLED)
+        ));
+
+        JCloudsSlave slave = j.provision(cloud, "label");
+        ((JCloudsComputer) slave.toComputer()).waitUntilOnline();
+
+        GoldenImageMaintenance.maintain(cloud, template);
+        verify(os).createSnapshot(eq(slave.getServerId()), startsWith(prefix));
+    }
+
+    @Test
+    public void rebuildFromGoldenImage() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(goldenTemplate()));
+        JCloudsSlaveTemplate template = cloud.getTemplates().get(0);
+        Openstack os = cloud.getOpenstack();
+        String prefix = GoldenImageMaintenance.prefix(cloud, template);
+        when(os.getImagesByNamePrefix(prefix)).thenReturn(Collections.singletonList(
+                image(prefix + System.currentTimeMillis(), "golden-id", Image.Status.ACTIVE)
+        ));
+        GoldenImageMaintenance.maintain(cloud, template);
+
+        JCloudsSlave slave = j.provision(cloud, "label");
+        slave.rebuild();
+        verify(os).rebuildAndWaitActive(eq(slave.getServerId()), eq("golden-id"), anyInt());
+    }
+
+    private JCloudsSlaveTemplate goldenTemplate() {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(j.defaultSlaveOptions(), "label");
+        template.setGoldenImageInterval(60);
+        return template;
+    }
+
+    private static Image image(String name, String id, Image.Status status) {
+        Image image = mock(Image.class);
+        when(image.getName()).thenReturn(name);
+        when(image.getId()).thenReturn(id);
+        when(image.getStatus()).thenReturn(status);
+        return image;
+    }
+}
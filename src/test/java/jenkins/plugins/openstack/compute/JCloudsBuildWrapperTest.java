@@ -9,11 +9,13 @@ import hudson.model.Result;
 import hudson.model.TaskListener;
 import jenkins.plugins.openstack.PluginTestRule;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.internal.Quota;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.TestBuilder;
+import org.openstack4j.model.compute.Flavor;
 import org.openstack4j.model.compute.Server;
 import org.openstack4j.model.compute.builder.ServerCreateBuilder;
 
@@ -67,6 +69,28 @@ public class JCloudsBuildWrapperTest {
         verify(os, times(3)).destroyServer(any(Server.class));
     }
 
+    @Test
+    public void failFastWhenQuotaIsNotSufficient() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(j.defaultSlaveOptions(), "label");
+        JCloudsCloud cloud = j.configureSlaveProvisioning(j.dummyCloud(template));
+        Openstack os = cloud.getOpenstack();
+        Flavor flavor = mock(Flavor.class);
+        when(flavor.getVcpus()).thenReturn(2);
+        when(flavor.getRam()).thenReturn(2048);
+        when(os.getFlavor("dummyHardwareId")).thenReturn(flavor);
+        when(os.getQuota()).thenReturn(new Quota(10, 5, 100000, 10));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildWrappersList().add(new JCloudsBuildWrapper(Collections.singletonList(
+                new InstancesToRun(cloud.name, template.name, null, 3)
+        )));
+
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        j.assertLogContains("does not permit 1 instance(s) of " + template.name, build);
+
+        verify(os, never()).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+    }
+
     @Test @Issue("https://github.com/jenkinsci/openstack-cloud-plugin/issues/31")
     public void failToProvisionWhenOpenstackFails() throws Exception {
         SlaveOptions opts = j.defaultSlaveOptions().getBuilder().floatingIpPool("custom").build();
@@ -2,13 +2,17 @@ package jenkins.plugins.openstack.compute;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.FreeStyleBuild;
@@ -16,6 +20,7 @@ import hudson.model.FreeStyleProject;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Result;
+import hudson.model.TaskListener;
 import hudson.node_monitors.DiskSpaceMonitorDescriptor;
 import hudson.util.OneShotEvent;
 import jenkins.model.InterruptedBuildAction;
@@ -28,11 +33,22 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.TestBuilder;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openstack4j.api.exceptions.ResponseException;
 import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.storage.block.Volume;
 
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author ogondza.
@@ -112,14 +128,235 @@ public class JCloudsCleanupThreadTest {
         Openstack os = cloud.getOpenstack();
         when(os.getFreeFipIds()).thenReturn(Arrays.asList("busy1", "leaked")).thenReturn(Arrays.asList("leaked", "busy2"));
 
-        j.triggerOpenstackSlaveCleanup();
-        j.triggerOpenstackSlaveCleanup();
+        long threshold = LeakDetector.THRESHOLD;
+        LeakDetector.THRESHOLD = 50;
+        try {
+            j.triggerOpenstackSlaveCleanup();
+            Thread.sleep(100);
+            j.triggerOpenstackSlaveCleanup();
+        } finally {
+            LeakDetector.THRESHOLD = threshold;
+        }
 
         verify(os).destroyFip("leaked");
         verify(os, never()).destroyFip("busy1");
         verify(os, never()).destroyFip("busy2");
     }
 
+    @Test
+    public void leakCandidatesSurviveRestart() throws Exception {
+        JCloudsCloud cloud = j.dummyCloud();
+        Server server = j.mockServer().name("deleted").get();
+        when(cloud.getOpenstack().getRunningNodes()).thenReturn(Collections.singletonList(server));
+        when(cloud.getOpenstack().getFreeFipIds()).thenReturn(Arrays.asList("leaked"));
+        j.triggerOpenstackSlaveCleanup();
+
+        Thread.sleep(100);
+        long threshold = LeakDetector.THRESHOLD;
+        LeakDetector.THRESHOLD = 50;
+        try {
+            LeakDetector loaded = LeakDetector.load();
+            assertEquals(Arrays.asList("leaked"), loaded.confirm("fip", cloud.name, Arrays.asList("leaked", "new")));
+            // Ports of servers deleted before restart can still be attributed
+            assertTrue(loaded.recordServers(cloud.name, Collections.<String>emptyList()).contains(server.getId()));
+        } finally {
+            LeakDetector.THRESHOLD = threshold;
+        }
+    }
+
+    @Test
+    public void deleteLeakedVolumesAndPorts() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate("label");
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        String gone = template.name + "-gone";
+        String live = template.name + "-live";
+
+        Server server = mock(Server.class);
+        when(server.getName()).thenReturn(live);
+        when(os.getAllServers()).thenReturn(Collections.singletonList(server));
+        when(os.getDetachedVolumes()).thenReturn(Arrays.asList(
+                volume("leaked", gone + "[0]", "For " + gone + " (42), from VolumeSnapshot snap."),
+                volume("claimed", gone + "[0]", "Claimed by " + gone + "."),
+                volume("detaching", live + "[0]", "For " + live + " (43), from VolumeSnapshot snap."),
+                volume("pooled", BootVolumePool.PREFIX + "openstack-" + template.name + "-1", "For " + gone + " (42), from VolumeSnapshot snap."),
+                volume("foreign", "other-gone[0]", "For other-gone (44), from VolumeSnapshot snap.")
+        ));
+        when(os.getLeakedPortIds(anyCollectionOf(Server.class), anyCollectionOf(String.class))).thenReturn(Arrays.asList("leaked-port", "new-port"));
+
+        long threshold = LeakDetector.THRESHOLD;
+        LeakDetector.THRESHOLD = 50;
+        try {
+            j.triggerOpenstackSlaveCleanup();
+            verify(os, never()).destroyVolume(anyString());
+            verify(os, never()).destroyPort(anyString());
+
+            Thread.sleep(100);
+            when(os.getLeakedPortIds(anyCollectionOf(Server.class), anyCollectionOf(String.class))).thenReturn(Arrays.asList("leaked-port", "other-port"));
+            j.triggerOpenstackSlaveCleanup();
+        } finally {
+            LeakDetector.THRESHOLD = threshold;
+        }
+        verify(os).destroyVolume("leaked");
+        verify(os).destroyVolume("claimed");
+        verify(os).destroyPort("leaked-port");
+        verify(os, times(2)).destroyVolume(anyString());
+        verify(os, times(1)).destroyPort(anyString());
+    }
+
+    @Test
+    public void keepLeakCandidatesWhenListingFails() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate("label");
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        String gone = template.name + "-gone";
+        List<Volume> volumes = Collections.singletonList(volume("leaked", gone + "[0]", "Claimed by " + gone + "."));
+        List<String> ports = Collections.singletonList("leaked-port");
+        ResponseException failure = new ResponseException("Service Unavailable", 503);
+        when(os.getDetachedVolumes()).thenReturn(volumes).thenThrow(failure).thenReturn(volumes);
+        when(os.getLeakedPortIds(anyCollectionOf(Server.class), anyCollectionOf(String.class)))
+                .thenReturn(ports).thenThrow(failure).thenReturn(ports)
+        ;
+
+        long threshold = LeakDetector.THRESHOLD;
+        LeakDetector.THRESHOLD = 50;
+        try {
+            j.triggerOpenstackSlaveCleanup();
+            Thread.sleep(100);
+            j.triggerOpenstackSlaveCleanup();
+            verify(os, never()).destroyVolume(anyString());
+            verify(os, never()).destroyPort(anyString());
+
+            j.triggerOpenstackSlaveCleanup();
+        } finally {
+            LeakDetector.THRESHOLD = threshold;
+        }
+        verify(os).destroyVolume("leaked");
+        verify(os).destroyPort("leaked-port");
+    }
+
+    private static Volume volume(String id, String name, String description) {
+        Volume volume = mock(Volume.class);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getName()).thenReturn(name);
+        when(volume.getDescription()).thenReturn(description);
+        return volume;
+    }
+
+    @Test
+    public void hungCloudDoesNotBlockOtherClouds() throws Exception {
+        JCloudsCloud hung = j.dummyCloud("hung");
+        JCloudsCloud healthy = j.dummyCloud("healthy");
+        final ServerSocket endpoint = new ServerSocket(0);
+        final AtomicInteger calls = new AtomicInteger();
+        when(hung.getOpenstack().getRunningNodes()).thenAnswer(new Answer<List<Server>>() {
+            @Override public List<Server> answer(InvocationOnMock invocation) throws Throwable {
+                calls.incrementAndGet();
+                // Reading from endpoint that never responds is not interruptible
+                try (Socket socket = new Socket("localhost", endpoint.getLocalPort())) {
+                    socket.getInputStream().read();
+                } catch (IOException ex) {
+                    // Connection closed
+                }
+                return Collections.emptyList();
+            }
+        });
+
+        long timeout = JCloudsCleanupThread.CLOUD_TIMEOUT;
+        JCloudsCleanupThread.CLOUD_TIMEOUT = 1000;
+        try {
+            long start = System.currentTimeMillis();
+            j.triggerOpenstackSlaveCleanup();
+            assertThat(System.currentTimeMillis() - start, Matchers.lessThan(10000L));
+            verify(healthy.getOpenstack()).getFreeFipIds();
+            verify(hung.getOpenstack(), never()).getFreeFipIds();
+
+            // Cancelled pass still occupies the thread so the cloud is skipped until it completes
+            j.triggerOpenstackSlaveCleanup();
+            verify(healthy.getOpenstack(), times(2)).getFreeFipIds();
+            assertEquals(1, calls.get());
+
+            endpoint.close();
+            for (int i = 0; i < 100 && calls.get() < 2; i++) {
+                Thread.sleep(100);
+                j.triggerOpenstackSlaveCleanup();
+            }
+            assertEquals(2, calls.get());
+        } finally {
+            JCloudsCleanupThread.CLOUD_TIMEOUT = timeout;
+            endpoint.close();
+        }
+    }
+
+    @Test
+    public void adaptCleanupPeriodToCloudActivity() throws Exception {
+        JCloudsCloud cloud = j.dummyCloud(j.dummySlaveTemplate("label"));
+        Openstack os = cloud.getOpenstack();
+        JCloudsCleanupThread cleanup = j.jenkins.getExtensionList(AsyncPeriodicWork.class).get(JCloudsCleanupThread.class);
+
+        when(os.getFreeFipIds()).thenReturn(Collections.singletonList("fip"));
+        cleanup.execute(TaskListener.NULL);
+        cleanup.execute(TaskListener.NULL);
+        verify(os, times(1)).getRunningNodes(); // Not due yet
+
+        long threshold = LeakDetector.THRESHOLD;
+        LeakDetector.THRESHOLD = 0;
+        try {
+            cleanup.cleanupAll();
+        } finally {
+            LeakDetector.THRESHOLD = threshold;
+        }
+        verify(os).destroyFip("fip");
+        assertEquals(AsyncPeriodicWork.MIN * 10, getInterval(cleanup, cloud));
+
+        // Free FIP not confirmed leaked yet is not a reason to clean often
+        when(os.getFreeFipIds()).thenReturn(Collections.singletonList("reserved"));
+        cleanup.cleanupAll();
+        cleanup.cleanupAll();
+        assertEquals(AsyncPeriodicWork.MIN * 30, getInterval(cleanup, cloud));
+
+        // Run recently but not long enough for stable cloud
+        Object schedule = getSchedule(cleanup, cloud);
+        Whitebox.setInternalState(schedule, "lastStarted", System.currentTimeMillis() - AsyncPeriodicWork.MIN * 10);
+        cleanup.execute(TaskListener.NULL);
+        verify(os, times(4)).getRunningNodes();
+
+        cloud.getTemplates().get(0).getProvisioningBackoff().recordFailure(new Exception("Failed"));
+        cleanup.execute(TaskListener.NULL);
+        verify(os, times(5)).getRunningNodes();
+    }
+
+    @Test
+    public void boundCleanupPeriodPerCloud() throws Exception {
+        JCloudsCloud cloud = j.dummyCloud(j.dummySlaveTemplate("label"));
+        cloud.setCleanupMinPeriod(2);
+        cloud.setCleanupMaxPeriod(5);
+        Openstack os = cloud.getOpenstack();
+        JCloudsCleanupThread cleanup = j.jenkins.getExtensionList(AsyncPeriodicWork.class).get(JCloudsCleanupThread.class);
+
+        cleanup.cleanupAll();
+        assertEquals(AsyncPeriodicWork.MIN * 4, getInterval(cleanup, cloud));
+        cleanup.cleanupAll();
+        assertEquals(AsyncPeriodicWork.MIN * 5, getInterval(cleanup, cloud));
+
+        // Due after the minimal period under pressure
+        Object schedule = getSchedule(cleanup, cloud);
+        Whitebox.setInternalState(schedule, "lastStarted", System.currentTimeMillis() - AsyncPeriodicWork.MIN * 2);
+        cleanup.execute(TaskListener.NULL);
+        verify(os, times(2)).getRunningNodes();
+        cloud.getTemplates().get(0).getProvisioningBackoff().recordFailure(new Exception("Failed"));
+        cleanup.execute(TaskListener.NULL);
+        verify(os, times(3)).getRunningNodes();
+    }
+
+    private static Object getSchedule(JCloudsCleanupThread cleanup, JCloudsCloud cloud) {
+        return ((Map<?, ?>) Whitebox.getInternalState(cleanup, "schedules")).get(cloud.name);
+    }
+
+    private static long getInterval(JCloudsCleanupThread cleanup, JCloudsCloud cloud) {
+        return (Long) Whitebox.getInternalState(getSchedule(cleanup, cloud), "interval");
+    }
+
     @Test
     public void terminateNodeWithoutServer() throws Exception {
         JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
@@ -144,6 +381,29 @@ public class JCloudsCleanupThreadTest {
         );
     }
 
+    @Test
+    public void reportServersWithoutNode() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
+        JCloudsSlave slave = j.provision(cloud, "label");
+        Openstack os = cloud.getOpenstack();
+        Server own = os.getServerById(slave.getServerId());
+        Server orphan = j.mockServer().name("orphan")
+                .metadataItem(ServerScope.METADATA_KEY, new ServerScope.Node("orphan").getValue())
+                .get()
+        ;
+        when(orphan.getCreated()).thenReturn(new Date());
+        when(os.getRunningNodes()).thenReturn(Arrays.asList(own, orphan));
+
+        j.triggerOpenstackSlaveCleanup();
+
+        JCloudsCleanupThread.Report report = cloud.getCleanupReport();
+        assertEquals(2, report.getServers());
+        assertEquals(Collections.singletonList("orphan"), report.getServersWithoutNode());
+        assertEquals(Collections.<String>emptyList(), report.getNodesWithoutServer());
+        assertNotNull(j.jenkins.getNode(slave.getNodeName()));
+        verify(os, never()).destroyServer(orphan);
+    }
+
     @Test @Issue("jenkinsci/openstack-cloud-plugin#149")
     public void doNotTerminateNodeThatIsBeingProvisioned() throws Exception {
         // Simulate node stuck launching
@@ -7,6 +7,7 @@ import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -38,6 +39,8 @@ import jenkins.plugins.openstack.compute.slaveopts.LauncherFactory;
 import org.acegisecurity.AccessDeniedException;
 import org.acegisecurity.acls.sid.Sid;
 import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.cloudstats.CloudStatistics;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
@@ -56,14 +59,18 @@ import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.recipes.LocalData;
 import org.kohsuke.stapler.Stapler;
+import org.mockito.internal.util.reflection.Whitebox;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.openstack4j.api.OSClient;
 import org.openstack4j.openstack.compute.domain.NovaServer;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 public class JCloudsCloudTest {
@@ -142,10 +149,10 @@ public class JCloudsCloudTest {
         SlaveOptions DEF = DescriptorImpl.getDefaultOptions();
 
         JCloudsSlaveTemplate template = new JCloudsSlaveTemplate("template", "label", new SlaveOptions(
-                new BootSource.Image("iid"), "hw", "nw", "ud", 1, "public", "sg", "az", 2, "kp", 3, "jvmo", "fsRoot", LauncherFactory.JNLP.JNLP, 4
+                new BootSource.Image("iid"), "hw", null, "nw", "ud", 1, "public", "sg", "az", null, 2, "kp", 3, null, "jvmo", "fsRoot", LauncherFactory.JNLP.JNLP, 4, null, null
         ));
         JCloudsCloud cloud = new JCloudsCloud("openstack", "identity", "credential", "endPointUrl", "zone", new SlaveOptions(
-                new BootSource.VolumeSnapshot("vsid"), "HW", "NW", "UD", 6, null, "SG", "AZ", 7, "KP", 8, "JVMO", "FSrOOT", new LauncherFactory.SSH("cid"), 9
+                new BootSource.VolumeSnapshot("vsid"), "HW", null, "NW", "UD", 6, null, "SG", "AZ", null, 7, "KP", 8, null, "JVMO", "FSrOOT", new LauncherFactory.SSH("cid"), 9, null, null
         ), Collections.singletonList(template));
         j.jenkins.clouds.add(cloud);
 
@@ -187,6 +194,57 @@ public class JCloudsCloudTest {
         assertEquals(String.valueOf(DEF.getRetentionTime()), c.def("retentionTime"));
     }
 
+    @Test
+    public void templateSelectionPolicies() throws Exception {
+        JCloudsSlaveTemplate first = j.dummySlaveTemplate("label");
+        JCloudsSlaveTemplate second = j.dummySlaveTemplate("label");
+        JCloudsSlaveTemplate third = j.dummySlaveTemplate("label");
+        JCloudsCloud cloud = j.dummyCloud(first, second, third);
+        List<JCloudsSlaveTemplate> all = cloud.getTemplates();
+
+        assertEquals(TemplateSelectionPolicy.DECLARATION_ORDER, cloud.getTemplateSelection());
+        assertEquals(all, TemplateSelectionPolicy.DECLARATION_ORDER.order(cloud, all));
+
+        assertEquals(Arrays.asList(first, second, third), TemplateSelectionPolicy.ROUND_ROBIN.order(cloud, all));
+        assertEquals(Arrays.asList(second, third, first), TemplateSelectionPolicy.ROUND_ROBIN.order(cloud, all));
+        assertEquals(Arrays.asList(third, first, second), TemplateSelectionPolicy.ROUND_ROBIN.order(cloud, all));
+
+        // Template that keeps failing goes last, templates with no history keep declaration order
+        CloudStatistics.ProvisioningListener listener = CloudStatistics.ProvisioningListener.get();
+        for (int i = 0; i < 3; i++) {
+            ProvisioningActivity.Id id = new ProvisioningActivity.Id(cloud.name, first.name);
+            listener.onStarted(id);
+            listener.onFailure(id, new Openstack.ActionFailed("It is broken, alright!"));
+        }
+        assertEquals(Arrays.asList(second, third, first), TemplateSelectionPolicy.FASTEST_HEALTHY.order(cloud, all));
+
+        // Statistics are not recollected on every provisioning attempt
+        assertSame(cloud.getTemplateStats(), cloud.getTemplateStats());
+    }
+
+    @Test
+    public void fastestHealthyRanksTemplatesWithoutHistoryAsAverage() throws Exception {
+        JCloudsSlaveTemplate untried = j.dummySlaveTemplate("label");
+        JCloudsSlaveTemplate slow = j.dummySlaveTemplate("label");
+        JCloudsSlaveTemplate fast = j.dummySlaveTemplate("label");
+        JCloudsSlaveTemplate broken = j.dummySlaveTemplate("label");
+        Map<String, TemplateSelectionPolicy.Stats> stats = new HashMap<>();
+        stats.put(slow.name, stats(10, 10, 30000));
+        stats.put(fast.name, stats(10, 10, 10000));
+        stats.put(broken.name, stats(10, 0, 0));
+
+        List<JCloudsSlaveTemplate> all = Arrays.asList(untried, slow, fast, broken);
+        assertEquals(Arrays.asList(fast, untried, slow, broken), TemplateSelectionPolicy.rank(all, stats));
+    }
+
+    private static TemplateSelectionPolicy.Stats stats(int samples, int successes, long bootTime) {
+        TemplateSelectionPolicy.Stats stats = new TemplateSelectionPolicy.Stats();
+        Whitebox.setInternalState(stats, "samples", samples);
+        Whitebox.setInternalState(stats, "successes", successes);
+        Whitebox.setInternalState(stats, "bootTime", bootTime * successes);
+        return stats;
+    }
+
     @Test
     public void eraseDefaults() {
         int biggerInstanceCap = DescriptorImpl.getDefaultOptions().getInstanceCap() * 2;
@@ -203,6 +261,45 @@ public class JCloudsCloudTest {
         assertEquals(expected, cloud.getRawSlaveOptions());
     }
 
+    @Test
+    public void effectiveOptionsRecomputedOnReconfiguration() {
+        JCloudsSlaveTemplate template = new JCloudsSlaveTemplate("t", "label", SlaveOptions.builder().hardwareId("template-hw").build());
+        JCloudsCloud cloud = new JCloudsCloud(
+                "openstack", "identity", "credential", "endPointUrl", "zone",
+                SlaveOptions.builder().networkId("net1").build(), Collections.singletonList(template)
+        );
+
+        SlaveOptions effective = template.getEffectiveSlaveOptions();
+        assertSame(effective, template.getEffectiveSlaveOptions());
+        assertSame(cloud.getEffectiveSlaveOptions(), cloud.getEffectiveSlaveOptions());
+        assertEquals("net1", effective.getNetworkId());
+        assertEquals("template-hw", effective.getHardwareId());
+
+        // Template is reattached to the reconfigured cloud
+        new JCloudsCloud(
+                "openstack", "identity", "credential", "endPointUrl", "zone",
+                SlaveOptions.builder().networkId("net2").build(), Collections.singletonList(template)
+        );
+        assertEquals("net2", template.getEffectiveSlaveOptions().getNetworkId());
+        assertEquals("template-hw", template.getEffectiveSlaveOptions().getHardwareId());
+    }
+
+    @Test
+    public void indexTemplatesByLabel() throws Exception {
+        JCloudsSlaveTemplate linux = j.dummySlaveTemplate("linux x86");
+        JCloudsSlaveTemplate windows = j.dummySlaveTemplate("windows x86");
+        JCloudsCloud cloud = j.dummyCloud(linux, windows);
+
+        assertTrue(cloud.canProvision(Label.get("linux")));
+        assertFalse(cloud.canProvision(Label.get("solaris")));
+        assertEquals(Arrays.asList(linux, windows), cloud.getMatchingTemplates(Label.get("x86")));
+        assertEquals(Collections.singletonList(windows), cloud.getMatchingTemplates(Label.parseExpression("x86 && !linux")));
+        assertEquals(Arrays.asList(linux, windows), cloud.getMatchingTemplates(null));
+
+        List<JCloudsSlaveTemplate> matching = cloud.getMatchingTemplates(Label.get("windows"));
+        assertSame(matching, cloud.getMatchingTemplates(Label.get("windows")));
+    }
+
     @Test
     public void testConfigRoundtrip() throws Exception {
         String beans = "identity,credential,endPointUrl,zone";
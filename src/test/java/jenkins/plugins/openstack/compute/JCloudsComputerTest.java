@@ -1,5 +1,9 @@
 package jenkins.plugins.openstack.compute;
 
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule.WebClient;
@@ -11,6 +15,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class JCloudsComputerTest {
@@ -37,4 +42,33 @@ public class JCloudsComputerTest {
         computer.setPendingDelete(false);
         assertFalse("Computer should not be pending delete", computer.isPendingDelete());
     }
+
+    @Test
+    public void terminateIdleSlaveRightAfterScheduled() throws Exception {
+        JCloudsSlave slave = j.provision(j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label"))), "label");
+        JCloudsComputer computer = (JCloudsComputer) slave.toComputer();
+        computer.waitUntilOnline();
+
+        computer.setPendingDelete(true);
+        waitForNodeToBeRemoved(slave);
+    }
+
+    @Test
+    public void terminateBusySlaveOnceBuildCompletes() throws Exception {
+        j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildWrappersList().add(new JCloudsOneOffSlave());
+        p.setAssignedLabel(Label.get("label"));
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+        waitForNodeToBeRemoved(build.getBuiltOn());
+    }
+
+    private void waitForNodeToBeRemoved(Node node) throws InterruptedException {
+        String name = node.getNodeName();
+        for (int i = 0; i < 100 && j.jenkins.getNode(name) != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull("Terminated without waiting for cleanup", j.jenkins.getNode(name));
+    }
 }
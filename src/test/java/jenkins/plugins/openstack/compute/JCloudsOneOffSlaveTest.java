@@ -4,10 +4,21 @@ import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Label;
 import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
 import org.junit.Rule;
 import org.junit.Test;
+import org.jvnet.hudson.test.SleepBuilder;
+
+import java.util.Collections;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class JCloudsOneOffSlaveTest {
 
@@ -26,4 +37,60 @@ public class JCloudsOneOffSlaveTest {
         JCloudsComputer computer = (JCloudsComputer) build.getBuiltOn().toComputer();
         assertTrue("Slave should be discarded", computer.isPendingDelete());
     }
+
+    @Test
+    public void recycleSlaveOnceUsed() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate(j.defaultSlaveOptions(), "label")));
+        Openstack os = cloud.getOpenstack();
+        when(os.getImageIdsFor("dummyImageId")).thenReturn(Collections.singletonList("image-id"));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        JCloudsOneOffSlave oneOff = new JCloudsOneOffSlave();
+        oneOff.setRecycle(true);
+        p.getBuildWrappersList().add(oneOff);
+        p.setAssignedLabel(Label.get("label"));
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+        JCloudsSlave slave = (JCloudsSlave) build.getBuiltOn();
+        JCloudsComputer computer = (JCloudsComputer) slave.toComputer();
+
+        verify(os, timeout(10000)).rebuildAndWaitActive(eq(slave.getServerId()), eq("image-id"), anyInt());
+        while (computer.isRecycling()) {
+            Thread.sleep(100);
+        }
+        assertFalse("Slave should be kept", computer.isPendingDelete());
+        assertFalse(computer.isTemporarilyOffline());
+        assertSame(slave, j.jenkins.getNode(slave.getNodeName()));
+    }
+
+    @Test
+    public void terminateSlaveThatDoesNotGetIdleForRecycling() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate(j.defaultSlaveOptions(), "label")));
+        Openstack os = cloud.getOpenstack();
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new SleepBuilder(1000000));
+        p.setAssignedLabel(Label.get("label"));
+        FreeStyleBuild build = p.scheduleBuild2(0).waitForStart();
+        JCloudsComputer computer = (JCloudsComputer) build.getBuiltOn().toComputer();
+
+        long timeout = JCloudsComputer.RECYCLE_TIMEOUT;
+        JCloudsComputer.RECYCLE_TIMEOUT = 0;
+        try {
+            computer.recycle();
+            assertTrue(computer.isRecycling());
+            assertFalse(computer.isPendingDelete());
+
+            Thread.sleep(10);
+            computer.checkRecycle();
+            assertFalse(computer.isRecycling());
+            assertTrue("Slave should be discarded", computer.isPendingDelete());
+        } finally {
+            JCloudsComputer.RECYCLE_TIMEOUT = timeout;
+        }
+
+        build.getExecutor().interrupt();
+        j.waitForCompletion(build);
+        verify(os, never()).rebuildAndWaitActive(anyString(), anyString(), anyInt());
+    }
 }
@@ -1,22 +1,31 @@
 package jenkins.plugins.openstack.compute;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.TaskListener;
 import hudson.model.User;
 import hudson.slaves.ComputerListener;
+import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.slaves.OfflineCause;
 import hudson.util.OneShotEvent;
 import jenkins.model.Jenkins;
 import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.TestExtension;
+import org.openstack4j.model.compute.builder.ServerCreateBuilder;
 
 import java.io.IOException;
+import java.util.Collection;
 
 public class JCloudsRetentionStrategyTest {
 
@@ -129,4 +138,58 @@ public class JCloudsRetentionStrategyTest {
         computer.getRetentionStrategy().check(computer);
         assertTrue(computer.isPendingDelete());
     }
+
+    @Test
+    public void hibernateIdleSlaveAndResumeOnDemand() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate(
+                j.defaultSlaveOptions().getBuilder().retentionTime(0).hibernationMode("SUSPEND").build(),
+                "label"
+        )));
+        JCloudsSlave slave = j.provision(cloud, "label");
+        JCloudsComputer computer = (JCloudsComputer) slave.toComputer();
+        computer.waitUntilOnline();
+        Openstack os = cloud.getOpenstack();
+
+        computer.getRetentionStrategy().check(computer);
+        assertFalse(computer.isPendingDelete());
+        assertTrue(computer.isHibernated());
+        assertTrue(computer.isTemporarilyOffline());
+        assertEquals(HibernationMode.SUSPEND, slave.getHibernation());
+        verify(os).hibernateServer(slave.getServerId(), false);
+
+        // Hibernated slave is not deleted before the hibernation time
+        computer.getRetentionStrategy().check(computer);
+        assertFalse(computer.isPendingDelete());
+
+        Collection<PlannedNode> planned = cloud.provision(Label.get("label"), 1);
+        assertEquals(1, planned.size());
+        assertSame(slave, planned.iterator().next().future.get());
+
+        verify(os).resumeAndWaitActive(eq(slave.getServerId()), eq(false), anyInt());
+        verify(os, times(1)).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        assertFalse(computer.isHibernated());
+        assertFalse(computer.isTemporarilyOffline());
+        assertNull(slave.getHibernation());
+    }
+
+    @Test
+    public void deleteSlaveHibernatedForTooLong() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate(
+                j.defaultSlaveOptions().getBuilder().retentionTime(0).hibernationMode("SHELVE").hibernationTime(0).build(),
+                "label"
+        )));
+        JCloudsSlave slave = j.provision(cloud, "label");
+        JCloudsComputer computer = (JCloudsComputer) slave.toComputer();
+        computer.waitUntilOnline();
+
+        computer.getRetentionStrategy().check(computer);
+        assertTrue(computer.isHibernated());
+        verify(cloud.getOpenstack()).hibernateServer(slave.getServerId(), true);
+
+        Thread.sleep(10);
+        computer.getRetentionStrategy().check(computer);
+        assertTrue(computer.isPendingDelete());
+
+        assertFalse("Not to be resumed once scheduled for termination", computer.claimResume());
+    }
 }
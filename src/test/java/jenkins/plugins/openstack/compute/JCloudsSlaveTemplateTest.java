@@ -6,14 +6,21 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
 import com.gargoylesoftware.htmlunit.html.HtmlForm;
+import hudson.Util;
 import hudson.remoting.Base64;
+import hudson.util.FormValidation;
 import jenkins.plugins.openstack.PluginTestRule;
 
 import jenkins.plugins.openstack.compute.internal.Openstack;
 import jenkins.plugins.openstack.compute.slaveopts.BootSource;
 import jenkins.plugins.openstack.compute.slaveopts.LauncherFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -26,6 +33,7 @@ import org.openstack4j.openstack.compute.domain.NovaBlockDeviceMappingCreate;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -56,6 +64,9 @@ public class JCloudsSlaveTemplateTest {
                 SlaveOptions.empty(),
                 Arrays.asList(jnlpTemplate, sshTemplate)
         );
+        originalCloud.setTemplateSelection(TemplateSelectionPolicy.ROUND_ROBIN);
+        originalCloud.setCleanupMinPeriod(5);
+        originalCloud.setCleanupMaxPeriod(60);
 
         j.jenkins.clouds.add(originalCloud);
 
@@ -65,6 +76,9 @@ public class JCloudsSlaveTemplateTest {
 
         final JCloudsCloud actualCloud = JCloudsCloud.getByName("my-openstack");
         j.assertEqualBeans(originalCloud, actualCloud, CLOUD_PROPERTIES);
+        assertThat(actualCloud.getTemplateSelection(), equalTo(TemplateSelectionPolicy.ROUND_ROBIN));
+        assertThat(actualCloud.getCleanupMinPeriod(), equalTo(5));
+        assertThat(actualCloud.getCleanupMaxPeriod(), equalTo(60));
         assertThat(actualCloud.getEffectiveSlaveOptions(), equalTo(originalCloud.getEffectiveSlaveOptions()));
         assertThat(actualCloud.getRawSlaveOptions(), equalTo(originalCloud.getRawSlaveOptions()));
 
@@ -120,6 +134,79 @@ public class JCloudsSlaveTemplateTest {
         assertEquals("${unknown} ${VARIABLE}", actual.getProperty("DO_NOT_REPLACE_THIS"));
     }
 
+    @Test
+    public void compiledUserDataRendersAsReplaceMacro() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions();
+        UserDataVariableResolver resolver = new UserDataVariableResolver("http://jenkins/", "srv", "label", opts);
+        String[] texts = {
+                "", "plain", "$", "$$", "$$SLAVE_LABELS", "${SLAVE_LABELS}${SLAVE_LABELS}", "$SLAVE_LABELS-suffix",
+                "${unknown} $UNKNOWN ${SLAVE_LABELS", "prefix ${JENKINS_URL}x${SLAVE_JNLP_URL} suffix $"
+        };
+        for (String text : texts) {
+            assertEquals(text, Util.replaceMacro(text, resolver), UserDataVariableResolver.Template.compile(text).render(resolver));
+        }
+        assertEquals(2, UserDataVariableResolver.Template.compile("${SLAVE_LABELS}${unknown}$JENKINS_URL").getSlotCount());
+    }
+
+    @Test
+    public void recompileUserDataWhenConfigChanges() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(j.defaultSlaveOptions(), "a");
+        j.dummyCloud(template);
+        UserDataConfig.UserDataConfigProvider provider = ConfigProvider.all().get(UserDataConfig.UserDataConfigProvider.class);
+
+        UserDataVariableResolver.Template compiled = template.getUserDataTemplate();
+        assertThat(compiled, notNullValue());
+        assertSame(compiled, template.getUserDataTemplate());
+
+        String id = template.getEffectiveSlaveOptions().getUserDataId();
+        provider.save(new Config(id, "Fake", "It is a fake", "labels: ${SLAVE_LABELS}"));
+        UserDataVariableResolver.Template recompiled = template.getUserDataTemplate();
+        assertThat(recompiled, not(sameInstance(compiled)));
+        assertEquals(1, recompiled.getSlotCount());
+
+        provider.remove(id);
+        assertThat(template.getUserDataTemplate(), nullValue());
+    }
+
+    @Test
+    public void composeAndCompressUserData() throws Exception {
+        UserDataConfig.UserDataConfigProvider provider = ConfigProvider.all().get(UserDataConfig.UserDataConfigProvider.class);
+        provider.save(new UserDataConfig("cfg", "cfg", "", "#cloud-config\nhostname: ${SLAVE_LABELS}\n"));
+        UserDataConfig composed = new UserDataConfig("composed", "composed", "", "#!/bin/sh\necho ${JENKINS_URL}");
+        composed.setIncludes("cfg, missing");
+        composed.setCompress(true);
+        provider.save(composed);
+
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().userDataId("composed").build();
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "a");
+        JCloudsCloud cloud = j.configureSlaveProvisioning(j.dummyCloud(template));
+        Openstack os = cloud.getOpenstack();
+
+        template.provision(cloud);
+
+        ArgumentCaptor<ServerCreateBuilder> captor = ArgumentCaptor.forClass(ServerCreateBuilder.class);
+        verify(os).bootAndWaitActive(captor.capture(), anyInt());
+
+        byte[] payload = Base64.decode(captor.getValue().build().getUserData());
+        String actual = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(payload)), "UTF-8");
+        assertThat(actual, startsWith("Content-Type: multipart/mixed; boundary="));
+        assertThat(actual, containsString("Content-Type: text/x-shellscript; charset=\"utf-8\"\nMIME-Version: 1.0\nContent-Disposition: attachment; filename=\"part-001\"\n\n#!/bin/sh\necho " + j.getURL().toExternalForm() + "\n"));
+        assertThat(actual, containsString("Content-Type: text/cloud-config; charset=\"utf-8\"\nMIME-Version: 1.0\nContent-Disposition: attachment; filename=\"part-002\"\n\n#cloud-config\nhostname: a\n"));
+        assertThat(actual, not(containsString("part-003")));
+    }
+
+    @Test
+    public void validateEncodedUserDataSize() throws Exception {
+        UserDataConfig.UserDataConfigProvider provider = ConfigProvider.all().get(UserDataConfig.UserDataConfigProvider.class);
+        // Compresses well, but does not fit uncompressed
+        String big = "#!/bin/sh\n" + StringUtils.repeat("echo 'Bootstrapping the agent' >> /var/log/bootstrap.log\n", 2000);
+
+        assertEquals(FormValidation.Kind.OK, provider.doCheckContent("#!/bin/sh", null, false).kind);
+        assertEquals(FormValidation.Kind.ERROR, provider.doCheckContent(big, null, false).kind);
+        assertEquals(FormValidation.Kind.OK, provider.doCheckContent(big, null, true).kind);
+        assertEquals(FormValidation.Kind.ERROR, provider.doCheckContent("#!/bin/sh", "missing", true).kind);
+    }
+
     @Test
     public void noFloatingPoolId() throws Exception {
         SlaveOptions opts = j.defaultSlaveOptions().getBuilder().floatingIpPool(null).build();
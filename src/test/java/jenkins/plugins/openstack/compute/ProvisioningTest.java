@@ -14,11 +14,14 @@ import hudson.model.labels.LabelAtom;
 import hudson.plugins.sshslaves.SSHLauncher;
 import hudson.slaves.NodeProvisioner;
 import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
 import jenkins.plugins.openstack.PluginTestRule;
 import jenkins.plugins.openstack.compute.internal.Openstack;
+import jenkins.plugins.openstack.compute.internal.Quota;
 import jenkins.plugins.openstack.compute.slaveopts.BootSource;
 import jenkins.plugins.openstack.compute.slaveopts.LauncherFactory;
 
+import org.apache.commons.lang.StringUtils;
 import org.hamcrest.Matcher;
 import org.hamcrest.Matchers;
 import org.jenkinsci.plugins.cloudstats.CloudStatistics;
@@ -30,17 +33,26 @@ import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.mockito.ArgumentCaptor;
 import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.openstack4j.model.compute.BDMDestType;
 import org.openstack4j.model.compute.BDMSourceType;
 import org.openstack4j.model.compute.BlockDeviceMappingCreate;
+import org.openstack4j.model.compute.Flavor;
+import org.openstack4j.model.compute.FloatingIP;
 import org.openstack4j.model.compute.Server;
 import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.openstack4j.model.storage.block.Volume;
 import org.openstack4j.openstack.compute.domain.NovaBlockDeviceMappingCreate;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,19 +65,26 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.iterableWithSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -196,6 +215,55 @@ public class ProvisioningTest {
         assertEquals(3, openTmplt.getRunningNodes().size());
     }
 
+    @Test
+    public void doNotProvisionOverTenantQuota() throws Exception {
+        SlaveOptions init = j.defaultSlaveOptions();
+        JCloudsSlaveTemplate big = j.dummySlaveTemplate(init.getBuilder().hardwareId("big").build(), "label");
+        JCloudsSlaveTemplate small = j.dummySlaveTemplate(init.getBuilder().hardwareId("small").build(), "label");
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(big, small));
+        Openstack os = cloud.getOpenstack();
+
+        Flavor bigFlavor = mock(Flavor.class);
+        when(bigFlavor.getVcpus()).thenReturn(4);
+        when(bigFlavor.getRam()).thenReturn(8192);
+        when(os.getFlavor("big")).thenReturn(bigFlavor);
+        Flavor smallFlavor = mock(Flavor.class);
+        when(smallFlavor.getVcpus()).thenReturn(1);
+        when(smallFlavor.getRam()).thenReturn(1024);
+        when(os.getFlavor("small")).thenReturn(smallFlavor);
+
+        // Room for 2 big ones and then 1 small one
+        when(os.getQuota()).thenReturn(new Quota(10, 9, 100000, 10));
+        assertProvisioned(3, cloud.provision(Label.get("label"), 5));
+        assertEquals(2, big.getRunningNodes().size());
+        assertEquals(1, small.getRunningNodes().size());
+
+        // No more floating IPs
+        when(os.getQuota()).thenReturn(new Quota(10, 10, 100000, 0));
+        assertProvisioned(0, cloud.provision(Label.get("label"), 1));
+    }
+
+    @Test
+    public void accountLargestFallbackFlavorInTenantQuota() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().hardwareId("small").fallbackHardwareIds("big").build();
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(template));
+        Openstack os = cloud.getOpenstack();
+
+        Flavor bigFlavor = mock(Flavor.class);
+        when(bigFlavor.getVcpus()).thenReturn(4);
+        when(bigFlavor.getRam()).thenReturn(8192);
+        when(os.getFlavor("big")).thenReturn(bigFlavor);
+        Flavor smallFlavor = mock(Flavor.class);
+        when(smallFlavor.getVcpus()).thenReturn(1);
+        when(smallFlavor.getRam()).thenReturn(1024);
+        when(os.getFlavor("small")).thenReturn(smallFlavor);
+
+        // Room for 5 small ones but only 2 big ones
+        when(os.getQuota()).thenReturn(new Quota(10, 9, 100000, 10));
+        assertProvisioned(2, cloud.provision(Label.get("label"), 5));
+    }
+
     public void assertProvisioned(int expectedCount, Collection<NodeProvisioner.PlannedNode> nodes) throws Exception {
         assertEquals(expectedCount, nodes.size());
         for (NodeProvisioner.PlannedNode node : nodes) {
@@ -419,6 +487,273 @@ public class ProvisioningTest {
         }
     }
 
+    @Test
+    public void skipTemplatesBackingOffAfterFailure() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().instanceCap(1).build();
+        JCloudsSlaveTemplate broken = j.dummySlaveTemplate(opts.getBuilder().floatingIpPool("broken_pool").build(), "label 1");
+        JCloudsSlaveTemplate healthy = j.dummySlaveTemplate(opts, "label 2");
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(broken, healthy));
+        Openstack os = cloud.getOpenstack();
+        doThrow(new Openstack.ActionFailed("It is broken, alright!")).doReturn(mock(FloatingIP.class))
+                .when(os).assignFloatingIp(any(Server.class), eq("broken_pool"))
+        ;
+
+        try {
+            broken.provision(cloud);
+            fail();
+        } catch (Openstack.ActionFailed ex) {
+            // Expected
+        }
+
+        ProvisioningBackoff backoff = broken.getProvisioningBackoff();
+        assertTrue(backoff.isPenalized());
+        assertEquals(1, backoff.getFailureCount());
+        assertEquals("It is broken, alright!", backoff.getLastError());
+        assertFalse(healthy.getProvisioningBackoff().isPenalized());
+
+        waitForAsyncResourceDisposer();
+
+        Collection<NodeProvisioner.PlannedNode> plan = cloud.provision(Label.get("label"), 2);
+        assertEquals(1, plan.size());
+        Set<LabelAtom> assignedLabels = plan.iterator().next().future.get().getAssignedLabels();
+        assertTrue(assignedLabels.toString(), assignedLabels.contains(LabelAtom.get("2")));
+
+        // Explicit provisioning is not affected and resets the backoff once it succeeds
+        broken.provision(cloud);
+        assertFalse(backoff.isPenalized());
+        assertEquals(0, backoff.getFailureCount());
+    }
+
+    @Test
+    public void retryInNextAvailabilityZoneWhenOutOfCapacity() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().availabilityZone("az1, az2").availabilityZonePolicy("FILL_FIRST").build();
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+
+        final Server server = j.mockServer().name("provisioned").get();
+        final List<String> zones = new ArrayList<>();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                ServerCreateBuilder builder = (ServerCreateBuilder) invocation.getArguments()[0];
+                String az = (String) Whitebox.getInternalState(builder.build(), "availabilityZone");
+                zones.add(az);
+                if ("az1".equals(az)) throw new Openstack.CapacityExhausted("No valid host was found");
+                return server;
+            }
+        }).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doReturn(server).when(os).updateInfo(server);
+
+        assertEquals(server, template.provision(cloud));
+        assertEquals(Arrays.asList("az1", "az2"), zones);
+        assertFalse(template.getProvisioningBackoff().isPenalized());
+
+        // Other failures are not retried
+        doThrow(new Openstack.ActionFailed("It is broken, alright!")).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        try {
+            template.provision(cloud);
+            fail();
+        } catch (Openstack.ActionFailed ex) {
+            assertThat(ex.getMessage(), containsString("It is broken, alright!"));
+        }
+        verify(os, times(3)).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+    }
+
+    @Test
+    public void claimPooledVolumeForEveryAvailabilityZoneAttempt() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder()
+                .bootSource(new BootSource.VolumeSnapshot("vs"))
+                .availabilityZone("az1, az2").availabilityZonePolicy("FILL_FIRST")
+                .build()
+        ;
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        template.setVolumePoolSize(1);
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+        when(os.getVolumeSnapshotIdsFor("vs")).thenReturn(Collections.singletonList("vs-id"));
+        String prefix = BootVolumePool.prefix(cloud, template);
+        Volume pooled = mock(Volume.class);
+        when(pooled.getName()).thenReturn(prefix + "1");
+        when(pooled.getId()).thenReturn("pooled-az1");
+        when(pooled.getSnapshotId()).thenReturn("vs-id");
+        when(pooled.getStatus()).thenReturn(Volume.Status.AVAILABLE);
+        when(pooled.getZone()).thenReturn("az1");
+        when(os.getVolumesByNamePrefix(BootVolumePool.PREFIX + "openstack-")).thenReturn(Collections.singletonList(pooled));
+        BootVolumePool.maintain(cloud);
+
+        final Server server = j.mockServer().name("provisioned").get();
+        final List<String> devices = new ArrayList<>();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                ServerCreateBuilder builder = (ServerCreateBuilder) invocation.getArguments()[0];
+                String az = (String) Whitebox.getInternalState(builder.build(), "availabilityZone");
+                @SuppressWarnings("unchecked")
+                List<BlockDeviceMappingCreate> mapping = (List<BlockDeviceMappingCreate>) Whitebox.getInternalState(
+                        builder.build(), "blockDeviceMapping"
+                );
+                assertEquals(1, mapping.size());
+                NovaBlockDeviceMappingCreate device = (NovaBlockDeviceMappingCreate) mapping.get(0);
+                devices.add(az + ":" + device.source_type.name() + ":" + device.uuid);
+                if ("az1".equals(az)) throw new Openstack.CapacityExhausted("No valid host was found");
+                return server;
+            }
+        }).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doReturn(server).when(os).updateInfo(server);
+
+        assertEquals(server, template.provision(cloud));
+        // Pooled volume from other zone can not be attached, falling back to the snapshot
+        assertEquals(Arrays.asList("az1:VOLUME:pooled-az1", "az2:SNAPSHOT:vs-id"), devices);
+        verify(os, times(1)).setVolumeNameAndDescription(eq("pooled-az1"), any(String.class), any(String.class));
+    }
+
+    @Test
+    public void fallBackToOtherFlavorWhenOutOfCapacity() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder().hardwareId("large").fallbackHardwareIds("medium, small").build();
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+
+        final Server server = j.mockServer().name("provisioned").get();
+        final List<String> flavors = new ArrayList<>();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                ServerCreateBuilder builder = (ServerCreateBuilder) invocation.getArguments()[0];
+                String flavor = builder.build().getFlavorRef();
+                flavors.add(flavor);
+                if (!"small".equals(flavor)) throw new Openstack.CapacityExhausted("No valid host was found");
+                return server;
+            }
+        }).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doReturn(server).when(os).updateInfo(server);
+
+        assertEquals(server, template.provision(cloud));
+        assertEquals(Arrays.asList("large", "medium", "small"), flavors);
+
+        // Flavor that worked is preferred for some time
+        flavors.clear();
+        template.provision(cloud);
+        assertEquals(Collections.singletonList("small"), flavors);
+    }
+
+    @Test
+    public void shareStartTimeoutAmongBootAttempts() throws Exception {
+        SlaveOptions opts = j.defaultSlaveOptions().getBuilder()
+                .hardwareId("large").fallbackHardwareIds("small")
+                .availabilityZone("az1, az2").availabilityZonePolicy("FILL_FIRST")
+                .startTimeout(1000)
+                .build()
+        ;
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate(opts, "label");
+        JCloudsCloud cloud = j.dummyCloud(template);
+        Openstack os = cloud.getOpenstack();
+
+        final List<Integer> timeouts = new ArrayList<>();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                timeouts.add((Integer) invocation.getArguments()[1]);
+                Thread.sleep(400);
+                throw new Openstack.CapacityExhausted("No valid host was found");
+            }
+        }).when(os).bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+
+        try {
+            template.provision(cloud);
+            fail();
+        } catch (Openstack.ActionFailed ex) {
+            assertThat(ex.getMessage(), containsString("within timeout (1000 ms)"));
+        }
+
+        // Out of 4 flavor and zone combinations, only those fitting into the start timeout are attempted
+        assertThat(timeouts.size(), lessThanOrEqualTo(3));
+        for (int i = 1; i < timeouts.size(); i++) {
+            assertThat(timeouts.get(i), lessThanOrEqualTo(timeouts.get(i - 1) - 400));
+        }
+    }
+
+    @Test
+    public void generateUniqueServerNames() throws Exception {
+        Set<String> names = new HashSet<>();
+        String last = "";
+        for (int i = 0; i < 5000; i++) {
+            String name = JCloudsSlaveTemplate.generateServerName("template");
+            assertThat(name, startsWith("template-"));
+            assertTrue(name, name.matches("[a-z0-9-]+"));
+            assertTrue(name, names.add(name));
+            last = name;
+        }
+        assertEquals("template-".length() + 11, last.length());
+
+        // Long template name is truncated to fit into hostname
+        String longName = JCloudsSlaveTemplate.generateServerName(StringUtils.repeat("t", 100));
+        assertEquals(63, longName.length());
+        assertThat(longName, startsWith(StringUtils.repeat("t", 51) + "-"));
+
+        // Generated name is not looked up
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate("label");
+        JCloudsCloud cloud = j.configureSlaveProvisioning(j.dummyCloud(template));
+        Openstack os = cloud.getOpenstack();
+        Server server = template.provision(cloud);
+        assertThat(server.getName(), startsWith(template.name + "-"));
+        verify(os, never()).getServersByName(any(String.class));
+    }
+
+    @Test
+    public void shareOptionsAmongAgents() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveProvisioning(j.dummyCloud(j.dummySlaveTemplate("label")));
+        JCloudsSlave first = j.provision(cloud, "label");
+        JCloudsSlave second = j.provision(cloud, "label");
+        assertSame(first.getSlaveOptions(), second.getSlaveOptions());
+        assertThat(Jenkins.XSTREAM2.toXML(first), containsString("<options>"));
+
+        JCloudsSlave.SHARE_OPTIONS = true;
+        try {
+            JCloudsSlave shared = j.provision(cloud, "label");
+            assertSame(first.getSlaveOptions(), shared.getSlaveOptions());
+
+            String xml = Jenkins.XSTREAM2.toXML(shared);
+            assertThat(xml, not(containsString("<options>")));
+            assertThat(xml, containsString("<optionsDigest>"));
+
+            JCloudsSlave loaded = (JCloudsSlave) Jenkins.XSTREAM2.fromXML(xml);
+            assertSame(first.getSlaveOptions(), loaded.getSlaveOptions());
+        } finally {
+            JCloudsSlave.SHARE_OPTIONS = false;
+        }
+    }
+
+    @Test
+    public void fallBackToTemplateOptionsWhenSnapshotIsMissing() throws Exception {
+        JCloudsSlaveTemplate template = j.dummySlaveTemplate("label");
+        JCloudsCloud cloud = j.configureSlaveProvisioning(j.dummyCloud(template));
+        JCloudsSlave.SHARE_OPTIONS = true;
+        long gracePeriod = SlaveOptionsSnapshots.GRACE_PERIOD;
+        try {
+            JCloudsSlave shared = j.provision(cloud, "label");
+            String digest = shared.getOptionsDigest();
+            assertNotNull(digest);
+
+            // Node is kept with the options of its template
+            String xml = Jenkins.XSTREAM2.toXML(shared).replace(digest, "missing-digest");
+            JCloudsSlave loaded = (JCloudsSlave) Jenkins.XSTREAM2.fromXML(xml);
+            assertEquals(template.getEffectiveSlaveOptions(), loaded.getSlaveOptions());
+            assertNull(loaded.getOptionsDigest());
+
+            // Snapshot is deleted once no node refers to it
+            File snapshot = new File(j.jenkins.getRootDir(), "openstack-slave-options/" + digest + ".xml");
+            assertTrue(snapshot.exists());
+            SlaveOptionsSnapshots.GRACE_PERIOD = 0;
+            SlaveOptionsSnapshots.collect();
+            assertTrue(snapshot.exists());
+
+            j.jenkins.removeNode(shared);
+            SlaveOptionsSnapshots.collect();
+            assertFalse(snapshot.exists());
+        } finally {
+            JCloudsSlave.SHARE_OPTIONS = false;
+            SlaveOptionsSnapshots.GRACE_PERIOD = gracePeriod;
+        }
+    }
+
     @Test
     public void destroyTheServerWhenFipAllocationFails() throws Exception {
         SlaveOptions opts = j.defaultSlaveOptions().getBuilder().floatingIpPool("my_pool").build();
@@ -457,10 +792,11 @@ public class ProvisioningTest {
     public void timeoutProvisioning() throws Exception {
         JCloudsCloud c = j.dummyCloud(j.dummySlaveTemplate("label"));
         Openstack os = c.getOpenstack();
-        when(os._bootAndWaitActive(any(ServerCreateBuilder.class), anyInt())).thenReturn(null); // Timeout
+        // Timeout - the server is identified by id so it is destroyed even if the name is not unique
+        Server server = j.mockServer().name("provisioned").status(Server.Status.BUILD).get();
+        when(os._bootAndWaitActive(any(ServerCreateBuilder.class), anyInt())).thenReturn(server);
         when(os.bootAndWaitActive(any(ServerCreateBuilder.class), anyInt())).thenCallRealMethod();
-        Server server = mock(Server.class);
-        when(os.getServersByName(any(String.class))).thenReturn(Collections.singletonList(server));
+        when(os.getServersByName(any(String.class))).thenReturn(Collections.singletonList(j.mockServer().name("provisioned").get()));
 
         for (NodeProvisioner.PlannedNode pn : c.provision(Label.get("label"), 1)) {
             try {
@@ -469,8 +805,8 @@ public class ProvisioningTest {
             } catch (ExecutionException ex) {
                 Throwable e = ex.getCause();
                 assertThat(e, instanceOf(Openstack.ActionFailed.class));
-                assertThat(e.getMessage(), containsString("Failed to provision the"));
-                assertThat(e.getMessage(), containsString("in time"));
+                assertThat(e.getMessage(), containsString("Failed to boot server provisioned in time"));
+                assertThat(e.getMessage(), containsString("status=BUILD"));
             }
         }
 
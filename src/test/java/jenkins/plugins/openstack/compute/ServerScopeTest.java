@@ -9,6 +9,8 @@ import static org.mockito.Mockito.when;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.slaves.DumbSlave;
+import org.jenkinsci.plugins.cloudstats.CloudStatistics;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -16,6 +18,7 @@ import org.jvnet.hudson.test.SleepBuilder;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.openstack4j.model.compute.Server;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
@@ -64,6 +67,20 @@ public class ServerScopeTest {
         assertTrue(dead.isOutOfScope(mockServer));
     }
 
+    @Test
+    public void nodeScopeResolvedFromActivityIndex() throws Exception {
+        CloudStatistics.ProvisioningListener.get().onStarted(new ProvisioningActivity.Id("cloud", "template", "provisioning"));
+        ServerScope.ActivityIndex index = ServerScope.ActivityIndex.build();
+
+        ServerScope.Node provisioning = new ServerScope.Node("provisioning");
+        assertFalse(provisioning.isOutOfScope(mockServer, index));
+        assertFalse(provisioning.isOutOfScope(mockServer));
+
+        ServerScope.Node unknown = new ServerScope.Node("unknown");
+        assertTrue(unknown.isOutOfScope(mockServer, index));
+        assertTrue(unknown.isOutOfScope(mockServer));
+    }
+
     @Test
     public void runScope() throws Exception {
         FreeStyleProject asdf = j.createFreeStyleProject("asdf");
@@ -83,6 +100,25 @@ public class ServerScopeTest {
         assertEquals("run:nonono:1", jobGone.getValue());
     }
 
+    @Test
+    public void runScopeOfRecreatedJob() throws Exception {
+        FreeStyleProject asdf = j.createFreeStyleProject("asdf");
+        asdf.getBuildersList().add(new SleepBuilder(1000000));
+        FreeStyleBuild build = asdf.scheduleBuild2(0).waitForStart();
+        ServerScope.Build scope = new ServerScope.Build(build);
+
+        build.getExecutor().interrupt();
+        j.waitForCompletion(build);
+        assertTrue(scope.isOutOfScope(mockServer));
+
+        asdf.delete();
+        asdf = j.createFreeStyleProject("asdf");
+        asdf.getBuildersList().add(new SleepBuilder(1000000));
+        FreeStyleBuild recreated = asdf.scheduleBuild2(0).waitForStart();
+        assertEquals(build.getNumber(), recreated.getNumber());
+        assertFalse(scope.isOutOfScope(mockServer));
+    }
+
     @Test @WithoutJenkins
     public void timeScope() throws Exception {
         ServerScope.Time alive = new ServerScope.Time(1, TimeUnit.DAYS);
@@ -95,6 +131,20 @@ public class ServerScopeTest {
         assertThat(timedOut.getValue(), startsWith("time:20"));
     }
 
+    @Test @WithoutJenkins
+    public void extractedScopesAreShared() throws Exception {
+        String value = new ServerScope.Time(1, TimeUnit.DAYS).getValue();
+        Server a = mock(Server.class);
+        when(a.getMetadata()).thenReturn(Collections.singletonMap(ServerScope.METADATA_KEY, value));
+        Server b = mock(Server.class);
+        when(b.getMetadata()).thenReturn(Collections.singletonMap(ServerScope.METADATA_KEY, value));
+
+        ServerScope scope = ServerScope.extract(a);
+        assertSame(scope, ServerScope.extract(b));
+        assertEquals(value, scope.getValue());
+        assertEquals(ServerScope.parse(value), scope);
+    }
+
     @Test @WithoutJenkins
     public void unlimitedScope() throws Exception {
         ServerScope.Unlimited alive = ServerScope.Unlimited.getInstance();
@@ -15,59 +15,81 @@ public class SlaveOptionsTest {
 
     @Test // instanceCap is a subject of different overriding rules
     public void defaultOverrides() {
-        SlaveOptions unmodified = PluginTestRule.dummySlaveOptions().override(SlaveOptions.empty());
+        SlaveOptions dummy = PluginTestRule.dummySlaveOptions().getBuilder()
+                .fallbackHardwareIds("hw2,hw3")
+                .availabilityZonePolicy("SPREAD")
+                .hibernationMode("NONE")
+                .hibernationTime(2)
+                .build()
+        ;
+        SlaveOptions unmodified = dummy.override(SlaveOptions.empty());
 
         assertEquals(new BootSource.VolumeSnapshot("id"), unmodified.getBootSource());
         assertEquals("hw", unmodified.getHardwareId());
+        assertEquals("hw2,hw3", unmodified.getFallbackHardwareIds());
         assertEquals("nw", unmodified.getNetworkId());
         assertEquals("dummyUserDataId", unmodified.getUserDataId());
         assertEquals(1, (int) unmodified.getInstanceCap());
         assertEquals("pool", unmodified.getFloatingIpPool());
         assertEquals("sg", unmodified.getSecurityGroups());
         assertEquals("az", unmodified.getAvailabilityZone());
+        assertEquals("SPREAD", unmodified.getAvailabilityZonePolicy());
         assertEquals(1, (int) unmodified.getStartTimeout());
         assertEquals(10, (int) unmodified.getNumExecutors());
+        assertEquals(null, unmodified.getExecutorsPerVcpu());
         assertEquals("jvmo", unmodified.getJvmOptions());
         assertEquals("fsRoot", unmodified.getFsRoot());
         assertEquals(null, unmodified.getKeyPairName());
         assertEquals(LauncherFactory.JNLP.JNLP, unmodified.getLauncherFactory());
         assertEquals(1, (int) unmodified.getRetentionTime());
+        assertEquals("NONE", unmodified.getHibernationMode());
+        assertEquals(2, (int) unmodified.getHibernationTime());
 
         SlaveOptions override = SlaveOptions.builder()
                 .bootSource(new BootSource.Image("iid"))
                 .hardwareId("HW")
+                .fallbackHardwareIds("HW2")
                 .networkId("NW")
                 .userDataId("UD")
                 .instanceCap(42)
                 .floatingIpPool("POOL")
                 .securityGroups("SG")
                 .availabilityZone("AZ")
+                .availabilityZonePolicy("LEAST_LOADED")
                 .startTimeout(4)
                 .numExecutors(2)
+                .executorsPerVcpu(3)
                 .jvmOptions("JVMO")
                 .fsRoot("FSROOT")
                 .keyPairName("KPN")
                 .launcherFactory(new LauncherFactory.SSH(""))
                 .retentionTime(3)
+                .hibernationMode("SHELVE")
+                .hibernationTime(5)
                 .build()
         ;
-        SlaveOptions overridden = PluginTestRule.dummySlaveOptions().override(override);
+        SlaveOptions overridden = dummy.override(override);
 
         assertEquals(new BootSource.Image("iid"), overridden.getBootSource());
         assertEquals("HW", overridden.getHardwareId());
+        assertEquals("HW2", overridden.getFallbackHardwareIds());
         assertEquals("NW", overridden.getNetworkId());
         assertEquals("UD", overridden.getUserDataId());
         assertEquals(42, (int) overridden.getInstanceCap());
         assertEquals("POOL", overridden.getFloatingIpPool());
         assertEquals("SG", overridden.getSecurityGroups());
         assertEquals("AZ", overridden.getAvailabilityZone());
+        assertEquals("LEAST_LOADED", overridden.getAvailabilityZonePolicy());
         assertEquals(4, (int) overridden.getStartTimeout());
         assertEquals(2, (int) overridden.getNumExecutors());
+        assertEquals(3, (int) overridden.getExecutorsPerVcpu());
         assertEquals("JVMO", overridden.getJvmOptions());
         assertEquals("FSROOT", overridden.getFsRoot());
         assertEquals("KPN", overridden.getKeyPairName());
         assertThat(overridden.getLauncherFactory(), instanceOf(LauncherFactory.SSH.class));
         assertEquals(3, (int) overridden.getRetentionTime());
+        assertEquals("SHELVE", overridden.getHibernationMode());
+        assertEquals(5, (int) overridden.getHibernationTime());
     }
 
     @Test
@@ -86,31 +108,37 @@ public class SlaveOptionsTest {
     public void emptyStrings() {
         SlaveOptions nulls = SlaveOptions.empty();
         SlaveOptions emptyStrings = new SlaveOptions(
-                null, "", "", "", null, "", "", "", null, "", null, "", "", null, null
+                null, "", "", "", "", null, "", "", "", "", null, "", null, null, "", "", null, null, "", null
         );
         SlaveOptions emptyBuilt = SlaveOptions.builder()
                 .hardwareId("")
+                .fallbackHardwareIds("")
                 .networkId("")
                 .userDataId("")
                 .floatingIpPool("")
                 .securityGroups("")
                 .availabilityZone("")
+                .availabilityZonePolicy("")
                 .jvmOptions("")
                 .fsRoot("")
                 .keyPairName("")
+                .hibernationMode("")
                 .build()
         ;
         assertEquals(nulls, emptyStrings);
         assertEquals(nulls, emptyBuilt);
 
         assertEquals(null, emptyStrings.getHardwareId());
+        assertEquals(null, emptyStrings.getFallbackHardwareIds());
         assertEquals(null, emptyStrings.getNetworkId());
         assertEquals(null, emptyStrings.getUserDataId());
         assertEquals(null, emptyStrings.getSecurityGroups());
         assertEquals(null, emptyStrings.getAvailabilityZone());
+        assertEquals(null, emptyStrings.getAvailabilityZonePolicy());
         assertEquals(null, emptyStrings.getJvmOptions());
         assertEquals(null, emptyStrings.getFsRoot());
         assertEquals(null, emptyStrings.getKeyPairName());
+        assertEquals(null, emptyStrings.getHibernationMode());
     }
 
     @Test
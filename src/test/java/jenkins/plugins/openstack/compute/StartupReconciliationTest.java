@@ -0,0 +1,118 @@
+package jenkins.plugins.openstack.compute;
+
+import hudson.model.Computer;
+import jenkins.plugins.openstack.PluginTestRule;
+import jenkins.plugins.openstack.compute.internal.Openstack;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openstack4j.model.compute.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+public class StartupReconciliationTest {
+
+    @Rule
+    public PluginTestRule j = new PluginTestRule();
+
+    @Test
+    public void terminateGoneAndPreResolveLive() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
+        JCloudsSlave live = j.provision(cloud, "label");
+        JCloudsSlave gone = j.provision(cloud, "label");
+        Openstack os = cloud.getOpenstack();
+
+        List<Server> servers = new ArrayList<>();
+        for (Server server : os.getRunningNodes()) {
+            if (server.getId().equals(live.getServerId())) {
+                servers.add(server);
+            }
+        }
+        assertEquals(1, servers.size());
+        when(os.getRunningNodes()).thenReturn(servers);
+        doThrow(new NoSuchElementException("Not expected to be called")).when(os).getServerById(anyString());
+
+        StartupReconciliation.reconcile();
+
+        assertNull(j.jenkins.getNode(gone.getNodeName()));
+        assertNotNull(j.jenkins.getNode(live.getNodeName()));
+        assertEquals(Openstack.getPublicAddressIpv4(servers.get(0)), live.getPublicAddressIpv4());
+    }
+
+    @Test
+    public void keepAgentsOfUnreachableCloud() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
+        JCloudsSlave slave = j.provision(cloud, "label");
+        when(cloud.getOpenstack().getRunningNodes()).thenThrow(new IllegalStateException("Unreachable"));
+
+        StartupReconciliation.reconcile();
+
+        assertNotNull(j.jenkins.getNode(slave.getNodeName()));
+    }
+
+    @Test
+    public void resolveServersOfReconnectingAgentsInBulk() throws Exception {
+        JCloudsCloud cloud = j.configureSlaveLaunching(j.dummyCloud(j.dummySlaveTemplate("label")));
+        List<JCloudsSlave> slaves = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            slaves.add(j.provision(cloud, "label"));
+        }
+        Openstack os = cloud.getOpenstack();
+
+        final List<Server> servers = os.getRunningNodes();
+        final AtomicInteger inventories = new AtomicInteger();
+        final AtomicInteger lookups = new AtomicInteger();
+        doAnswer(new Answer<List<Server>>() {
+            @Override public List<Server> answer(InvocationOnMock invocation) throws Throwable {
+                inventories.incrementAndGet();
+                return servers;
+            }
+        }).when(os).getRunningNodes();
+        doAnswer(new Answer<Server>() {
+            @Override public Server answer(InvocationOnMock invocation) throws Throwable {
+                lookups.incrementAndGet();
+                throw new NoSuchElementException("Not expected to be called");
+            }
+        }).when(os).getServerById(anyString());
+
+        // Agents start connecting on startup before the reconciliation is started, or completed
+        synchronized (StartupReconciliation.class) {
+            StartupReconciliation.reconciliation = null;
+        }
+        List<Future<String>> addresses = new ArrayList<>();
+        for (final JCloudsSlave slave : slaves) {
+            addresses.add(Computer.threadPoolForRemoting.submit(new Callable<String>() {
+                @Override public String call() {
+                    return slave.getPublicAddressIpv4();
+                }
+            }));
+        }
+
+        for (int i = 0; i < slaves.size(); i++) {
+            String expected = null;
+            for (Server server : servers) {
+                if (server.getId().equals(slaves.get(i).getServerId())) {
+                    expected = Openstack.getPublicAddressIpv4(server);
+                }
+            }
+            assertNotNull(expected);
+            assertEquals(expected, addresses.get(i).get());
+        }
+        assertEquals(1, inventories.get());
+        assertEquals(0, lookups.get());
+    }
+}
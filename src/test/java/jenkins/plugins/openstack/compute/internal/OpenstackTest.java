@@ -21,6 +21,7 @@ import org.openstack4j.api.exceptions.ClientResponseException;
 import org.openstack4j.api.image.ImageService;
 import org.openstack4j.api.storage.BlockVolumeSnapshotService;
 import org.openstack4j.model.common.ActionResponse;
+import org.openstack4j.model.compute.AbsoluteLimit;
 import org.openstack4j.model.compute.Fault;
 import org.openstack4j.model.compute.FloatingIP;
 import org.openstack4j.model.compute.Server;
@@ -399,6 +400,30 @@ public class OpenstackTest {
         verify(os, times(1)).destroyServer(server);
     }
 
+    @Test
+    public void reportCapacityFaults() {
+        Openstack os = mock(Openstack.class, CALLS_REAL_METHODS);
+        Server server = mock(Server.class);
+        when(server.getStatus()).thenReturn(Server.Status.ERROR);
+
+        Fault fault = mock(Fault.class);
+        when(fault.getCode()).thenReturn(500);
+        when(fault.getMessage()).thenReturn("No valid host was found. There are not enough hosts available.");
+        when(server.getFault()).thenReturn(fault);
+
+        doReturn(server).when(os)._bootAndWaitActive(any(ServerCreateBuilder.class), any(Integer.class));
+        doNothing().when(os).destroyServer(server);
+
+        try {
+            os.bootAndWaitActive(mock(ServerCreateBuilder.class), 1);
+            fail();
+        } catch (Openstack.CapacityExhausted ex) {
+            assertThat(ex.getMessage(), containsString("No valid host was found"));
+        }
+
+        verify(os, times(1)).destroyServer(server);
+    }
+
     @Test
     public void deleteFloatingIpsWhenDeletingMachine() {
         Server server = mock(Server.class);
@@ -450,6 +475,32 @@ public class OpenstackTest {
         }
     }
 
+    @Test
+    public void keepLastKnownQuotaWhenItCanNotBeDetermined() {
+        OSClient client = mock(OSClient.class, RETURNS_DEEP_STUBS);
+        AbsoluteLimit limit = mock(AbsoluteLimit.class);
+        when(limit.getMaxTotalInstances()).thenReturn(10);
+        when(limit.getTotalInstancesUsed()).thenReturn(4);
+        when(limit.getMaxTotalCores()).thenReturn(-1);
+        when(limit.getMaxTotalRAMSize()).thenReturn(-1);
+        when(limit.getMaxTotalFloatingIps()).thenReturn(-1);
+        when(client.compute().quotaSets().limits().getAbsolute())
+                .thenReturn(limit)
+                .thenThrow(new ClientResponseException("Unavailable", 503))
+        ;
+
+        long cacheTime = Openstack.QUOTA_CACHE_TIME;
+        Openstack.QUOTA_CACHE_TIME = 0;
+        try {
+            Openstack os = new Openstack(client);
+            assertThat(os.getQuota().getInstances(), equalTo(6));
+            assertThat(os.getQuota().getInstances(), equalTo(6));
+            assertThat(os.getQuota().isUnlimited(), equalTo(false));
+        } finally {
+            Openstack.QUOTA_CACHE_TIME = cacheTime;
+        }
+    }
+
     /**
      * Track the state of the openstack to be manifested by different client calls;
      */